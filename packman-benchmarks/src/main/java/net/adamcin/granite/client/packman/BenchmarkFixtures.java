@@ -0,0 +1,230 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the synthetic inputs shared by the benchmarks.
+ */
+final class BenchmarkFixtures {
+    static final String FIXTURE = "fixture";
+    static final String CHARSET = "UTF-8";
+    static final String INSTALL_SUCCESS = "/install_success.html";
+
+    private static final String[] ACTIONS = {"A", "U", "-", "D"};
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @param lines either {@link #FIXTURE} for the bundled install_success.html, or the number of progress lines
+     * @return a console.html response body
+     */
+    static byte[] detailedResponse(String lines) throws IOException {
+        if (FIXTURE.equals(lines)) {
+            return readResource(INSTALL_SUCCESS);
+        }
+
+        final int count = Integer.parseInt(lines);
+        StringBuilder body = new StringBuilder(count * 64);
+        body.append("<html><head></head>\n");
+        body.append("<body><h2>Installing content</h2><div>");
+        body.append("<span class=\"Collecting import information...\"><b>Collecting import information...</b>&nbsp;</span><br>\n");
+        body.append("<span class=\"Importing content...\"><b>Importing content...</b>&nbsp;</span><br>\n");
+        for (int i = 0; i < count; i++) {
+            if (i % 1000 == 999) {
+                body.append("<span class=\"E\"><b>E</b>&nbsp;/content/bench/node-").append(i)
+                        .append(" (javax.jcr.AccessDeniedException: Insufficient permission.)</span><br>\n");
+            } else {
+                String action = ACTIONS[i % ACTIONS.length];
+                body.append("<span class=\"").append(action).append("\"><b>").append(action)
+                        .append("</b>&nbsp;/content/bench/node-").append(i).append("/jcr:content</span><br>\n");
+            }
+        }
+        body.append("<span class=\"Package imported.\"><b>Package imported.</b>&nbsp;</span><br>\n");
+        body.append("</div><br>Package installed in 1234ms.<br>\n");
+        body.append("</body></html>\n");
+        return body.toString().getBytes(CHARSET);
+    }
+
+    /**
+     * @param packages number of results
+     * @return a list.jsp response body
+     */
+    static byte[] listResponse(int packages) throws IOException {
+        StringBuilder body = new StringBuilder(packages * 384);
+        body.append("{\"results\":[");
+        for (int i = 0; i < packages; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            String name = "bench-package-" + i;
+            body.append("{\"pid\":\"bench:").append(name).append(":1.0.").append(i % 10).append("\",")
+                    .append("\"path\":\"/etc/packages/bench/").append(name).append("-1.0.").append(i % 10).append(".zip\",")
+                    .append("\"name\":\"").append(name).append("\",")
+                    .append("\"downloadName\":\"").append(name).append("-1.0.").append(i % 10).append(".zip\",")
+                    .append("\"group\":\"bench\",")
+                    .append("\"groupTitle\":\"bench\",")
+                    .append("\"version\":\"1.0.").append(i % 10).append("\",")
+                    .append("\"description\":\"Synthetic package for list.jsp benchmarks\",")
+                    .append("\"size\":").append(4096 + i).append(',')
+                    .append("\"created\":1375000000000,")
+                    .append("\"createdBy\":\"admin\",")
+                    .append("\"lastModified\":1375000000000,")
+                    .append("\"lastModifiedBy\":\"admin\",")
+                    .append("\"lastUnpacked\":1375000000000,")
+                    .append("\"lastUnpackedBy\":\"admin\",")
+                    .append("\"hasSnapshot\":").append(i % 2 == 0).append(',')
+                    .append("\"needsRewrap\":false,")
+                    .append("\"builtWith\":\"Adobe CQ5-5.6.0\",")
+                    .append("\"filter\":[{\"root\":\"/content/bench/").append(name).append("\",\"rules\":[]}]}");
+        }
+        body.append("],\"total\":").append(packages).append('}');
+        return body.toString().getBytes(CHARSET);
+    }
+
+    static byte[] simpleResponse() throws IOException {
+        return "{\"success\":true,\"msg\":\"Package uploaded\",\"path\":\"/etc/packages/bench/bench-package-1.0.zip\"}"
+                .getBytes(CHARSET);
+    }
+
+    static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + (i >>> 8));
+        }
+        return content;
+    }
+
+    /**
+     * Writes a package zip with the specified number of content entries and a META-INF/vault/properties.xml entry
+     * @param file the zip file to write
+     * @param entries number of content entries
+     * @param propertiesLast whether the properties entry follows the content entries instead of preceding them
+     */
+    static void writePackage(File file, int entries, boolean propertiesLast) throws IOException {
+        ZipOutputStream zip = null;
+        try {
+            zip = new ZipOutputStream(new FileOutputStream(file));
+            if (!propertiesLast) {
+                writeProperties(zip);
+            }
+
+            byte[] data = "<jcr:root/>".getBytes(CHARSET);
+            for (int i = 0; i < entries; i++) {
+                zip.putNextEntry(new ZipEntry("jcr_root/content/bench/node-" + i + "/.content.xml"));
+                zip.write(data);
+                zip.closeEntry();
+            }
+
+            if (propertiesLast) {
+                writeProperties(zip);
+            }
+        } finally {
+            if (zip != null) {
+                zip.close();
+            }
+        }
+    }
+
+    private static void writeProperties(ZipOutputStream zip) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(PackId.PROP_GROUP, "bench");
+        props.setProperty(PackId.PROP_NAME, "bench-package");
+        props.setProperty(PackId.PROP_VERSION, "1.0");
+        zip.putNextEntry(new ZipEntry(PackId.PROPERTIES_ENTRY));
+        props.storeToXML(zip, null);
+        zip.closeEntry();
+    }
+
+    static byte[] readResource(String resource) throws IOException {
+        InputStream stream = BenchmarkFixtures.class.getResourceAsStream(resource);
+        if (stream == null) {
+            throw new IOException("Missing resource " + resource);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            copy(stream, out);
+            return out.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+    static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+    }
+
+    /**
+     * Sinks every callback into the {@link Blackhole} so that the listener cannot be optimized away
+     */
+    static final class BlackholeListener implements ResponseProgressListener {
+        private final Blackhole blackhole;
+
+        BlackholeListener(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        public void onStart(String title) {
+            blackhole.consume(title);
+        }
+
+        public void onLog(String message) {
+            blackhole.consume(message);
+        }
+
+        public void onMessage(String message) {
+            blackhole.consume(message);
+        }
+
+        public void onProgress(String action, String path) {
+            blackhole.consume(action);
+            blackhole.consume(path);
+        }
+
+        public void onError(String path, String error) {
+            blackhole.consume(path);
+            blackhole.consume(error);
+        }
+    }
+}
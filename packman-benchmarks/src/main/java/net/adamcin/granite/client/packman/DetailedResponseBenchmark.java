@@ -0,0 +1,83 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link AbstractPackageManagerClient#parseDetailedResponse} against the bundled install_success.html and
+ * against synthetic install logs of increasing length. {@link #readDetailedResponse} decodes the whole body through
+ * an {@link InputStreamReader} first, for comparison with the byte-level path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DetailedResponseBenchmark {
+
+    @Param({BenchmarkFixtures.FIXTURE, "1000", "100000", "1000000"})
+    public String lines;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() throws IOException {
+        body = BenchmarkFixtures.detailedResponse(lines);
+    }
+
+    @Benchmark
+    public DetailedResponse parseDetailedResponse(Blackhole blackhole) throws IOException {
+        return AbstractPackageManagerClient.parseDetailedResponse(200, "OK", new ByteArrayInputStream(body),
+                BenchmarkFixtures.CHARSET, new BenchmarkFixtures.BlackholeListener(blackhole));
+    }
+
+    @Benchmark
+    public DetailedResponse readDetailedResponse(Blackhole blackhole) throws IOException {
+        return DetailedResponseParser.parse(
+                new InputStreamReader(new ByteArrayInputStream(body), BenchmarkFixtures.CHARSET),
+                new BenchmarkFixtures.BlackholeListener(blackhole));
+    }
+}
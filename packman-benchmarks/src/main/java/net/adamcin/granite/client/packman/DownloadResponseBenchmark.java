@@ -0,0 +1,140 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link AbstractPackageManagerClient#parseDownloadResponse} copying a body to a temp file, from an
+ * {@link InputStream} as the Http3 and Http4 transports do, from a stream channel through a direct buffer, and from a
+ * {@link java.nio.channels.FileChannel} with {@code transferFrom}. {@link #legacyCopy()} is the buffered stream loop
+ * that the NIO path replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DownloadResponseBenchmark {
+
+    @Param({"65536", "1048576", "67108864"})
+    public int length;
+
+    @Param({"16384", "65536", "262144"})
+    public int bufferSize;
+
+    private byte[] content;
+
+    private File inputFile;
+
+    private File outputFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        content = BenchmarkFixtures.content(length);
+        inputFile = File.createTempFile("download-benchmark", ".src");
+        OutputStream out = new FileOutputStream(inputFile);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        outputFile = File.createTempFile("download-benchmark", ".zip");
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (inputFile != null) {
+            inputFile.delete();
+        }
+        if (outputFile != null) {
+            outputFile.delete();
+        }
+    }
+
+    @Benchmark
+    public DownloadResponse parseDownloadResponse() throws IOException {
+        return AbstractPackageManagerClient.parseDownloadResponse(200, "OK", new ByteArrayInputStream(content),
+                outputFile, bufferSize);
+    }
+
+    @Benchmark
+    public DownloadResponse parseDownloadChannel() throws IOException {
+        return AbstractPackageManagerClient.parseDownloadResponse(200, "OK", null,
+                Channels.newChannel(new ByteArrayInputStream(content)), outputFile, null, bufferSize);
+    }
+
+    @Benchmark
+    public DownloadResponse transferFromFile() throws IOException {
+        return AbstractPackageManagerClient.parseDownloadResponse(200, "OK", null,
+                new FileInputStream(inputFile).getChannel(), outputFile, null, bufferSize);
+    }
+
+    @Benchmark
+    public long legacyCopy() throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(content));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile));
+        try {
+            byte[] buffer = new byte[16384];
+            long totalLength = 0;
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+                totalLength += len;
+            }
+            return totalLength;
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * Measures {@link PackId#parsePid(String)} against the {@link PackId#PID_PATTERN} match it replaced, and the
+ * serialized form of a list of PackIds in a few groups, both through {@link ObjectOutputStream} and through
+ * {@link PackIdCodec#writeAll}, against the default serialized form of a class with the same four fields, as PackId
+ * was serialized before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PackIdCodecBenchmark {
+
+    @Param({"1000"})
+    public int packages;
+
+    @Param({"10"})
+    public int groups;
+
+    private String[] pids;
+
+    private List<PackId> packIds;
+
+    private List<LegacyPackId> legacyPackIds;
+
+    private byte[] serialized;
+
+    private byte[] legacySerialized;
+
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        pids = new String[packages];
+        packIds = new ArrayList<PackId>(packages);
+        legacyPackIds = new ArrayList<LegacyPackId>(packages);
+        for (int i = 0; i < packages; i++) {
+            pids[i] = "bench-group-" + (i % groups) + ":bench-package-" + i + ":1.0." + (i % 10);
+            PackId packId = PackId.parsePid(pids[i]);
+            packIds.add(packId);
+            legacyPackIds.add(new LegacyPackId(packId));
+        }
+        serialized = serialize(packIds);
+        legacySerialized = serialize(legacyPackIds);
+        encoded = writeAll();
+    }
+
+    @Benchmark
+    public void parsePid(Blackhole blackhole) {
+        for (String pid : pids) {
+            blackhole.consume(PackId.parsePid(pid));
+        }
+    }
+
+    @Benchmark
+    public void parsePidRegex(Blackhole blackhole) {
+        for (String pid : pids) {
+            Matcher matcher = PackId.PID_PATTERN.matcher(pid.trim());
+            if (matcher.find()) {
+                blackhole.consume(PackId.createPackId(matcher.group(1), matcher.group(2),
+                        matcher.groupCount() >= 4 ? matcher.group(4) : null));
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serialize(packIds);
+    }
+
+    @Benchmark
+    public byte[] serializeLegacy() throws IOException {
+        return serialize(legacyPackIds);
+    }
+
+    @Benchmark
+    public byte[] writeAll() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoded != null ? encoded.length : 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        PackIdCodec.writeAll(out, packIds);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+    }
+
+    @Benchmark
+    public Object deserializeLegacy() throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(legacySerialized)).readObject();
+    }
+
+    @Benchmark
+    public List<PackId> readAll() throws IOException {
+        return PackIdCodec.readAll(new DataInputStream(new ByteArrayInputStream(encoded)));
+    }
+
+    private static byte[] serialize(List<?> values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(new ArrayList<Object>(values));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The fields of a PackId in their default serialized form.
+     */
+    static final class LegacyPackId implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String group;
+        private final String name;
+        private final String version;
+        private final String installationPath;
+
+        LegacyPackId(PackId packId) {
+            this.group = packId.getGroup();
+            this.name = packId.getName();
+            this.version = packId.getVersion();
+            this.installationPath = packId.getInstallationPath();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import org.apache.jackrabbit.vault.packaging.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sorting and finding the latest of many versions of a few packages with {@link PackId#compareTo(PackId)},
+ * against a comparator that creates a {@link Version} for both sides of every comparison, as compareTo used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PackIdCompareBenchmark {
+    private static final Comparator<PackId> VERSION_CREATE = new Comparator<PackId>() {
+        public int compare(PackId left, PackId right) {
+            if (left.getGroup().equals(right.getGroup())) {
+                if (left.getName().equals(right.getName())) {
+                    if (left.getVersion().equals(right.getVersion())) {
+                        return 0;
+                    }
+                    return Version.create(left.getVersion()).compareTo(Version.create(right.getVersion()));
+                }
+                return left.getName().compareTo(right.getName());
+            }
+            return left.getGroup().compareTo(right.getGroup());
+        }
+    };
+
+    @Param({"100000"})
+    public int packages;
+
+    private List<PackId> packIds;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(packages);
+        packIds = new ArrayList<PackId>(packages);
+        for (int i = 0; i < packages; i++) {
+            String version = random.nextInt(5) + "." + random.nextInt(20) + "." + random.nextInt(100)
+                    + (random.nextBoolean() ? "-SNAPSHOT" : "");
+            packIds.add(PackId.createPackId("bench", "bench-package-" + random.nextInt(10), version));
+        }
+    }
+
+    @Benchmark
+    public List<PackId> sort() {
+        List<PackId> sorted = new ArrayList<PackId>(packIds);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    @Benchmark
+    public List<PackId> sortWithVersionCreate() {
+        List<PackId> sorted = new ArrayList<PackId>(packIds);
+        Collections.sort(sorted, VERSION_CREATE);
+        return sorted;
+    }
+
+    @Benchmark
+    public PackId max() {
+        return Collections.max(packIds);
+    }
+
+    @Benchmark
+    public PackId maxWithVersionCreate() {
+        return Collections.max(packIds, VERSION_CREATE);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heap retained by the results of repeatedly polling the same list.jsp reply, as a long running process
+ * does, with and without a {@link PackIdPool}. The {@code retainedBytes} counter reports the growth of the used heap
+ * after a full collection, divided by the number of retained results. JMH sums event counters over the measurement
+ * iterations, so there is only one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 1, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class PackIdInternBenchmark {
+
+    @Param({"10000"})
+    public int packages;
+
+    @Param({"20"})
+    public int polls;
+
+    private byte[] body;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+        public long retainedBytes;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        body = BenchmarkFixtures.listResponse(packages);
+    }
+
+    @Benchmark
+    public int withoutPool(Heap heap) throws IOException {
+        return poll(null, heap);
+    }
+
+    @Benchmark
+    public int withPool(Heap heap) throws IOException {
+        return poll(new PackIdPool(), heap);
+    }
+
+    private int poll(PackIdPool pool, Heap heap) throws IOException {
+        final long baseline = usedHeap();
+        final List<ListResponse> retained = new ArrayList<ListResponse>(polls);
+        for (int i = 0; i < polls; i++) {
+            ListResponse response = AbstractPackageManagerClient.parseListResponse(200, "OK",
+                    new ByteArrayInputStream(body), BenchmarkFixtures.CHARSET);
+            retained.add(pool != null ? pool.internResponse(response) : response);
+        }
+        heap.retainedBytes = (usedHeap() - baseline) / ((long) packages * polls);
+        return retained.size();
+    }
+
+    private static long usedHeap() {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            final long collected = memory.getHeapMemoryUsage().getUsed();
+            if (collected >= used) {
+                break;
+            }
+            used = collected;
+        }
+        return used;
+    }
+}
@@ -27,25 +27,51 @@
 
 package net.adamcin.granite.client.packman;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * The AbstractPackageManagerClient provides constants and concrete implementations for generic method logic and response
@@ -64,6 +90,33 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
     public static final String DEFAULT_USERNAME = "admin";
     public static final String DEFAULT_PASSWORD = "admin";
     public static final int MIN_AUTOSAVE = 1024;
+    public static final int DEFAULT_DOWNLOAD_BUFFER_SIZE = 65536;
+    public static final int MIN_DOWNLOAD_SEGMENT_SIZE = 1048576;
+    public static final long DEFAULT_TRANSFER_PROGRESS_INTERVAL = 500L;
+    public static final String PARTIAL_DOWNLOAD_SUFFIX = ".part";
+    public static final String DOWNLOAD_METADATA_SUFFIX = ".meta";
+
+    public static final String HEADER_RANGE = "Range";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    public static final String HEADER_CONTENT_RANGE = "Content-Range";
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    public static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    /**
+     * The response headers that transports must pass to {@link #newDownloadResponseWriter}
+     */
+    protected static final String[] DOWNLOAD_RESPONSE_HEADERS = {
+            HEADER_ACCEPT_RANGES, HEADER_CONTENT_RANGE, HEADER_ETAG, HEADER_LAST_MODIFIED, HEADER_CONTENT_LENGTH
+    };
+
+    static final String META_LENGTH = "length";
+    static final String META_ETAG = "etag";
+    static final String META_LAST_MODIFIED = "lastModified";
+    static final String META_SHA256 = "sha256";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     public static final String MIME_ZIP = "application/zip";
 
@@ -83,6 +136,8 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
     public static final String KEY_VERSION = "version";
     public static final String KEY_HAS_SNAPSHOT = "hasSnapshot";
     public static final String KEY_NEEDS_REWRAP = "needsRewrap";
+    public static final String KEY_SIZE = "size";
+    public static final String KEY_LAST_MODIFIED = "lastModified";
     public static final String KEY_INCLUDE_VERSIONS = "includeVersions";
     public static final String KEY_QUERY = "q";
 
@@ -96,12 +151,6 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
     public static final String CMD_DELETE = "delete";
     public static final String CMD_REPLICATE = "replicate";
 
-    private static final Pattern PATTERN_TITLE = Pattern.compile("^<body><h2>([^<]*)</h2>");
-    private static final Pattern PATTERN_LOG = Pattern.compile("^([^<]*<br>)+");
-    //private static final Pattern PATTERN_MESSAGE = Pattern.compile("<span class=\"([^\"]*)\"><b>([^<]*)</b>&nbsp;([^<(]*)(\\([^)]*\\))?</span>");
-    private static final Pattern PATTERN_MESSAGE = Pattern.compile("<span class=\"([^\"]*)\"><b>([^<]*)</b>&nbsp;([^<(]*)(.*)$");
-    private static final Pattern PATTERN_SUCCESS = Pattern.compile("^</div><br>(.*) in (\\d+)ms\\.<br>");
-
     public static final String LOGIN_PATH = "/crx/j_security_check";
     public static final String LOGIN_PARAM_USERNAME = "j_username";
     public static final String LOGIN_PARAM_PASSWORD = "j_password";
@@ -121,6 +170,18 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
     private String baseUrl = DEFAULT_BASE_URL;
     private long requestTimeout = -1L;
     private long serviceTimeout = -1L;
+    private ProgressErrorPolicy progressErrorPolicy = ProgressErrorPolicy.UNBOUNDED;
+    private int downloadBufferSize = DEFAULT_DOWNLOAD_BUFFER_SIZE;
+    private boolean downloadResume = false;
+    private boolean downloadConditional = false;
+    private int downloadSegments = 1;
+    private PackageCache packageCache = null;
+    private UploadManifest uploadManifest = null;
+    private TransferProgressListener transferProgressListener = null;
+    private long transferProgressInterval = DEFAULT_TRANSFER_PROGRESS_INTERVAL;
+    private BandwidthLimiter bandwidthLimiter = null;
+    private IdentifyCache identifyCache = null;
+    private PackIdPool packIdPool = null;
 
     public void setBaseUrl(String baseUrl) {
         if (baseUrl == null) {
@@ -154,6 +215,123 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         this.serviceTimeout = serviceTimeout;
     }
 
+    public ProgressErrorPolicy getProgressErrorPolicy() {
+        return progressErrorPolicy;
+    }
+
+    public void setProgressErrorPolicy(ProgressErrorPolicy progressErrorPolicy) {
+        if (progressErrorPolicy == null) {
+            throw new NullPointerException("progressErrorPolicy");
+        }
+        this.progressErrorPolicy = progressErrorPolicy;
+    }
+
+    public int getDownloadBufferSize() {
+        return downloadBufferSize;
+    }
+
+    public void setDownloadBufferSize(int downloadBufferSize) {
+        if (downloadBufferSize < 1) {
+            throw new IllegalArgumentException("downloadBufferSize must be positive");
+        }
+        this.downloadBufferSize = downloadBufferSize;
+    }
+
+    public boolean isDownloadResume() {
+        return downloadResume;
+    }
+
+    public void setDownloadResume(boolean downloadResume) {
+        this.downloadResume = downloadResume;
+    }
+
+    public boolean isDownloadConditional() {
+        return downloadConditional;
+    }
+
+    public void setDownloadConditional(boolean downloadConditional) {
+        this.downloadConditional = downloadConditional;
+    }
+
+    public int getDownloadSegments() {
+        return downloadSegments;
+    }
+
+    public void setDownloadSegments(int downloadSegments) {
+        if (downloadSegments < 1) {
+            throw new IllegalArgumentException("downloadSegments must be positive");
+        }
+        this.downloadSegments = downloadSegments;
+    }
+
+    public PackageCache getPackageCache() {
+        return packageCache;
+    }
+
+    public void setPackageCache(PackageCache packageCache) {
+        this.packageCache = packageCache;
+    }
+
+    public UploadManifest getUploadManifest() {
+        return uploadManifest;
+    }
+
+    public void setUploadManifest(UploadManifest uploadManifest) {
+        this.uploadManifest = uploadManifest;
+    }
+
+    public TransferProgressListener getTransferProgressListener() {
+        return transferProgressListener;
+    }
+
+    public void setTransferProgressListener(TransferProgressListener transferProgressListener) {
+        this.transferProgressListener = transferProgressListener;
+    }
+
+    public long getTransferProgressInterval() {
+        return transferProgressInterval;
+    }
+
+    public void setTransferProgressInterval(long transferProgressInterval) {
+        if (transferProgressInterval < 0L) {
+            throw new IllegalArgumentException("transferProgressInterval must not be negative");
+        }
+        this.transferProgressInterval = transferProgressInterval;
+    }
+
+    public BandwidthLimiter getBandwidthLimiter() {
+        return bandwidthLimiter;
+    }
+
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    public IdentifyCache getIdentifyCache() {
+        return identifyCache;
+    }
+
+    public void setIdentifyCache(IdentifyCache identifyCache) {
+        this.identifyCache = identifyCache;
+    }
+
+    public PackIdPool getPackIdPool() {
+        return packIdPool;
+    }
+
+    public void setPackIdPool(PackIdPool packIdPool) {
+        this.packIdPool = packIdPool;
+    }
+
+    /**
+     * Segmented downloads issue requests from several threads at once, which is only safe if the underlying client
+     * supports it.
+     * @return {@code true} if concurrent requests are supported by the underlying client
+     */
+    protected boolean isConcurrentRequestSupported() {
+        return false;
+    }
+
     protected final String getHtmlUrl() {
         return getBaseUrl() + HTML_SERVICE_PATH;
     }
@@ -213,166 +391,118 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
 
     protected abstract ResponseBuilder getResponseBuilder();
 
-    private static boolean handleStart(String line, ResponseProgressListener listener) {
-        if (line.startsWith("<body>")) {
-            Matcher titleMatcher = PATTERN_TITLE.matcher(line);
-            if (titleMatcher.find()) {
-                listener.onStart(titleMatcher.group(1));
-                return true;
-            }
-        }
-        return false;
+    /**
+     * Creates a parser that accepts the body of a detailed response in chunks as they are received, so that the
+     * listener is notified in real time and the body is never buffered in full.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param charset the response charset. UTF-8 is assumed if {@code null}
+     * @param listener the progress listener. May be {@code null}
+     * @return a new body parser
+     * @throws IOException if the status code does not indicate success or if the charset is not supported
+     */
+    protected static DetailedResponseBodyParser newDetailedResponseParser(final int statusCode,
+                                                                          final String statusText,
+                                                                          final String charset,
+                                                                          final ResponseProgressListener listener)
+            throws IOException {
+        return newDetailedResponseParser(statusCode, statusText, charset, listener, ProgressErrorPolicy.UNBOUNDED);
     }
 
-    private static DetailedResponse handleSuccess(String line, List<String> progressErrors) {
-        if (line.startsWith("</div>")) {
-            String message = "";
-            long duration = -1L;
-            Matcher successMatcher = PATTERN_SUCCESS.matcher(line);
-            if (successMatcher.find()) {
-                message = successMatcher.group(1);
-                try {
-                    duration = Long.valueOf(successMatcher.group(2));
-                } catch (Exception e) { }
-                return new DetailedResponseImpl(true, message, duration, progressErrors, null);
-            }
-        }
-        return null;
+    /**
+     * Creates a parser that accepts the body of a detailed response in chunks as they are received.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param charset the response charset. UTF-8 is assumed if {@code null}
+     * @param listener the progress listener. May be {@code null}
+     * @param policy determines which progress errors are retained
+     * @return a new body parser
+     * @throws IOException if the status code does not indicate success or if the charset is not supported
+     */
+    protected static DetailedResponseBodyParser newDetailedResponseParser(final int statusCode,
+                                                                          final String statusText,
+                                                                          final String charset,
+                                                                          final ResponseProgressListener listener,
+                                                                          final ProgressErrorPolicy policy)
+            throws IOException {
+        return newDetailedResponseParser(statusCode, statusText, charset, listener, policy, null);
     }
 
-    private static DetailedResponse handleFailure(String line, List<String> failureBuilder, List<String> progressErrors) {
-        if (line.startsWith("</pre>")) {
-            String msg = failureBuilder != null && !failureBuilder.isEmpty() ? failureBuilder.remove(0) : "";
-            return new DetailedResponseImpl(false, msg, -1, progressErrors, failureBuilder);
-        } else {
-            // assume line is part of stack trace
-            failureBuilder.add(line.trim());
-        }
-        return null;
-    }
+    /**
+     * Creates a parser that accepts the body of a detailed response in chunks as they are received, and that also
+     * writes every byte of the body to a GZIP-compressed transcript.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param charset the response charset. UTF-8 is assumed if {@code null}
+     * @param listener the progress listener. May be {@code null}
+     * @param policy determines which progress errors are retained
+     * @param transcript receives the GZIP-compressed response body. Not closed by the parser. May be {@code null}
+     * @return a new body parser
+     * @throws IOException if the status code does not indicate success or if the charset is not supported
+     */
+    protected static DetailedResponseBodyParser newDetailedResponseParser(final int statusCode,
+                                                                          final String statusText,
+                                                                          final String charset,
+                                                                          final ResponseProgressListener listener,
+                                                                          final ProgressErrorPolicy policy,
+                                                                          final OutputStream transcript)
+            throws IOException {
 
-    private static void handleLogs(String line, ResponseProgressListener listener) {
-        if (!line.startsWith("<span")) {
-            Matcher logMatcher = PATTERN_LOG.matcher(line);
-            if (logMatcher.find()) {
-                String logs = logMatcher.group(1);
-                for (String log : logs.split("<br>")) {
-                    if (!log.isEmpty()) {
-                        listener.onLog(log);
-                    }
-                }
-            }
+        if (statusCode == 400) {
+            throw new IOException("Command not supported by service");
+        } else if (statusCode / 100 != 2) {
+            throw new IOException(Integer.toString(statusCode) + " " + statusText);
+        } else {
+            final ResponseProgressListener _listener = listener == null ? DEFAULT_LISTENER : listener;
+            final ProgressErrorPolicy _policy = policy == null ? ProgressErrorPolicy.UNBOUNDED : policy;
+            return new DetailedResponseBodyParser(charset, _listener, _policy, transcript);
         }
     }
 
-    private static void handleMessage(String line, List<String> progressErrors, ResponseProgressListener listener, BufferedReader reader) {
-        Matcher messageMatcher = PATTERN_MESSAGE.matcher(line);
-        if (messageMatcher.find()) {
-            String action = messageMatcher.group(1);
-            String path = messageMatcher.group(3);
-            String error = messageMatcher.group(4);
-            boolean isEndOfMessage = error.endsWith("</span><br>");
-
-            try {
-                while (!isEndOfMessage) {
-                    String addtLine = reader.readLine();
-                    if (addtLine.endsWith("</span><br>")) {
-                        isEndOfMessage = true;
-                    }
-                    error = error + "\r\n" + addtLine;
-                }
-            } catch (IOException e) {
-                e.printStackTrace(System.err);
-            }
-
-            if (error.lastIndexOf("</span><br>") >= 0) {
-                error = error.substring(0, error.lastIndexOf("</span><br>"));
-            }
-
-            if ("E".equals(action)) {
-                progressErrors.add(path + " " + error);
-                listener.onError(path.trim(), error.substring(1, error.length()-1));
-            } else if (action.length() == 1) {
-                listener.onProgress(action, path.trim());
-            } else {
-                listener.onMessage(action);
-            }
-        }
+    protected static DetailedResponse parseDetailedResponse(final int statusCode,
+                                                                  final String statusText,
+                                                                  final InputStream stream,
+                                                                  final String charset,
+                                                                  final ResponseProgressListener listener)
+        throws IOException {
+        return parseDetailedResponse(statusCode, statusText, stream, charset, listener, ProgressErrorPolicy.UNBOUNDED);
     }
 
-    private static boolean handleBeginFailure(String line) {
-        return line.endsWith("<span class=\"error\">Error during processing.</span><br><code><pre>");
+    protected static DetailedResponse parseDetailedResponse(final int statusCode,
+                                                                  final String statusText,
+                                                                  final InputStream stream,
+                                                                  final String charset,
+                                                                  final ResponseProgressListener listener,
+                                                                  final ProgressErrorPolicy policy)
+        throws IOException {
+        return parseDetailedResponse(statusCode, statusText, stream, charset, listener, policy, null);
     }
 
     protected static DetailedResponse parseDetailedResponse(final int statusCode,
                                                                   final String statusText,
                                                                   final InputStream stream,
                                                                   final String charset,
-                                                                  final ResponseProgressListener listener)
+                                                                  final ResponseProgressListener listener,
+                                                                  final ProgressErrorPolicy policy,
+                                                                  final OutputStream transcript)
         throws IOException {
 
-        if (statusCode == 400) {
-            throw new IOException("Command not supported by service");
-        } else if (statusCode / 100 != 2) {
-            throw new IOException(Integer.toString(statusCode) + " " + statusText);
-        } else {
-            final ResponseProgressListener _listener = listener == null ? DEFAULT_LISTENER : listener;
-
-            BufferedReader reader = null;
+        try {
+            final DetailedResponseBodyParser parser =
+                    newDetailedResponseParser(statusCode, statusText, charset, listener, policy, transcript);
             try {
-                reader = new BufferedReader(new InputStreamReader(stream, charset));
-                boolean isFailure = false;
-                boolean isStarted = false;
-                final List<String> failureBuilder = new ArrayList<String>();
-                final List<String> progressErrors = new ArrayList<String>();
-
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (isFailure) {
-
-                        // handle failure end line
-                        DetailedResponse response = handleFailure(line, failureBuilder, progressErrors);
-                        if (response != null) {
-                            return response;
-                        }
-
-                    } else {
-
-                        if (!isStarted) {
-                            // handle title line
-                            if (handleStart(line, _listener)) {
-                                isStarted = true;
-                            }
-                        }
-
-                        if (isStarted) {
-                            // handle success line
-                            DetailedResponse response = handleSuccess(line, progressErrors);
-                            if (response != null) {
-                                return response;
-                            }
-
-                            // handle log statements
-                            handleLogs(line, _listener);
-
-                            // handle progress message
-                            handleMessage(line, progressErrors, _listener, reader);
-
-                            if (handleBeginFailure(line)) {
-                                isFailure = true;
-                            }
-                        }
-                    }
+                byte[] buffer = new byte[8192];
+                int len;
+                // the transcript records the body to the end, even after the result is recognized
+                while ((!parser.isComplete() || transcript != null) && (len = stream.read(buffer)) != -1) {
+                    parser.write(buffer, 0, len);
                 }
-
-                // throw an exception if neither success or failure was returned
-                throw new IOException("Failed to parse service response");
-
+                return parser.finish();
             } finally {
-                if (reader != null) {
-                    reader.close();
-                }
+                parser.abort();
             }
+        } finally {
+            stream.close();
         }
     }
 
@@ -407,26 +537,30 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
                                                     final String charset)
         throws IOException {
 
-        if (statusCode == 200) {
-            try {
-                ArrayList<ListResult> results = new ArrayList<ListResult>();
-                JSONTokener tokener = new JSONTokener(new InputStreamReader(stream, charset));
-
-                final JSONObject resultsObj = new JSONObject(tokener);
-                final JSONArray resultsArr = resultsObj.getJSONArray(KEY_RESULTS);
-
-                final int total = resultsObj.getInt(KEY_TOTAL);
+        final ArrayList<ListResult> results = new ArrayList<ListResult>();
+        final int total = parseListResponse(statusCode, statusText, stream, charset, new ListResultListener() {
+            public void onResult(ListResult result) {
+                results.add(result);
+            }
+        });
 
-                for (int i = 0; i < resultsArr.length(); i++) {
-                    JSONObject result = resultsArr.getJSONObject(i);
+        return new ListResponseImpl(results, total);
+    }
 
-                    results.add(ListResultImpl.fromJSONObject(result));
-                }
+    /**
+     * Streaming variant of {@link #parseListResponse(int, String, InputStream, String)} which passes each result to
+     * the listener as soon as it is parsed, without building a JSON tree or collecting the results.
+     * @return the total reported by the response
+     */
+    protected static int parseListResponse(final int statusCode,
+                                           final String statusText,
+                                           final InputStream stream,
+                                           final String charset,
+                                           final ListResultListener listener)
+        throws IOException {
 
-                return new ListResponseImpl(results, total);
-            } catch (JSONException e) {
-                throw new IOException("Exception encountered while parsing response.", e);
-            }
+        if (statusCode == 200) {
+            return ListResponseParser.parse(new InputStreamReader(stream, charset), listener);
         } else {
             throw new IOException("Invalid status code: " + statusCode);
         }
@@ -437,38 +571,182 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
                                                     final InputStream stream,
                                                     final File outputFile)
             throws IOException {
+        return parseDownloadResponse(statusCode, statusText, stream, outputFile, DEFAULT_DOWNLOAD_BUFFER_SIZE);
+    }
 
-        if (outputFile.isDirectory()) {
-            throw new IOException("Cannot download to a directory. outputFile=" + outputFile.getAbsolutePath());
-        }
+    /**
+     * Copies the response body to the output file through a single direct buffer, which is written straight to the
+     * file's channel.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param stream the response body
+     * @param outputFile the file to write
+     * @param bufferSize the size of the copy buffer
+     * @return the download response
+     * @throws IOException if the status code is not 200 or if the copy fails
+     */
+    protected static DownloadResponse parseDownloadResponse(final int statusCode,
+                                                    final String statusText,
+                                                    final InputStream stream,
+                                                    final File outputFile,
+                                                    final int bufferSize)
+            throws IOException {
+        return parseDownloadResponse(statusCode, statusText, null, stream, outputFile, null, bufferSize);
+    }
 
-        if (statusCode == 200) {
-            InputStream in = new BufferedInputStream(stream);
-            OutputStream out = null;
+    /**
+     * Copies the body of a response to a {@link DownloadRequest} to the output file, at the offset given by its
+     * {@code Content-Range}. A {@code 200} response is written to the output file in full. The stream is read as a
+     * channel, see {@link #parseDownloadResponse(int, String, Map, ReadableByteChannel, File, DownloadRequest, int)}.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param headers the values of the {@link #DOWNLOAD_RESPONSE_HEADERS} that are present in the response
+     * @param stream the response body
+     * @param outputFile the file to write
+     * @param request the range and conditions of the request, or null if the complete package was requested
+     * @param bufferSize the size of the copy buffer
+     * @return the download response
+     * @throws IOException if the status code or {@code Content-Range} does not match the request, or if the copy
+     * fails
+     */
+    protected static DownloadResponse parseDownloadResponse(final int statusCode,
+                                                    final String statusText,
+                                                    final Map<String, String> headers,
+                                                    final InputStream stream,
+                                                    final File outputFile,
+                                                    final DownloadRequest request,
+                                                    final int bufferSize)
+            throws IOException {
+        final ReadableByteChannel channel = stream instanceof FileInputStream
+                ? ((FileInputStream) stream).getChannel() : Channels.newChannel(stream);
+        return parseDownloadResponse(statusCode, statusText, headers, channel, outputFile, request, bufferSize);
+    }
+
+    /**
+     * Copies the body of a response to a {@link DownloadRequest} to the output file, like
+     * {@link #parseDownloadResponse(int, String, Map, InputStream, File, DownloadRequest, int)}. A {@link FileChannel}
+     * source is transferred by {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}, and any other
+     * channel through a direct buffer, so that the JDK does not copy every chunk into a temporary direct buffer.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param headers the values of the {@link #DOWNLOAD_RESPONSE_HEADERS} that are present in the response
+     * @param channel the response body
+     * @param outputFile the file to write
+     * @param request the range and conditions of the request, or null if the complete package was requested
+     * @param bufferSize the size of the direct buffer, or the maximum size of each transfer
+     * @return the download response
+     * @throws IOException if the status code or {@code Content-Range} does not match the request, or if the copy
+     * fails
+     */
+    protected static DownloadResponse parseDownloadResponse(final int statusCode,
+                                                    final String statusText,
+                                                    final Map<String, String> headers,
+                                                    final ReadableByteChannel channel,
+                                                    final File outputFile,
+                                                    final DownloadRequest request,
+                                                    final int bufferSize)
+            throws IOException {
+
+        try {
+            final DownloadResponseBodyWriter writer = newDownloadResponseWriter(statusCode, statusText,
+                    headers, outputFile, request);
             try {
+                writer.transferFrom(channel, bufferSize);
+                return writer.finish();
+            } finally {
+                writer.abort();
+            }
+        } finally {
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Creates a writer that accepts the body of a download response in chunks as they are received.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param outputFile the file to write
+     * @return a new body writer
+     * @throws IOException if the output file is a directory, if the status code is not 200, or if the output file
+     * cannot be opened
+     */
+    protected static DownloadResponseBodyWriter newDownloadResponseWriter(final int statusCode,
+                                                                          final String statusText,
+                                                                          final File outputFile)
+            throws IOException {
+        return newDownloadResponseWriter(statusCode, statusText, null, outputFile, null);
+    }
 
-                out = new BufferedOutputStream(new FileOutputStream(outputFile));
+    /**
+     * Creates a writer that accepts the body of a response to a {@link DownloadRequest}. A {@code 206} response is
+     * written at the offset given by its {@code Content-Range}, which must start at the first requested byte. A
+     * {@code 200} response means that the server ignored the range, and is written to the output file in full, unless
+     * the range covers neither the start nor the end of the package. A {@code 304} response to a conditional request
+     * leaves the output file untouched.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param headers the values of the {@link #DOWNLOAD_RESPONSE_HEADERS} that are present in the response
+     * @param outputFile the file to write
+     * @param request the range and conditions of the request, or null if the complete package was requested
+     * @return a new body writer
+     * @throws IOException if the output file is a directory, if the response does not match the request, or if the
+     * output file cannot be opened
+     */
+    protected static DownloadResponseBodyWriter newDownloadResponseWriter(final int statusCode,
+                                                                          final String statusText,
+                                                                          final Map<String, String> headers,
+                                                                          final File outputFile,
+                                                                          final DownloadRequest request)
+            throws IOException {
 
-                byte[] buffer = new byte[16384];
-                long totalLength = 0;
-                int len;
-                while ((len = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, len);
-                    totalLength += len;
-                }
+        if (outputFile.isDirectory()) {
+            throw new IOException("Cannot download to a directory. outputFile=" + outputFile.getAbsolutePath());
+        }
 
-                return new DownloadResponseImpl(totalLength, outputFile);
-            } finally {
-                try { in.close(); } catch (IOException ignored) {}
-                if (out != null) {
-                    try { out.close(); } catch (IOException ignored) {}
-                }
+        final Map<String, String> _headers = headers != null ? headers : Collections.<String, String>emptyMap();
+        final DownloadRange range = request != null ? request.getRange() : null;
+        final MessageDigest digest = request != null ? request.getDigest() : null;
+        final TransferMeter meter = request != null ? request.getMeter() : null;
+        if (statusCode == 200) {
+            if (range != null && range.getFirst() > 0L && range.getLast() >= 0L) {
+                throw new IOException("Range request was not honored: " + range);
+            }
+            if (meter != null) {
+                meter.expect(parseContentLength(_headers.get(HEADER_CONTENT_LENGTH)));
+            }
+            return new DownloadResponseBodyWriter(outputFile, null, _headers, digest, meter);
+        } else if (statusCode == 206 && range != null) {
+            final String contentRange = _headers.get(HEADER_CONTENT_RANGE);
+            final DownloadRange received = DownloadRange.parseContentRange(contentRange);
+            if (received == null || !range.contains(received)) {
+                throw new IOException("Invalid Content-Range: " + contentRange + " for " + range);
+            }
+            if (meter != null && received.getTotal() >= 0L) {
+                meter.expect(received.getTotal() - received.getFirst());
             }
+            return new DownloadResponseBodyWriter(outputFile, received, _headers, digest, meter);
+        } else if (statusCode == 304 && request != null && request.isConditional()) {
+            return new DownloadResponseBodyWriter(_headers);
+        } else if (statusCode == 416 && range != null) {
+            throw new RangeNotSatisfiableException("Invalid status code: " + statusCode);
         } else {
             throw new IOException("Invalid status code: " + statusCode);
         }
     }
 
+    /**
+     * @return the value of a {@code Content-Length} header, or -1 if it is missing or invalid
+     */
+    private static long parseContentLength(final String contentLength) {
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return -1L;
+    }
+
     protected static abstract class Either<T, U> {
         abstract boolean isLeft();
         T getLeft() { return null; }
@@ -516,18 +794,23 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         final String message;
         final long duration;
         final List<String> progressErrors;
+        final long progressErrorCount;
+        final Map<String, Long> progressErrorCountsByPrefix;
+        final File progressErrorsFile;
         final List<String> stackTrace;
 
-        DetailedResponseImpl(boolean success, String message, long duration, List<String> progressErrors) {
+        DetailedResponseImpl(boolean success, String message, long duration, ProgressErrorCollector progressErrors) {
             this(success, message, duration, progressErrors, null);
         }
 
-        DetailedResponseImpl(boolean success, String message, long duration, List<String> progressErrors, List<String> stackTrace) {
+        DetailedResponseImpl(boolean success, String message, long duration, ProgressErrorCollector progressErrors, List<String> stackTrace) {
             this.success = success;
             this.message = message;
             this.duration = duration;
-            List<String> _progressErrors = progressErrors == null ? new ArrayList<String>() : progressErrors;
-            this.progressErrors = Collections.unmodifiableList(_progressErrors);
+            this.progressErrors = progressErrors.getErrors();
+            this.progressErrorCount = progressErrors.getCount();
+            this.progressErrorCountsByPrefix = progressErrors.getCountsByPrefix();
+            this.progressErrorsFile = progressErrors.getSpillFile();
             List<String> _stackTrace = stackTrace == null ? new ArrayList<String>() : stackTrace;
             this.stackTrace = Collections.unmodifiableList(_stackTrace);
         }
@@ -537,13 +820,25 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         }
 
         public boolean hasErrors() {
-            return !success || (progressErrors != null && !progressErrors.isEmpty());
+            return !success || progressErrorCount > 0L;
         }
 
         public List<String> getProgressErrors() {
             return progressErrors;
         }
 
+        public long getProgressErrorCount() {
+            return progressErrorCount;
+        }
+
+        public Map<String, Long> getProgressErrorCountsByPrefix() {
+            return progressErrorCountsByPrefix;
+        }
+
+        public File getProgressErrorsFile() {
+            return progressErrorsFile;
+        }
+
         public boolean isSuccess() {
             return success;
         }
@@ -560,7 +855,7 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
             return "{success:" + success +
                     ", msg:\"" + message +
                     "\", duration:\"" + duration +
-                    "\", hasErrors:" + !progressErrors.isEmpty() + "}";
+                    "\", hasErrors:" + (progressErrorCount > 0L) + "}";
         }
     }
 
@@ -568,11 +863,17 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         final boolean success;
         final String message;
         final String path;
+        final boolean skipped;
 
         SimpleResponseImpl(boolean success, String message, String path) {
+            this(success, message, path, false);
+        }
+
+        SimpleResponseImpl(boolean success, String message, String path, boolean skipped) {
             this.success = success;
             this.message = message;
             this.path = path == null ? "" : path;
+            this.skipped = skipped;
         }
 
         public boolean isSuccess() {
@@ -587,8 +888,13 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
             return path;
         }
 
+        public boolean isSkipped() {
+            return skipped;
+        }
+
         public String toString() {
-            return "{success:" + success + ", msg:\"" + message + "\", path:\"" + path + "\"}";
+            return "{success:" + success + ", msg:\"" + message + "\", path:\"" + path + "\""
+                    + (skipped ? ", skipped:true}" : "}");
         }
     }
 
@@ -622,37 +928,66 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         private final PackId packId;
         private final boolean hasSnapshot;
         private final boolean needsRewrap;
+        private final long size;
+        private final long lastModified;
 
-        ListResultImpl(PackId packId, boolean hasSnapshot, boolean needsRewrap) {
+        ListResultImpl(PackId packId, boolean hasSnapshot, boolean needsRewrap, long size, long lastModified) {
             this.packId = packId;
             this.hasSnapshot = hasSnapshot;
             this.needsRewrap = needsRewrap;
+            this.size = size;
+            this.lastModified = lastModified;
         }
 
         public PackId getPackId() { return this.packId; }
         public boolean isHasSnapshot() { return this.hasSnapshot; }
         public boolean isNeedsRewrap() { return this.needsRewrap; }
-
-        static ListResultImpl fromJSONObject(JSONObject result) throws JSONException {
-            PackId packId = PackId.createPackId(
-                    result.getString(KEY_GROUP),
-                    result.getString(KEY_NAME),
-                    result.optString(KEY_VERSION)
-            );
-
-            boolean hasSnapshot = result.has(KEY_HAS_SNAPSHOT) && result.getBoolean(KEY_HAS_SNAPSHOT);
-            boolean needsRewrap = result.has(KEY_NEEDS_REWRAP) && result.getBoolean(KEY_NEEDS_REWRAP);
-            return new ListResultImpl(packId, hasSnapshot, needsRewrap);
-        }
+        public long getSize() { return this.size; }
+        public long getLastModified() { return this.lastModified; }
     }
 
     static class DownloadResponseImpl implements DownloadResponse {
         private final Long length;
         private final File content;
+        private DownloadRange contentRange;
+        private boolean rangeSupported;
+        private boolean notModified;
+        private String etag;
+        private String lastModified;
+        private String sha256;
+        private long transferred;
+        private long resumedFrom = 0L;
+        private int segments = 1;
+        private long nanos = 0L;
 
         DownloadResponseImpl(Long length, File content) {
             this.length = length;
             this.content = content;
+            this.transferred = length;
+        }
+
+        /**
+         * Copies a response returned by a {@link ResponseBuilder} with the statistics of the complete download.
+         */
+        DownloadResponseImpl(DownloadResponse response, File content, long resumedFrom, int segments, long nanos) {
+            this(content.length(), content);
+            this.rangeSupported = response.isRangeSupported();
+            this.notModified = response.isNotModified();
+            this.etag = response.getETag();
+            this.lastModified = response.getLastModified();
+            this.sha256 = response.getSha256();
+            this.transferred = response.getTransferred();
+            this.resumedFrom = resumedFrom;
+            this.segments = segments;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @param response a response returned by a {@link ResponseBuilder}
+         * @return the {@code Content-Range} of a {@code 206} response, or null
+         */
+        static DownloadRange getContentRange(DownloadResponse response) {
+            return response instanceof DownloadResponseImpl ? ((DownloadResponseImpl) response).contentRange : null;
         }
 
         public Long getLength() {
@@ -662,40 +997,974 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         public File getContent() {
             return content;
         }
-    }
 
+        public long getTransferred() {
+            return transferred;
+        }
 
-    protected static abstract class ResponseBuilder {
-        protected abstract ResponseBuilder forPackId(PackId packId);
-        protected abstract ResponseBuilder withParam(String name, String value);
-        protected abstract ResponseBuilder withParam(String name, boolean value);
-        protected abstract ResponseBuilder withParam(String name, int value);
-        protected abstract ResponseBuilder withParam(String name, File value, String mimeType) throws IOException;
-        protected abstract SimpleResponse getSimpleResponse() throws Exception;
-        protected abstract ListResponse getListResponse() throws Exception;
-        protected abstract DetailedResponse getDetailedResponse(ResponseProgressListener listener) throws Exception;
-        protected abstract DownloadResponse getDownloadResponse(File outputFile) throws Exception;
-    }
+        public long getResumedFrom() {
+            return resumedFrom;
+        }
 
-    //-------------------------------------------------------------------------
-    // PackageManagerClient method implementations
-    //-------------------------------------------------------------------------
+        public int getSegments() {
+            return segments;
+        }
 
-    /**
-     * {@inheritDoc}
-     */
-    public PackId identify(File file) throws IOException {
-        return PackId.identifyPackage(file);
+        public boolean isRangeSupported() {
+            return rangeSupported;
+        }
+
+        public boolean isNotModified() {
+            return notModified;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public long getDuration() {
+            return nanos / 1000000L;
+        }
+
+        public double getThroughput() {
+            return nanos > 0L ? transferred * 1e9d / nanos : 0.0d;
+        }
     }
 
     /**
-     * {@inheritDoc}
+     * The range, validators and running digest of a download request. The digest must already contain the bytes that
+     * precede the range. The meter, if any, is shared by every request of the same download.
      */
-    public final void waitForService() throws Exception {
-        boolean checkTimeout = serviceTimeout >= 0L;
-        int tries = 0;
-        final long stop = System.currentTimeMillis() + serviceTimeout;
-        Either<? extends Exception, Boolean> resp;
+    protected static final class DownloadRequest {
+        private final DownloadRange range;
+        private final String ifNoneMatch;
+        private final String ifModifiedSince;
+        private final MessageDigest digest;
+        private final TransferMeter meter;
+
+        public DownloadRequest(DownloadRange range, String ifNoneMatch, String ifModifiedSince, MessageDigest digest) {
+            this(range, ifNoneMatch, ifModifiedSince, digest, null);
+        }
+
+        DownloadRequest(DownloadRange range, String ifNoneMatch, String ifModifiedSince, MessageDigest digest,
+                        TransferMeter meter) {
+            this.range = range;
+            this.ifNoneMatch = ifNoneMatch;
+            this.ifModifiedSince = ifModifiedSince;
+            this.digest = digest;
+            this.meter = meter;
+        }
+
+        public DownloadRange getRange() {
+            return range;
+        }
+
+        public MessageDigest getDigest() {
+            return digest;
+        }
+
+        public boolean isConditional() {
+            return ifNoneMatch != null || ifModifiedSince != null;
+        }
+
+        /**
+         * @return a request for the range with the same conditions and digest
+         */
+        public DownloadRequest withRange(DownloadRange range) {
+            return new DownloadRequest(range, ifNoneMatch, ifModifiedSince, digest, meter);
+        }
+
+        TransferMeter getMeter() {
+            return meter;
+        }
+
+        /**
+         * @return the request with the meter, which may be null if the request is null
+         */
+        static DownloadRequest withMeter(DownloadRequest request, TransferMeter meter) {
+            if (meter == null) {
+                return request;
+            } else if (request == null) {
+                return new DownloadRequest(null, null, null, null, meter);
+            }
+            return new DownloadRequest(request.range, request.ifNoneMatch, request.ifModifiedSince, request.digest,
+                    meter);
+        }
+
+        /**
+         * @return the {@code Range}, {@code If-None-Match} and {@code If-Modified-Since} headers to add to the request
+         */
+        public Map<String, String> getHeaders() {
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            if (range != null) {
+                headers.put(HEADER_RANGE, range.getHeaderValue());
+            }
+            if (ifNoneMatch != null) {
+                headers.put(HEADER_IF_NONE_MATCH, ifNoneMatch);
+            }
+            if (ifModifiedSince != null) {
+                headers.put(HEADER_IF_MODIFIED_SINCE, ifModifiedSince);
+            }
+            return headers;
+        }
+    }
+
+    /**
+     * An inclusive range of bytes, as requested by a {@code Range} header or as received in a {@code Content-Range}
+     * header.
+     */
+    protected static final class DownloadRange {
+        private final long first;
+        private final long last;
+        private final long total;
+
+        /**
+         * @param first the offset of the first byte
+         * @param last the offset of the last byte, or -1 to request every byte from {@code first} to the end
+         */
+        public DownloadRange(long first, long last) {
+            this(first, last, -1L);
+        }
+
+        DownloadRange(long first, long last, long total) {
+            this.first = first;
+            this.last = last;
+            this.total = total;
+        }
+
+        public long getFirst() {
+            return first;
+        }
+
+        public long getLast() {
+            return last;
+        }
+
+        /**
+         * @return the complete length of the package reported by a {@code Content-Range}, or -1 if it is unknown
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the length of a closed range, or -1 for an open range
+         */
+        public long getLength() {
+            return last >= 0L ? last - first + 1L : -1L;
+        }
+
+        /**
+         * @return the value of a {@code Range} request header
+         */
+        public String getHeaderValue() {
+            return "bytes=" + first + "-" + (last >= 0L ? Long.toString(last) : "");
+        }
+
+        boolean contains(DownloadRange received) {
+            return received.first == first && (last < 0L || received.last <= last);
+        }
+
+        /**
+         * @param value a {@code Content-Range} header of the form {@code bytes first-last/total}
+         * @return the range, or null if the value is missing or malformed
+         */
+        static DownloadRange parseContentRange(String value) {
+            if (value == null) {
+                return null;
+            }
+            final String _value = value.trim();
+            if (!_value.regionMatches(true, 0, "bytes ", 0, 6)) {
+                return null;
+            }
+            final int dash = _value.indexOf('-', 6);
+            final int slash = _value.indexOf('/', dash + 1);
+            if (dash < 0 || slash < 0) {
+                return null;
+            }
+            try {
+                final long first = Long.parseLong(_value.substring(6, dash).trim());
+                final long last = Long.parseLong(_value.substring(dash + 1, slash).trim());
+                final String _total = _value.substring(slash + 1).trim();
+                final long total = "*".equals(_total) ? -1L : Long.parseLong(_total);
+                if (first < 0L || last < first || (total >= 0L && last >= total)) {
+                    return null;
+                }
+                return new DownloadRange(first, last, total);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return getHeaderValue();
+        }
+    }
+
+    /**
+     * Thrown for a {@code 416} response to a resumed download, which means that the partial file is no longer a
+     * prefix of the package.
+     */
+    static final class RangeNotSatisfiableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RangeNotSatisfiableException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reads exactly the declared length of an uploaded package from the underlying stream, so that the multipart body
+     * always matches the {@code Content-Length} computed from it.
+     */
+    static final class UploadInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        UploadInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0L) {
+                return -1;
+            }
+            final int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new EOFException("Package stream ended " + remaining + " bytes short of its declared length");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a {@link ByteBuffer}, without copying them first.
+     */
+    static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Counts the bytes of one upload or download, which may be written by several threads at once, and reports them
+     * to a {@link TransferProgressListener} no more than once per interval. Between reports, counting a chunk costs
+     * one atomic add and one clock read. If a {@link BandwidthLimiter} is given, each chunk first waits for its
+     * tokens.
+     */
+    static final class TransferMeter {
+        private final TransferProgressListener listener;
+        private final BandwidthLimiter limiter;
+        private final PackId packageId;
+        private final long intervalNanos;
+        private final long start;
+        private final AtomicLong transferred = new AtomicLong(0L);
+        private final AtomicLong total = new AtomicLong(-1L);
+        private volatile long lastNanos;
+        private volatile long nextReport;
+        private long reportedBytes = 0L;
+        private long reportedNanos;
+
+        TransferMeter(TransferProgressListener listener, BandwidthLimiter limiter, PackId packageId,
+                      long intervalMillis) {
+            this.listener = listener;
+            this.limiter = limiter;
+            this.packageId = packageId;
+            this.intervalNanos = intervalMillis * 1000000L;
+            this.start = System.nanoTime();
+            this.lastNanos = start;
+            this.reportedNanos = start;
+            this.nextReport = start + intervalNanos;
+        }
+
+        /**
+         * Sets the total number of bytes expected, unless it is already known
+         * @param bytes the expected total, or -1 if unknown
+         */
+        void expect(long bytes) {
+            if (bytes >= 0L) {
+                total.compareAndSet(-1L, bytes);
+            }
+        }
+
+        void add(long bytes) throws InterruptedIOException {
+            if (limiter != null) {
+                limiter.acquire(bytes);
+            }
+            count(bytes);
+        }
+
+        /**
+         * Counts the bytes like {@link #add(long)}, but leaves the wait for the {@link BandwidthLimiter} to the caller
+         * @return the number of nanoseconds that the transfer should stop for, or 0
+         */
+        long addWithoutWaiting(long bytes) {
+            final long wait = limiter != null ? limiter.reserve(bytes) : 0L;
+            count(bytes);
+            return wait;
+        }
+
+        private void count(long bytes) {
+            transferred.addAndGet(bytes);
+            final long now = System.nanoTime();
+            lastNanos = now;
+            if (listener != null && now - nextReport >= 0L) {
+                report(now);
+            }
+        }
+
+        private synchronized void report(long now) {
+            if (now - nextReport < 0L) {
+                return;
+            }
+            nextReport = now + intervalNanos;
+            final long bytes = transferred.get();
+            final double bytesPerSecond = rate(bytes - reportedBytes, now - reportedNanos);
+            reportedBytes = bytes;
+            reportedNanos = now;
+            listener.onProgress(packageId, bytes, total.get(), bytesPerSecond, rate(bytes, now - start));
+        }
+
+        synchronized void complete() {
+            if (listener == null) {
+                return;
+            }
+            final long bytes = transferred.get();
+            listener.onComplete(packageId, bytes, rate(bytes, lastNanos - start));
+        }
+
+        private static double rate(long bytes, long nanos) {
+            return nanos > 0L ? bytes * 1000000000.0 / nanos : 0.0;
+        }
+    }
+
+    /**
+     * Counts the bytes of an upload as the transport reads them.
+     */
+    static final class MeteredInputStream extends FilterInputStream {
+        private final TransferMeter meter;
+
+        MeteredInputStream(InputStream in, TransferMeter meter) {
+            super(in);
+            this.meter = meter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                meter.add(1L);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                meter.add(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            if (skipped > 0L) {
+                meter.add(skipped);
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+
+    /**
+     * Writes the body of a download response to a {@link FileChannel} as it arrives, without any intermediate
+     * buffering. The body of a {@code 206} response is written at the offset of its {@code Content-Range}, leaving
+     * the rest of the file untouched, so that several ranges may be written to the same file at once. Any other body
+     * replaces the file rather than truncating it, so that a file linked to a cached package is never modified. If
+     * the request carries a digest, it is updated with every byte before the byte is written.
+     */
+    protected static final class DownloadResponseBodyWriter {
+        private final File outputFile;
+        private final DownloadRange contentRange;
+        private final Map<String, String> headers;
+        private final MessageDigest digest;
+        private final TransferMeter meter;
+        private final RandomAccessFile out;
+        private final FileChannel channel;
+        private final long offset;
+        private long length = 0L;
+
+        DownloadResponseBodyWriter(final File outputFile, final DownloadRange contentRange,
+                                   final Map<String, String> headers, final MessageDigest digest,
+                                   final TransferMeter meter) throws IOException {
+            this.outputFile = outputFile;
+            this.contentRange = contentRange;
+            this.headers = headers;
+            this.digest = digest;
+            this.meter = meter;
+            if (contentRange == null && outputFile.exists() && !outputFile.delete()) {
+                // a file served by PackageCache may be a hard link to the cached package
+                throw new IOException("Failed to replace file: " + outputFile.getAbsolutePath());
+            }
+            this.out = new RandomAccessFile(outputFile, "rw");
+            this.channel = this.out.getChannel();
+            if (contentRange != null) {
+                this.offset = contentRange.getFirst();
+            } else {
+                this.offset = 0L;
+                this.out.setLength(0L);
+                if (digest != null) {
+                    digest.reset();
+                }
+            }
+        }
+
+        /**
+         * Creates a writer for a {@code 304} response, which discards the body and leaves the output file untouched.
+         */
+        DownloadResponseBodyWriter(final Map<String, String> headers) {
+            this.outputFile = null;
+            this.contentRange = null;
+            this.headers = headers;
+            this.digest = null;
+            this.meter = null;
+            this.out = null;
+            this.channel = null;
+            this.offset = 0L;
+        }
+
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            write(ByteBuffer.wrap(b, off, len));
+        }
+
+        public void write(final ByteBuffer in) throws IOException {
+            final long written = writeBuffer(in);
+            if (meter != null) {
+                meter.add(written);
+            }
+        }
+
+        /**
+         * Writes the buffer like {@link #write(ByteBuffer)}, but without sleeping for the {@link BandwidthLimiter},
+         * for a transport that calls back on an I/O thread shared by other connections.
+         * @return the number of nanoseconds that the transport should stop reading the response for, or 0
+         */
+        public long writeWithoutWaiting(final ByteBuffer in) throws IOException {
+            final long written = writeBuffer(in);
+            return meter != null ? meter.addWithoutWaiting(written) : 0L;
+        }
+
+        private long writeBuffer(final ByteBuffer in) throws IOException {
+            if (channel == null) {
+                in.position(in.limit());
+                return 0L;
+            }
+            if (contentRange != null && length + in.remaining() > contentRange.getLength()) {
+                throw new IOException("Response body exceeds Content-Range: " + contentRange);
+            }
+            if (digest != null) {
+                in.mark();
+                digest.update(in);
+                in.reset();
+            }
+            final long written = length;
+            while (in.hasRemaining()) {
+                length += channel.write(in, offset + length);
+            }
+            return length - written;
+        }
+
+        /**
+         * Reads the source channel to the end. If the source fails, the bytes read before the failure are written.
+         * @param src a blocking channel
+         * @param bufferSize the size of the direct buffer, or the maximum size of each transfer from a
+         *                   {@link FileChannel}
+         * @throws IOException if the source channel fails
+         */
+        public void transferFrom(final ReadableByteChannel src, final int bufferSize) throws IOException {
+            if (src instanceof FileChannel && channel != null && digest == null) {
+                final FileChannel file = (FileChannel) src;
+                if (contentRange != null && length + file.size() - file.position() > contentRange.getLength()) {
+                    throw new IOException("Response body exceeds Content-Range: " + contentRange);
+                }
+                long transferred;
+                while (file.position() < file.size()
+                        && (transferred = channel.transferFrom(file, offset + length, bufferSize)) > 0L) {
+                    length += transferred;
+                    if (meter != null) {
+                        meter.add(transferred);
+                    }
+                }
+            } else {
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+                int read;
+                do {
+                    try {
+                        read = src.read(buffer);
+                    } catch (IOException e) {
+                        // a stream channel may have filled part of the buffer before the stream failed, and those
+                        // bytes must be kept for a resumed download
+                        buffer.flip();
+                        write(buffer);
+                        throw e;
+                    }
+                    buffer.flip();
+                    if (buffer.hasRemaining()) {
+                        write(buffer);
+                    }
+                    buffer.clear();
+                } while (read != -1);
+            }
+        }
+
+        /**
+         * Signals the end of the response body and closes the output file.
+         * @return the download response
+         * @throws IOException if the output file cannot be closed
+         */
+        public DownloadResponse finish() throws IOException {
+            final DownloadResponseImpl response;
+            if (out == null) {
+                response = new DownloadResponseImpl(0L, null);
+                response.notModified = true;
+            } else {
+                out.close();
+                response = new DownloadResponseImpl(length, outputFile);
+                response.contentRange = contentRange;
+                if (digest != null && (contentRange == null || contentRange.getLast() + 1L == contentRange.getTotal())) {
+                    response.sha256 = toHex(digest.digest());
+                }
+            }
+            final String acceptRanges = headers.get(HEADER_ACCEPT_RANGES);
+            response.rangeSupported = contentRange != null
+                    || (acceptRanges != null && acceptRanges.toLowerCase().indexOf("bytes") >= 0);
+            response.etag = headers.get(HEADER_ETAG);
+            response.lastModified = headers.get(HEADER_LAST_MODIFIED);
+            return response;
+        }
+
+        /**
+         * Closes the output file of a response that could not be read to the end, ignoring any error. Has no effect
+         * after {@link #finish()}.
+         */
+        public void abort() {
+            if (out != null) {
+                try { out.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Pushes the body of a detailed response through a {@link DetailedResponseParser} as it arrives. The bytes of an
+     * ASCII-compatible charset are scanned directly. Any other charset is decoded in full and re-encoded as UTF-8, in
+     * which case the bytes of a character that is split across two chunks are carried over to the next call to
+     * {@link #write(ByteBuffer)}. If a transcript stream is given, the raw bytes are also written to it through a
+     * {@link GZIPOutputStream}, which only ever buffers the current chunk.
+     */
+    protected static final class DetailedResponseBodyParser {
+        private final OutputStream transcript;
+        private boolean transcriptClosed = false;
+        private final CharsetDecoder decoder;
+        private final DetailedResponseParser parser;
+        private final CharBuffer chars;
+        private final ByteBuffer leftover;
+        private byte[] bytes = null;
+
+        DetailedResponseBodyParser(final String charset, final ResponseProgressListener listener,
+                                   final ProgressErrorPolicy policy, final OutputStream transcript)
+                throws IOException {
+            final Charset _charset = forName(charset);
+            if (DetailedResponseParser.isAsciiCompatible(_charset)) {
+                this.decoder = null;
+                this.chars = null;
+                this.leftover = null;
+                this.parser = new DetailedResponseParser(listener, policy, _charset);
+            } else {
+                this.decoder = _charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                this.chars = CharBuffer.allocate(8192);
+                this.leftover = ByteBuffer.allocate(16);
+                this.parser = new DetailedResponseParser(listener, policy);
+            }
+
+            if (transcript != null) {
+                // closing the GZIPOutputStream releases the deflater, but must leave the caller's stream open
+                this.transcript = new GZIPOutputStream(new FilterOutputStream(transcript) {
+                    @Override public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override public void close() throws IOException {
+                        flush();
+                    }
+                }, 8192);
+            } else {
+                this.transcript = null;
+            }
+        }
+
+        /**
+         * @return true once a success or failure result has been recognized. Any further input is ignored.
+         */
+        public boolean isComplete() {
+            return parser.isComplete();
+        }
+
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (transcript != null) {
+                transcript.write(b, off, len);
+            }
+
+            if (isComplete()) {
+                return;
+            }
+
+            if (decoder == null) {
+                parser.write(b, off, len);
+            } else {
+                decodeAndParse(ByteBuffer.wrap(b, off, len));
+            }
+        }
+
+        public void write(final ByteBuffer in) throws IOException {
+            if (in.hasArray()) {
+                write(in.array(), in.arrayOffset() + in.position(), in.remaining());
+                in.position(in.limit());
+            } else {
+                if (bytes == null) {
+                    bytes = new byte[8192];
+                }
+                while (in.hasRemaining()) {
+                    final int len = Math.min(bytes.length, in.remaining());
+                    in.get(bytes, 0, len);
+                    write(bytes, 0, len);
+                }
+            }
+        }
+
+        private void decodeAndParse(final ByteBuffer in) throws IOException {
+            // first complete the character that was split across the previous chunk
+            while (leftover.position() > 0 && in.hasRemaining()) {
+                if (!leftover.hasRemaining()) {
+                    throw new IOException("Failed to decode service response");
+                }
+                leftover.put(in.get());
+                leftover.flip();
+                decode(leftover, false);
+                leftover.compact();
+            }
+
+            if (leftover.position() == 0) {
+                decode(in, false);
+                leftover.put(in);
+            }
+        }
+
+        /**
+         * Signals the end of the response body, and completes the transcript.
+         * @return the detailed response
+         * @throws IOException if neither a success or failure result was found, or if the transcript fails
+         */
+        public DetailedResponse finish() throws IOException {
+            closeTranscript();
+
+            if (decoder != null && !isComplete()) {
+                leftover.flip();
+                decode(leftover, true);
+                leftover.clear();
+
+                CoderResult result;
+                do {
+                    result = decoder.flush(chars);
+                    drain();
+                } while (result.isOverflow());
+            }
+            return parser.finish();
+        }
+
+        /**
+         * Completes the transcript of a response that could not be read to the end, ignoring any error, and deletes
+         * the file of spilled progress errors unless a result was recognized. Has no effect after {@link #finish()}.
+         */
+        public void abort() {
+            parser.abort();
+            try {
+                closeTranscript();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void closeTranscript() throws IOException {
+            if (transcript != null && !transcriptClosed) {
+                transcriptClosed = true;
+                transcript.close();
+            }
+        }
+
+        private void decode(final ByteBuffer in, final boolean endOfInput) throws IOException {
+            CoderResult result;
+            do {
+                result = decoder.decode(in, chars, endOfInput);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                drain();
+            } while (result.isOverflow());
+        }
+
+        private void drain() {
+            if (chars.position() > 0) {
+                parser.write(chars.array(), 0, chars.position());
+                chars.clear();
+            }
+        }
+
+        private static Charset forName(final String charset) throws UnsupportedEncodingException {
+            if (charset == null) {
+                return Charset.forName("UTF-8");
+            }
+            try {
+                return Charset.forName(charset);
+            } catch (IllegalArgumentException e) {
+                throw new UnsupportedEncodingException(charset);
+            }
+        }
+    }
+
+    protected static abstract class ResponseBuilder {
+        protected abstract ResponseBuilder forPackId(PackId packId);
+        protected abstract ResponseBuilder withParam(String name, String value);
+        protected abstract ResponseBuilder withParam(String name, boolean value);
+        protected abstract ResponseBuilder withParam(String name, int value);
+        protected abstract ResponseBuilder withParam(String name, File value, String mimeType) throws IOException;
+        protected abstract ResponseBuilder withParam(String name, String fileName, InputStream value, long length,
+                                                     String mimeType) throws IOException;
+        protected abstract SimpleResponse getSimpleResponse() throws Exception;
+        protected abstract ListResponse getListResponse() throws Exception;
+        protected abstract int getListResponse(ListResultListener listener) throws Exception;
+        protected abstract DetailedResponse getDetailedResponse(ResponseProgressListener listener,
+                                                                OutputStream transcript) throws Exception;
+        protected abstract DownloadResponse getDownloadResponse(File outputFile, DownloadRequest request)
+                throws Exception;
+    }
+
+    //-------------------------------------------------------------------------
+    // PackageManagerClient method implementations
+    //-------------------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    public PackId identify(File file) throws IOException {
+        final IdentifyCache cache = getIdentifyCache();
+        if (cache == null) {
+            return PackId.identifyPackage(file);
+        }
+        final File canonical = file.getCanonicalFile();
+        final PackId cached = cache.get(canonical);
+        if (cached != null) {
+            return cached;
+        }
+        final IdentifyCache.Stamp stamp = new IdentifyCache.Stamp(canonical);
+        final PackId packId = PackId.identifyPackage(canonical);
+        cache.putAll(Collections.singletonMap(canonical, packId), Collections.singletonMap(canonical, stamp));
+        return packId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final Map<File, PackId> identifyAll(File directory) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        if (!directory.isDirectory()) {
+            throw new IOException("Not a directory: " + directory.getAbsolutePath());
+        }
+
+        final List<File> files = new ArrayList<File>();
+        listPackages(directory.getCanonicalFile(), files);
+
+        final IdentifyCache cache = getIdentifyCache();
+        final Map<File, PackId> packages = new TreeMap<File, PackId>();
+        final List<File> misses = new ArrayList<File>();
+        final Map<File, IdentifyCache.Stamp> stamps = new HashMap<File, IdentifyCache.Stamp>();
+        for (File file : files) {
+            final PackId cached = cache != null ? cache.get(file) : null;
+            if (cached != null) {
+                packages.put(file, cached);
+            } else {
+                misses.add(file);
+                if (cache != null) {
+                    stamps.put(file, new IdentifyCache.Stamp(file));
+                }
+            }
+        }
+
+        final Map<File, PackId> identified = new HashMap<File, PackId>();
+        try {
+            identifyPackages(misses, identified);
+        } finally {
+            // keep the packages that were identified, even if another file could not be read
+            if (cache != null) {
+                cache.putAll(identified, stamps);
+            }
+        }
+        packages.putAll(identified);
+        return packages;
+    }
+
+    /**
+     * Adds the zip files under the directory to the list, in name order, descending into subdirectories.
+     */
+    private static void listPackages(final File directory, final List<File> files) {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                listPackages(child, files);
+            } else if (child.isFile() && child.getName().toLowerCase().endsWith(".zip")) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * Identifies the files on a pool of one thread per processor, adding each one that is read to the map. Every file
+     * is tried before the first failure, if any, is thrown.
+     */
+    private static void identifyPackages(final List<File> files, final Map<File, PackId> identified)
+            throws IOException {
+        if (files.size() < 2) {
+            for (File file : files) {
+                identified.put(file, identifyPackage(file));
+            }
+            return;
+        }
+
+        final int threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "IdentifyPackage-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        IOException failure = null;
+        try {
+            final List<Future<PackId>> futures = new ArrayList<Future<PackId>>(files.size());
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<PackId>() {
+                    public PackId call() throws IOException {
+                        return identifyPackage(file);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    identified.put(files.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof IOException)) {
+                        throw new IllegalStateException(e.getCause());
+                    }
+                    if (failure == null) {
+                        failure = (IOException) e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while identifying packages");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static PackId identifyPackage(final File file) throws IOException {
+        try {
+            return PackId.identifyPackage(file);
+        } catch (IOException e) {
+            IOException wrapped = new IOException("Failed to identify " + file.getPath() + ": " + e.getMessage());
+            wrapped.initCause(e);
+            throw wrapped;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void waitForService() throws Exception {
+        boolean checkTimeout = serviceTimeout >= 0L;
+        int tries = 0;
+        final long stop = System.currentTimeMillis() + serviceTimeout;
+        Either<? extends Exception, Boolean> resp;
         do {
             if (checkTimeout && stop <= System.currentTimeMillis()) {
                 throw new IOException("Service timeout exceeded.");
@@ -712,49 +1981,226 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
     /**
      * {@inheritDoc}
      */
-    public final boolean existsOnServer(PackId packageId) throws Exception {
-        ListResponse response = list(packageId, false);
-        return response.getResults().size() > 0
-                && response.getResults().get(0).getPackId().equals(packageId);
+    public final boolean existsOnServer(PackId packageId) throws Exception {
+        ListResponse response = list(packageId, false);
+        return response.getResults().size() > 0
+                && response.getResults().get(0).getPackId().equals(packageId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final ListResponse list() throws Exception {
+        return internResults(getResponseBuilder().getListResponse());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final ListResponse list(String query) throws Exception {
+        return internResults(getResponseBuilder().withParam(KEY_QUERY, query != null ? query : "")
+                .getListResponse());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final ListResponse list(PackId packageId, boolean includeVersions) throws Exception {
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        return internResults(getResponseBuilder().forPackId(packageId)
+                .withParam(KEY_INCLUDE_VERSIONS, Boolean.toString(includeVersions)).getListResponse());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final int list(ListResultListener listener) throws Exception {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        return getResponseBuilder().getListResponse(internResults(listener));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final int list(String query, ListResultListener listener) throws Exception {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        return getResponseBuilder().withParam(KEY_QUERY, query != null ? query : "")
+                .getListResponse(internResults(listener));
     }
 
     /**
      * {@inheritDoc}
      */
-    public final ListResponse list() throws Exception {
-        return getResponseBuilder().getListResponse();
+    public final int list(PackId packageId, boolean includeVersions, ListResultListener listener) throws Exception {
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        return getResponseBuilder().forPackId(packageId)
+                .withParam(KEY_INCLUDE_VERSIONS, Boolean.toString(includeVersions))
+                .getListResponse(internResults(listener));
+    }
+
+    private ListResponse internResults(ListResponse response) {
+        final PackIdPool pool = getPackIdPool();
+        return pool != null && response != null ? pool.internResponse(response) : response;
+    }
+
+    private ListResultListener internResults(ListResultListener listener) {
+        final PackIdPool pool = getPackIdPool();
+        return pool != null ? pool.internListener(listener) : listener;
     }
 
     /**
      * {@inheritDoc}
      */
-    public final ListResponse list(String query) throws Exception {
-        return getResponseBuilder().withParam(KEY_QUERY, query != null ? query : "").getListResponse();
+    public final SimpleResponse upload(File file, boolean force, PackId packageId) throws Exception {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        final PackId packId = packageId == null ? identify(file) : packageId;
+        final UploadManifest manifest = getUploadManifest();
+        if (manifest != null) {
+            return uploadIfChanged(manifest, file, force, packId);
+        }
+        return uploadFile(file, force, packId);
+    }
+
+    /**
+     * Uploads the file as is, or as a stream of known length if its transfer is reported or limited.
+     */
+    private SimpleResponse uploadFile(final File file, final boolean force, final PackId packageId) throws Exception {
+        final TransferMeter meter = newTransferMeter(packageId);
+        if (meter == null) {
+            return getResponseBuilder().forPackId(packageId)
+                    .withParam(KEY_CMD, CMD_UPLOAD)
+                    .withParam(KEY_PACKAGE, file, MIME_ZIP)
+                    .withParam(KEY_FORCE, force)
+                    .getSimpleResponse();
+        }
+        return uploadStream(new FileInputStream(file), file.getName(), file.length(), force, packageId, meter);
+    }
+
+    /**
+     * Uploads exactly {@code length} bytes of the stream, or the whole stream if the length is negative, and closes
+     * it.
+     */
+    private SimpleResponse uploadStream(final InputStream in, final String fileName, final long length,
+                                        final boolean force, final PackId packageId, final TransferMeter meter)
+            throws Exception {
+        try {
+            InputStream body = length < 0L ? in : new UploadInputStream(in, length);
+            if (meter != null) {
+                meter.expect(length);
+                body = new MeteredInputStream(body, meter);
+            }
+            final SimpleResponse response = getResponseBuilder().forPackId(packageId)
+                    .withParam(KEY_CMD, CMD_UPLOAD)
+                    .withParam(KEY_PACKAGE, fileName, body, Math.max(length, -1L), MIME_ZIP)
+                    .withParam(KEY_FORCE, force)
+                    .getSimpleResponse();
+            if (meter != null) {
+                meter.complete();
+            }
+            return response;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return a meter for a transfer of the package, or null if transfer progress is neither reported nor limited
+     */
+    private TransferMeter newTransferMeter(final PackId packageId) {
+        final TransferProgressListener listener = getTransferProgressListener();
+        final BandwidthLimiter limiter = getBandwidthLimiter();
+        if (listener == null && limiter == null) {
+            return null;
+        }
+        return new TransferMeter(listener, limiter, packageId, getTransferProgressInterval());
+    }
+
+    /**
+     * Skips the upload if the digest of the file matches the one recorded in the manifest at the last successful
+     * upload of the package to this server, and the server confirms that it still has that package.
+     */
+    private SimpleResponse uploadIfChanged(final UploadManifest manifest, final File file, final boolean force,
+                                           final PackId packageId) throws Exception {
+        final String key = UploadManifest.key(getBaseUrl(), packageId);
+        final long length = file.length();
+        final MessageDigest digest = newSha256();
+        digestFile(digest, file, 0L, length);
+        final String sha256 = toHex(digest.digest());
+
+        if (!force && manifest.matches(key, sha256, length)
+                && (!manifest.isConfirmWithServer() || manifest.confirms(key, findOnServer(packageId)))) {
+            manifest.recordSkip(length);
+            return new SimpleResponseImpl(true, "Package unchanged since its last upload",
+                    packageId.getInstallationPath() + ".zip", true);
+        }
+
+        final SimpleResponse response = uploadFile(file, force, packageId);
+        if (response.isSuccess()) {
+            manifest.record(key, sha256, length, manifest.isConfirmWithServer() ? findOnServer(packageId) : null);
+        }
+        return response;
+    }
+
+    /**
+     * @return the listing of exactly this package, or null if the server does not have it
+     */
+    private ListResult findOnServer(final PackId packageId) throws Exception {
+        for (ListResult result : list(packageId, false).getResults()) {
+            if (packageId.equals(result.getPackId())) {
+                return result;
+            }
+        }
+        return null;
     }
 
     /**
      * {@inheritDoc}
      */
-    public final ListResponse list(PackId packageId, boolean includeVersions) throws Exception {
+    public final SimpleResponse upload(InputStream in, long length, boolean force, PackId packageId)
+            throws Exception {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_INCLUDE_VERSIONS, Boolean.toString(includeVersions)).getListResponse();
+        final String path = packageId.getInstallationPath();
+        return uploadStream(in, path.substring(path.lastIndexOf('/') + 1) + ".zip", length, force, packageId,
+                newTransferMeter(packageId));
     }
 
     /**
      * {@inheritDoc}
      */
-    public final SimpleResponse upload(File file, boolean force, PackId packageId) throws Exception {
-        if (file == null) {
-            throw new NullPointerException("file");
+    public final SimpleResponse upload(ReadableByteChannel channel, long length, boolean force, PackId packageId)
+            throws Exception {
+        if (channel == null) {
+            throw new NullPointerException("channel");
         }
-        return getResponseBuilder().forPackId(packageId == null ? identify(file) : packageId)
-                .withParam(KEY_CMD, CMD_UPLOAD)
-                .withParam(KEY_PACKAGE, file, MIME_ZIP)
-                .withParam(KEY_FORCE, force)
-                .getSimpleResponse();
+        return upload(Channels.newInputStream(channel), length, force, packageId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final SimpleResponse upload(ByteBuffer buffer, boolean force, PackId packageId) throws Exception {
+        if (buffer == null) {
+            throw new NullPointerException("buffer");
+        }
+        return upload(new ByteBufferInputStream(buffer), buffer.remaining(), force, packageId);
     }
 
     /**
@@ -767,7 +2213,497 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
         if (toFile == null) {
             throw new NullPointerException("toFile");
         }
-        return getResponseBuilder().forPackId(packageId).getDownloadResponse(toFile);
+
+        final long start = System.nanoTime();
+        final TransferMeter meter = newTransferMeter(packageId);
+        final DownloadResponse response = download(packageId, toFile, meter, start);
+        if (meter != null) {
+            meter.complete();
+        }
+        return response;
+    }
+
+    private DownloadResponse download(final PackId packageId, final File toFile, final TransferMeter meter,
+                                      final long start) throws Exception {
+        final File metadataFile = new File(toFile.getPath() + DOWNLOAD_METADATA_SUFFIX);
+        if (!isDownloadResume() && getDownloadSegments() < 2 && !isDownloadConditional()) {
+            metadataFile.delete();
+            DownloadResponse response = getResponseBuilder().forPackId(packageId)
+                    .getDownloadResponse(toFile, DownloadRequest.withMeter(null, meter));
+            return new DownloadResponseImpl(response, toFile, 0L, 1, System.nanoTime() - start);
+        }
+
+        if (toFile.isDirectory()) {
+            throw new IOException("Cannot download to a directory. outputFile=" + toFile.getAbsolutePath());
+        }
+
+        final Properties metadata = isDownloadConditional() ? readDownloadMetadata(toFile, metadataFile) : null;
+        final File partFile = new File(toFile.getPath() + PARTIAL_DOWNLOAD_SUFFIX);
+        final DownloadResponseImpl response = fetch(packageId, partFile,
+                DownloadRequest.withMeter(isDownloadConditional() ? newConditions(metadata) : null, meter), start);
+
+        if (response.isNotModified()) {
+            return newMetadataResponse(metadata, toFile, 0L, start);
+        }
+
+        metadataFile.delete();
+        replaceFile(partFile, toFile);
+        DownloadResponseImpl downloaded = new DownloadResponseImpl(response, toFile, response.getResumedFrom(),
+                response.getSegments(), System.nanoTime() - start);
+        if (isDownloadConditional()) {
+            writeDownloadMetadata(metadataFile, downloaded);
+        }
+        return downloaded;
+    }
+
+    /**
+     * Serves the package from the cache if its entry is fresh, or if the server confirms that the cached package is
+     * not modified. Otherwise the package is downloaded to a partial file in the cache, added to the cache under its
+     * digest, and then linked or copied to the target file.
+     */
+    private DownloadResponse downloadCached(final PackageCache cache, final PackId packageId, final File toFile)
+            throws Exception {
+
+        final long start = System.nanoTime();
+        final TransferMeter meter = newTransferMeter(packageId);
+        final DownloadResponse response = downloadCached(cache, packageId, toFile, meter, start);
+        if (meter != null) {
+            meter.complete();
+        }
+        return response;
+    }
+
+    private DownloadResponse downloadCached(final PackageCache cache, final PackId packageId, final File toFile,
+                                            final TransferMeter meter, final long start) throws Exception {
+        new File(toFile.getPath() + DOWNLOAD_METADATA_SUFFIX).delete();
+        final String key = PackageCache.key(getBaseUrl(), packageId);
+        final Properties entry = cache.getEntry(key);
+        if (entry != null && cache.isFresh(entry) && cache.serve(entry, toFile)) {
+            cache.recordHit();
+            return newMetadataResponse(entry, toFile, 0L, start);
+        }
+
+        final File partFile = cache.newPartFile();
+        try {
+            DownloadResponseImpl response = fetch(packageId, partFile,
+                    DownloadRequest.withMeter(newConditions(entry), meter), start);
+            if (response.isNotModified()) {
+                if (cache.validate(key, entry) && cache.serve(entry, toFile)) {
+                    cache.recordHit();
+                    return newMetadataResponse(entry, toFile, 0L, start);
+                }
+                response = fetch(packageId, partFile, DownloadRequest.withMeter(newConditions(null), meter), start);
+            }
+
+            cache.recordMiss();
+            final DownloadResponseImpl downloaded = new DownloadResponseImpl(response, partFile,
+                    response.getResumedFrom(), response.getSegments(), 0L);
+            if (!cache.put(key, packageId, partFile, downloaded, toFile)) {
+                replaceFile(partFile, toFile);
+            }
+            return new DownloadResponseImpl(response, toFile, response.getResumedFrom(), response.getSegments(),
+                    System.nanoTime() - start);
+        } finally {
+            partFile.delete();
+        }
+    }
+
+    /**
+     * Downloads the package to the partial file, in parallel segments if enabled and supported. The conditions carry
+     * the validators, digest and transfer meter of the download, and may be null.
+     */
+    private DownloadResponseImpl fetch(final PackId packageId, final File partFile, final DownloadRequest conditions,
+                                       final long start) throws Exception {
+        if (getDownloadSegments() > 1 && isConcurrentRequestSupported()
+                && !(isDownloadResume() && partFile.isFile())) {
+            return downloadSegments(packageId, partFile, conditions, start);
+        } else {
+            return downloadResumable(packageId, partFile, conditions, start);
+        }
+    }
+
+    private static DownloadRequest newConditions(final Properties metadata) {
+        return new DownloadRequest(null,
+                metadata != null ? metadata.getProperty(META_ETAG) : null,
+                metadata != null ? metadata.getProperty(META_LAST_MODIFIED) : null,
+                newSha256());
+    }
+
+    /**
+     * @return a response for a file that was not transferred, described by its download metadata
+     */
+    private static DownloadResponseImpl newMetadataResponse(final Properties metadata, final File toFile,
+                                                            final long transferred, final long start) {
+        final DownloadResponseImpl response = new DownloadResponseImpl(toFile.length(), toFile);
+        response.notModified = true;
+        response.transferred = transferred;
+        response.nanos = System.nanoTime() - start;
+        if (metadata != null) {
+            response.etag = metadata.getProperty(META_ETAG);
+            response.lastModified = metadata.getProperty(META_LAST_MODIFIED);
+            response.sha256 = metadata.getProperty(META_SHA256);
+        }
+        return response;
+    }
+
+    /**
+     * Renames the source file to the target file, or copies it if it cannot be renamed, such as across file systems.
+     */
+    static void replaceFile(final File source, final File target) throws IOException {
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Failed to replace file: " + target.getAbsolutePath());
+        }
+        if (!source.renameTo(target)) {
+            final FileInputStream in = new FileInputStream(source);
+            try {
+                copyFile(in.getChannel(), target);
+            } finally {
+                in.close();
+            }
+            source.delete();
+        }
+    }
+
+    /**
+     * Copies the source channel to a partial file next to the target file, which is then renamed to the target file.
+     */
+    static void copyFile(final FileChannel source, final File target) throws IOException {
+        final File partFile = new File(target.getPath() + PARTIAL_DOWNLOAD_SUFFIX);
+        final FileOutputStream out = new FileOutputStream(partFile);
+        try {
+            final FileChannel channel = out.getChannel();
+            final long size = source.size();
+            long position = 0L;
+            while (position < size) {
+                position += source.transferTo(position, size - position, channel);
+            }
+        } finally {
+            out.close();
+        }
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Failed to replace file: " + target.getAbsolutePath());
+        }
+        if (!partFile.renameTo(target)) {
+            throw new IOException("Failed to rename " + partFile.getAbsolutePath() + " to " + target.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Downloads to the partial file, or requests only the remaining bytes if the partial file already exists. The
+     * partial file is kept if the download fails. If the server ignores the range, the package is downloaded in full,
+     * and if the server rejects the range, because the package has changed, the partial file is discarded. The
+     * conditions are only sent with a request for the complete package, and the digest of a resumed download starts
+     * with the bytes already on disk.
+     */
+    private DownloadResponseImpl downloadResumable(final PackId packageId, final File partFile,
+                                                   final DownloadRequest conditions, final long start)
+            throws Exception {
+
+        final long offset = isDownloadResume() && partFile.isFile() ? partFile.length() : 0L;
+        final MessageDigest digest = conditions != null ? conditions.getDigest() : null;
+        final TransferMeter meter = conditions != null ? conditions.getMeter() : null;
+        if (offset > 0L) {
+            if (digest != null) {
+                digestFile(digest, partFile, 0L, offset);
+            }
+            final DownloadRequest request = new DownloadRequest(new DownloadRange(offset, -1L), null, null, digest,
+                    meter);
+            try {
+                DownloadResponse response = getResponseBuilder().forPackId(packageId)
+                        .getDownloadResponse(partFile, request);
+                DownloadRange received = DownloadResponseImpl.getContentRange(response);
+                if (received != null && received.getTotal() >= 0L && partFile.length() != received.getTotal()) {
+                    throw new IOException("Incomplete download: " + partFile.length() + " of " + received.getTotal()
+                            + " bytes");
+                }
+                return new DownloadResponseImpl(response, partFile, received != null ? offset : 0L, 1,
+                        System.nanoTime() - start);
+            } catch (Exception e) {
+                if (!isRangeNotSatisfiable(e)) {
+                    throw e;
+                }
+            }
+        }
+
+        boolean success = false;
+        try {
+            DownloadResponse response = getResponseBuilder().forPackId(packageId)
+                    .getDownloadResponse(partFile, conditions);
+            success = true;
+            return new DownloadResponseImpl(response, partFile, 0L, 1, System.nanoTime() - start);
+        } finally {
+            if (!success && !isDownloadResume()) {
+                partFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Requests the first {@link #MIN_DOWNLOAD_SEGMENT_SIZE} bytes, with the conditions, to learn whether the server
+     * honors range requests and how long the package is, then preallocates the partial file and fetches the remaining
+     * bytes in parallel ranges. A {@code 200} response to the first request is simply written in full. A partial
+     * file left by an earlier download is deleted first, because ranges are written into the file without truncating
+     * it. The partial file is deleted if any range fails, because it is no longer a prefix of the package. The ranges
+     * arrive out of order, so the digest of a segmented download is completed by reading the file once they are all
+     * written.
+     */
+    private DownloadResponseImpl downloadSegments(final PackId packageId, final File partFile,
+                                                  final DownloadRequest conditions, final long start)
+            throws Exception {
+
+        final TransferMeter meter = conditions != null ? conditions.getMeter() : null;
+        if (partFile.exists() && !partFile.delete()) {
+            throw new IOException("Failed to delete stale partial file: " + partFile.getAbsolutePath());
+        }
+        boolean success = false;
+        try {
+            final DownloadRange probe = new DownloadRange(0L, MIN_DOWNLOAD_SEGMENT_SIZE - 1L);
+            final DownloadResponse first = getResponseBuilder().forPackId(packageId)
+                    .getDownloadResponse(partFile, conditions != null
+                            ? conditions.withRange(probe) : new DownloadRequest(probe, null, null, null));
+            final DownloadRange received = DownloadResponseImpl.getContentRange(first);
+            if (received == null) {
+                success = true;
+                return new DownloadResponseImpl(first, partFile, 0L, 1, System.nanoTime() - start);
+            }
+            checkRange(first, received);
+
+            long transferred = first.getTransferred();
+            int segments = 1;
+            if (received.getTotal() < 0L && received.getLast() >= probe.getLast()) {
+                // a shorter first range than requested, of a package of unknown length, was the whole package
+                final DownloadRange rest = new DownloadRange(received.getLast() + 1L, -1L);
+                final DownloadResponse response = getResponseBuilder().forPackId(packageId)
+                        .getDownloadResponse(partFile, new DownloadRequest(rest, null, null, null, meter));
+                transferred += response.getTransferred();
+                segments++;
+            } else if (received.getTotal() > received.getLast() + 1L) {
+                final long total = received.getTotal();
+                final RandomAccessFile file = new RandomAccessFile(partFile, "rw");
+                try {
+                    file.setLength(total);
+                } finally {
+                    file.close();
+                }
+
+                final long remaining = total - received.getLast() - 1L;
+                final int count = (int) Math.max(1L, Math.min((long) getDownloadSegments(),
+                        remaining / MIN_DOWNLOAD_SEGMENT_SIZE));
+                final long size = remaining / count;
+                final List<DownloadRange> ranges = new ArrayList<DownloadRange>(count);
+                for (int i = 0; i < count; i++) {
+                    final long rangeStart = received.getLast() + 1L + i * size;
+                    ranges.add(new DownloadRange(rangeStart, i == count - 1 ? total - 1L : rangeStart + size - 1L));
+                }
+                transferred += downloadRanges(packageId, partFile, ranges, meter);
+                segments += count;
+            }
+
+            final DownloadResponseImpl response = new DownloadResponseImpl(partFile.length(), partFile);
+            response.rangeSupported = true;
+            response.etag = first.getETag();
+            response.lastModified = first.getLastModified();
+            response.transferred = transferred;
+            response.segments = segments;
+            response.nanos = System.nanoTime() - start;
+            if (first.getSha256() != null) {
+                // the first range was the whole package, and its digest is already complete
+                response.sha256 = first.getSha256();
+            } else if (conditions != null && conditions.getDigest() != null) {
+                final MessageDigest digest = conditions.getDigest();
+                digestFile(digest, partFile, received.getLast() + 1L, partFile.length());
+                response.sha256 = toHex(digest.digest());
+            }
+            success = true;
+            return response;
+        } finally {
+            if (!success) {
+                partFile.delete();
+            }
+        }
+    }
+
+    private long downloadRanges(final PackId packageId, final File partFile, final List<DownloadRange> ranges,
+                                final TransferMeter meter) throws Exception {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(ranges.size(), new ThreadFactory() {
+            private int count = 0;
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DownloadSegment-" + packageId.getName() + "-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            final List<Future<DownloadResponse>> futures = new ArrayList<Future<DownloadResponse>>(ranges.size());
+            for (final DownloadRange range : ranges) {
+                futures.add(executor.submit(new Callable<DownloadResponse>() {
+                    public DownloadResponse call() throws Exception {
+                        return getResponseBuilder().forPackId(packageId)
+                                .getDownloadResponse(partFile, new DownloadRequest(range, null, null, null, meter));
+                    }
+                }));
+            }
+
+            long transferred = 0L;
+            for (int i = 0; i < ranges.size(); i++) {
+                final DownloadResponse response;
+                try {
+                    response = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                checkRange(response, ranges.get(i));
+                transferred += response.getTransferred();
+            }
+            return transferred;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void checkRange(DownloadResponse response, DownloadRange range) throws IOException {
+        if (response.getTransferred() != range.getLength()) {
+            throw new IOException("Incomplete range " + range + ": received " + response.getTransferred() + " bytes");
+        }
+    }
+
+    private static boolean isRangeNotSatisfiable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RangeNotSatisfiableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the metadata of the last conditional download, or null if it is missing or does not match the file
+     */
+    private static Properties readDownloadMetadata(final File toFile, final File metadataFile) {
+        if (!toFile.isFile()) {
+            return null;
+        }
+
+        final Properties metadata = readProperties(metadataFile);
+        if (metadata == null || !Long.toString(toFile.length()).equals(metadata.getProperty(META_LENGTH))) {
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * @return the properties, or null if the file is missing or cannot be read
+     */
+    static Properties readProperties(final File metadataFile) {
+        if (!metadataFile.isFile()) {
+            return null;
+        }
+
+        final Properties metadata = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(metadataFile);
+            metadata.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try { in.close(); } catch (IOException ignored) {}
+            }
+        }
+        return metadata;
+    }
+
+    private static void writeDownloadMetadata(final File metadataFile, final DownloadResponse response)
+            throws IOException {
+        writeProperties(metadataFile, newDownloadMetadata(response));
+    }
+
+    static Properties newDownloadMetadata(final DownloadResponse response) {
+        final Properties metadata = new Properties();
+        metadata.setProperty(META_LENGTH, Long.toString(response.getLength()));
+        if (response.getETag() != null) {
+            metadata.setProperty(META_ETAG, response.getETag());
+        }
+        if (response.getLastModified() != null) {
+            metadata.setProperty(META_LAST_MODIFIED, response.getLastModified());
+        }
+        if (response.getSha256() != null) {
+            metadata.setProperty(META_SHA256, response.getSha256());
+        }
+        return metadata;
+    }
+
+    /**
+     * Writes the properties to a temporary file, which is then renamed, so that a metadata file is never incomplete.
+     */
+    static void writeProperties(final File metadataFile, final Properties metadata) throws IOException {
+        final File tmpFile = File.createTempFile(metadataFile.getName(), ".tmp",
+                metadataFile.getAbsoluteFile().getParentFile());
+        final OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            metadata.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(metadataFile) && !(metadataFile.delete() && tmpFile.renameTo(metadataFile))) {
+            tmpFile.delete();
+            throw new IOException("Failed to write " + metadataFile.getAbsolutePath());
+        }
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Updates the digest with the bytes of the file between {@code from}, inclusive, and {@code to}, exclusive.
+     */
+    private static void digestFile(final MessageDigest digest, final File file, final long from, final long to)
+            throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            digestChannel(digest, in.getChannel(), from, to);
+        } finally {
+            in.close();
+        }
+    }
+
+    static void digestChannel(final MessageDigest digest, final FileChannel channel, final long from, final long to)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_DOWNLOAD_BUFFER_SIZE);
+        long position = from;
+        while (position < to) {
+            buffer.clear();
+            if (to - position < buffer.capacity()) {
+                buffer.limit((int) (to - position));
+            }
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file after " + position + " bytes");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+
+    static String toHex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
     }
 
     /**
@@ -783,6 +2719,10 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
 
         File toFile = new File(toDirectory, packageId.getInstallationPath().substring(1) + ".zip");
         if (toFile.getParentFile().isDirectory() || toFile.getParentFile().mkdirs()) {
+            final PackageCache cache = getPackageCache();
+            if (cache != null) {
+                return downloadCached(cache, packageId, toFile);
+            }
             return download(packageId, toFile);
         } else {
             throw new IOException("Failed to create path: " + toFile.getParentFile().getAbsolutePath());
@@ -824,12 +2764,20 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
      * {@inheritDoc}
      */
     public final DetailedResponse contents(PackId packageId, ResponseProgressListener listener) throws Exception {
+        return this.contents(packageId, listener, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final DetailedResponse contents(PackId packageId, ResponseProgressListener listener,
+                                     OutputStream transcript) throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
         return getResponseBuilder().forPackId(packageId)
                 .withParam(KEY_CMD, CMD_CONTENTS)
-                .getDetailedResponse(listener);
+                .getDetailedResponse(listener, transcript);
     }
 
     /**
@@ -850,6 +2798,18 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
                                           int autosave,
                                           ACHandling acHandling,
                                           ResponseProgressListener listener) throws Exception {
+        return this.install(packageId, recursive, autosave, acHandling, listener, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final DetailedResponse install(PackId packageId,
+                                          boolean recursive,
+                                          int autosave,
+                                          ACHandling acHandling,
+                                          ResponseProgressListener listener,
+                                          OutputStream transcript) throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
@@ -863,7 +2823,7 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
             rb.withParam(KEY_ACHANDLING, acHandling.name().toLowerCase());
         }
 
-        return rb.getDetailedResponse(listener);
+        return rb.getDetailedResponse(listener, transcript);
     }
 
     /**
@@ -877,13 +2837,21 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
      * {@inheritDoc}
      */
     public final DetailedResponse dryRun(PackId packageId, ResponseProgressListener listener) throws Exception {
+        return this.dryRun(packageId, listener, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final DetailedResponse dryRun(PackId packageId, ResponseProgressListener listener,
+                                     OutputStream transcript) throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
 
         return getResponseBuilder().forPackId(packageId)
                 .withParam(KEY_CMD, CMD_DRY_RUN)
-                .getDetailedResponse(listener);
+                .getDetailedResponse(listener, transcript);
     }
 
     /**
@@ -897,13 +2865,21 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
      * {@inheritDoc}
      */
     public final DetailedResponse build(PackId packageId, ResponseProgressListener listener) throws Exception {
+        return this.build(packageId, listener, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final DetailedResponse build(PackId packageId, ResponseProgressListener listener,
+                                     OutputStream transcript) throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
 
         return getResponseBuilder().forPackId(packageId)
                 .withParam(KEY_CMD, CMD_BUILD)
-                .getDetailedResponse(listener);
+                .getDetailedResponse(listener, transcript);
     }
 
     /**
@@ -917,13 +2893,21 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
      * {@inheritDoc}
      */
     public final DetailedResponse rewrap(PackId packageId, ResponseProgressListener listener) throws Exception {
+        return this.rewrap(packageId, listener, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final DetailedResponse rewrap(PackId packageId, ResponseProgressListener listener,
+                                     OutputStream transcript) throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
 
         return getResponseBuilder().forPackId(packageId)
                 .withParam(KEY_CMD, CMD_REWRAP)
-                .getDetailedResponse(listener);
+                .getDetailedResponse(listener, transcript);
     }
 
     /**
@@ -937,12 +2921,20 @@ public abstract class AbstractPackageManagerClient implements PackageManagerClie
      * {@inheritDoc}
      */
     public final DetailedResponse uninstall(PackId packageId, ResponseProgressListener listener) throws Exception {
+        return this.uninstall(packageId, listener, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final DetailedResponse uninstall(PackId packageId, ResponseProgressListener listener,
+                                     OutputStream transcript) throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
 
         return getResponseBuilder().forPackId(packageId)
                 .withParam(KEY_CMD, CMD_UNINSTALL)
-                .getDetailedResponse(listener);
+                .getDetailedResponse(listener, transcript);
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.InterruptedIOException;
+
+/**
+ * A token bucket that limits the rate of package uploads and downloads. Set the same instance on several clients, or
+ * use it for parallel transfers of one client, and they all draw from one budget.
+ * <p>
+ * The bucket holds up to {@code burstBytes} tokens and is refilled at {@code bytesPerSecond}. Each chunk of a
+ * transfer takes its size in tokens, and if the bucket runs into debt, the transfer sleeps until the debt is repaid.
+ * Debt is shared fairly, because a chunk reserves its tokens before its thread sleeps, so the next chunk, on any
+ * thread, waits behind it. Threads never spin.
+ */
+public final class BandwidthLimiter {
+    private final long bytesPerSecond;
+    private final long burstBytes;
+    private double tokens;
+    private long refilled;
+
+    /**
+     * Creates a limiter with a burst of 100 ms worth of bytes
+     * @param bytesPerSecond the sustained rate
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, Math.max(1L, bytesPerSecond / 10L));
+    }
+
+    /**
+     * @param bytesPerSecond the sustained rate
+     * @param burstBytes the number of bytes that may be transferred at once after the transfers have been idle
+     */
+    public BandwidthLimiter(long bytesPerSecond, long burstBytes) {
+        if (bytesPerSecond < 1L) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive");
+        }
+        if (burstBytes < 1L) {
+            throw new IllegalArgumentException("burstBytes must be positive");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.burstBytes = burstBytes;
+        this.tokens = burstBytes;
+        this.refilled = System.nanoTime();
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getBurstBytes() {
+        return burstBytes;
+    }
+
+    /**
+     * Takes tokens for a chunk of a transfer, and sleeps until the bucket is out of debt
+     * @param bytes the size of the chunk
+     * @throws InterruptedIOException if the thread is interrupted while it sleeps
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        final long wait = reserve(bytes);
+        if (wait > 0L) {
+            sleep(wait);
+        }
+    }
+
+    /**
+     * Takes tokens for a chunk of a transfer without sleeping, for a transfer that is driven by a thread which must
+     * not block, and that stops reading from its connection instead
+     * @param bytes the size of the chunk
+     * @return the number of nanoseconds until the bucket is out of debt, or 0 if it is not in debt
+     */
+    public long reserve(long bytes) {
+        if (bytes <= 0L) {
+            return 0L;
+        }
+        synchronized (this) {
+            final long now = System.nanoTime();
+            tokens = Math.min((double) burstBytes, tokens + (now - refilled) * (bytesPerSecond / 1.0e9));
+            refilled = now;
+            tokens -= bytes;
+            return tokens < 0.0 ? (long) Math.ceil(-tokens * 1.0e9 / bytesPerSecond) : 0L;
+        }
+    }
+
+    private static void sleep(final long nanos) throws InterruptedIOException {
+        final long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        try {
+            while (remaining > 0L) {
+                Thread.sleep(remaining / 1000000L, (int) (remaining % 1000000L));
+                remaining = deadline - System.nanoTime();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling a transfer");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BandwidthLimiter{bytesPerSecond=" + bytesPerSecond + ", burstBytes=" + burstBytes + "}";
+    }
+}
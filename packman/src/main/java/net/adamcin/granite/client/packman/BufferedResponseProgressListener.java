@@ -0,0 +1,433 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples a slow {@link ResponseProgressListener} from the thread that reads the service response. Events are
+ * published to a bounded lock-free ring buffer and delivered to the delegate listener in order by a dedicated consumer
+ * thread, which is started by the constructor and stopped by {@link #close()}.
+ */
+public class BufferedResponseProgressListener implements ResponseProgressListener {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Determines what happens when an event is published to a full buffer.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Wait for the consumer to make room. No events are lost, but the response reader is slowed down to the
+         * speed of the delegate listener.
+         */
+        BLOCK,
+
+        /**
+         * Discard the oldest buffered event to make room for the new one.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Keep only the most recent {@link ResponseProgressListener#onProgress(String, String)} or
+         * {@link ResponseProgressListener#onLog(String)} event while the buffer is full. Start, message and error
+         * events are never discarded, and wait for room like {@link #BLOCK}.
+         */
+        COALESCE
+    }
+
+    private static final int ON_START = 0;
+    private static final int ON_LOG = 1;
+    private static final int ON_MESSAGE = 2;
+    private static final int ON_PROGRESS = 3;
+    private static final int ON_ERROR = 4;
+
+    private static final long PARK_NANOS = 100000L;
+
+    private final ResponseProgressListener delegate;
+    private final OverflowPolicy overflowPolicy;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Event> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePosition = new AtomicLong();
+    private final AtomicLong dequeuePosition = new AtomicLong();
+    private final AtomicReference<Event> coalesced = new AtomicReference<Event>();
+
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    private final Thread consumer;
+    private volatile boolean consumerWaiting = false;
+    private volatile boolean closed = false;
+
+    public BufferedResponseProgressListener(ResponseProgressListener delegate) {
+        this(delegate, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param delegate the listener that receives the events on the consumer thread
+     * @param capacity the size of the ring buffer, which is rounded up to a power of two
+     * @param overflowPolicy what to do when the buffer is full
+     */
+    public BufferedResponseProgressListener(ResponseProgressListener delegate, int capacity,
+                                            OverflowPolicy overflowPolicy) {
+        if (delegate == null) {
+            throw new NullPointerException("delegate");
+        }
+        if (overflowPolicy == null) {
+            throw new NullPointerException("overflowPolicy");
+        }
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+
+        this.delegate = delegate;
+        this.overflowPolicy = overflowPolicy;
+
+        int _capacity = 1;
+        while (_capacity < capacity) {
+            _capacity <<= 1;
+        }
+        this.capacity = _capacity;
+        this.mask = _capacity - 1;
+        this.slots = new AtomicReferenceArray<Event>(_capacity);
+        this.sequences = new AtomicLongArray(_capacity);
+        for (int i = 0; i < _capacity; i++) {
+            this.sequences.set(i, i);
+        }
+
+        this.consumer = new Thread(new Runnable() {
+            public void run() {
+                consume();
+            }
+        }, getClass().getSimpleName() + "-" + Integer.toHexString(System.identityHashCode(this)));
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    //-------------------------------------------------------------------------
+    // ResponseProgressListener
+    //-------------------------------------------------------------------------
+
+    public void onStart(String title) {
+        publish(new Event(ON_START, title, null));
+    }
+
+    public void onLog(String message) {
+        publish(new Event(ON_LOG, message, null));
+    }
+
+    public void onMessage(String message) {
+        publish(new Event(ON_MESSAGE, message, null));
+    }
+
+    public void onProgress(String action, String path) {
+        publish(new Event(ON_PROGRESS, action, path));
+    }
+
+    public void onError(String path, String error) {
+        publish(new Event(ON_ERROR, path, error));
+    }
+
+    //-------------------------------------------------------------------------
+    // Metrics
+    //-------------------------------------------------------------------------
+
+    /**
+     * @return the number of events waiting to be delivered
+     */
+    public int getQueueDepth() {
+        long depth = enqueuePosition.get() - dequeuePosition.get();
+        return (int) Math.max(0L, Math.min(depth, capacity)) + (coalesced.get() != null ? 1 : 0);
+    }
+
+    /**
+     * @return the highest number of events that were waiting in the ring buffer at once
+     */
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * @return the number of events discarded by the {@link OverflowPolicy#DROP_OLDEST} or
+     * {@link OverflowPolicy#COALESCE} policies
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the number of events for which the delegate listener threw an exception
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Delivers the events that are still buffered and stops the consumer thread. Call this after the response has
+     * been returned. Events published afterwards are delivered on the calling thread.
+     * @throws InterruptedException if interrupted while waiting for the consumer thread
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        LockSupport.unpark(consumer);
+        consumer.join();
+    }
+
+    //-------------------------------------------------------------------------
+    // Ring buffer
+    //-------------------------------------------------------------------------
+
+    private void publish(final Event event) {
+        publishedCount.incrementAndGet();
+        if (closed) {
+            deliver(event);
+            return;
+        }
+
+        final boolean coalescible = overflowPolicy == OverflowPolicy.COALESCE
+                && (event.type == ON_PROGRESS || event.type == ON_LOG);
+
+        // an event that was coalesced while the buffer was full precedes the new event
+        if (coalesced.get() != null) {
+            Event pending = coalesced.getAndSet(null);
+            if (pending != null) {
+                enqueue(pending, coalescible);
+            }
+        }
+
+        enqueue(event, coalescible);
+
+        if (consumerWaiting) {
+            LockSupport.unpark(consumer);
+        }
+
+        // the consumer may have drained the buffer and stopped after the check above, before the event was enqueued
+        if (closed) {
+            drainClosed();
+        }
+    }
+
+    private void enqueue(final Event event, final boolean coalescible) {
+        while (!offer(event)) {
+            if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                if (poll() != null) {
+                    droppedCount.incrementAndGet();
+                }
+            } else if (coalescible) {
+                if (coalesced.getAndSet(event) != null) {
+                    droppedCount.incrementAndGet();
+                }
+                return;
+            } else if (closed) {
+                // the consumer is stopping, and will not make room
+                drainClosed();
+            } else {
+                if (consumerWaiting) {
+                    LockSupport.unpark(consumer);
+                }
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Delivers the events left in the buffer on the calling thread once the consumer thread has stopped, so that they
+     * are still delivered in order and one at a time.
+     */
+    private void drainClosed() {
+        if (Thread.currentThread() != consumer) {
+            boolean interrupted = false;
+            while (consumer.isAlive()) {
+                try {
+                    consumer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Event event;
+        while ((event = poll()) != null) {
+            deliver(event);
+        }
+        if ((event = coalesced.getAndSet(null)) != null) {
+            deliver(event);
+        }
+    }
+
+    /**
+     * Bounded multi-producer, multi-consumer enqueue. Each slot carries a sequence number that tells producers and
+     * consumers whose turn it is, so that neither needs a lock.
+     */
+    private boolean offer(final Event event) {
+        long position = enqueuePosition.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - position;
+            if (difference == 0L) {
+                if (enqueuePosition.compareAndSet(position, position + 1L)) {
+                    slots.set(index, event);
+                    sequences.set(index, position + 1L);
+                    updateMaxQueueDepth(position + 1L - dequeuePosition.get());
+                    return true;
+                }
+                position = enqueuePosition.get();
+            } else if (difference < 0L) {
+                return false;
+            } else {
+                position = enqueuePosition.get();
+            }
+        }
+    }
+
+    private Event poll() {
+        long position = dequeuePosition.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - (position + 1L);
+            if (difference == 0L) {
+                if (dequeuePosition.compareAndSet(position, position + 1L)) {
+                    final Event event = slots.get(index);
+                    slots.set(index, null);
+                    sequences.set(index, position + capacity);
+                    return event;
+                }
+                position = dequeuePosition.get();
+            } else if (difference < 0L) {
+                return null;
+            } else {
+                position = dequeuePosition.get();
+            }
+        }
+    }
+
+    private void updateMaxQueueDepth(final long depth) {
+        long max;
+        while (depth > (max = maxQueueDepth.get())) {
+            if (maxQueueDepth.compareAndSet(max, depth)) {
+                return;
+            }
+        }
+    }
+
+    private void consume() {
+        while (true) {
+            Event event = poll();
+            if (event == null) {
+                // the coalesced event is newer than anything in the ring buffer
+                event = coalesced.getAndSet(null);
+            }
+
+            if (event != null) {
+                deliver(event);
+            } else if (closed) {
+                // a producer may have published between the last poll and observing the closed flag
+                if (enqueuePosition.get() == dequeuePosition.get() && coalesced.get() == null) {
+                    return;
+                }
+            } else {
+                // publish and close unpark the consumer once they see it waiting
+                consumerWaiting = true;
+                if (enqueuePosition.get() == dequeuePosition.get() && coalesced.get() == null && !closed) {
+                    LockSupport.park(this);
+                }
+                consumerWaiting = false;
+            }
+        }
+    }
+
+    private void deliver(final Event event) {
+        try {
+            switch (event.type) {
+                case ON_START:
+                    delegate.onStart(event.first);
+                    break;
+                case ON_LOG:
+                    delegate.onLog(event.first);
+                    break;
+                case ON_MESSAGE:
+                    delegate.onMessage(event.first);
+                    break;
+                case ON_PROGRESS:
+                    delegate.onProgress(event.first, event.second);
+                    break;
+                case ON_ERROR:
+                    delegate.onError(event.first, event.second);
+                    break;
+                default:
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // a failing delegate must not stop the delivery of the following events
+            failedCount.incrementAndGet();
+        } finally {
+            deliveredCount.incrementAndGet();
+        }
+    }
+
+    private static final class Event {
+        final int type;
+        final String first;
+        final String second;
+
+        private Event(int type, String first, String second) {
+            this.type = type;
+            this.first = first;
+            this.second = second;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a single entry of a zip file by scanning its central directory, without building an entry table. The end of
+ * central directory record is found in the tail of the file, and the central directory is then read forward through
+ * one reusable window until the entry name matches, so that a package with hundreds of thousands of entries costs a
+ * sequential read of its central directory and nothing more. ZIP64 archives and archives with prefixed data are
+ * supported. Anything else that this reader does not understand, such as encryption or an unusual compression method,
+ * is reported as a {@link ZipException}, so that the caller can fall back to {@link java.util.zip.ZipFile}.
+ */
+final class CentralDirectoryReader {
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int LOC_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int WINDOW_SIZE = 65536;
+    private static final int MAX_ENTRY_SIZE = 16 * 1048576;
+
+    private final FileChannel channel;
+    private ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long windowStart = 0L;
+
+    private CentralDirectoryReader(FileChannel channel) {
+        this.channel = channel;
+        this.window.limit(0);
+    }
+
+    /**
+     * @param file a zip file
+     * @param name the name of the entry
+     * @return the uncompressed bytes of the first entry with the name, or null if the zip has no such entry
+     * @throws ZipException if the file is not a zip that this reader understands
+     * @throws IOException if the file cannot be read
+     */
+    static byte[] readEntry(File file, String name) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new CentralDirectoryReader(raf.getChannel()).readEntry(name.getBytes("UTF-8"));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private byte[] readEntry(final byte[] name) throws IOException {
+        final long size = channel.size();
+        final int tailLength = (int) Math.min(size, (long) (EOCD_SIZE + MAX_COMMENT_SIZE));
+        final long tailStart = size - tailLength;
+        final int tail = fill(tailStart, tailLength);
+
+        int eocd = -1;
+        for (int i = tail + tailLength - EOCD_SIZE; i >= tail; i--) {
+            if (window.getInt(i) == EOCD_SIG && i + EOCD_SIZE + getUnsignedShort(i + 20) == tail + tailLength) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new ZipException("End of central directory not found");
+        }
+
+        final long eocdPosition = tailStart + eocd - tail;
+        long cdSize = getUnsignedInt(eocd + 12);
+        long cdOffset = getUnsignedInt(eocd + 16);
+        long cdEnd = eocdPosition;
+        if (getUnsignedShort(eocd + 10) == 0xFFFF || cdSize == ZIP64_MAGIC || cdOffset == ZIP64_MAGIC) {
+            if (eocdPosition < ZIP64_LOCATOR_SIZE) {
+                throw new ZipException("ZIP64 end of central directory locator not found");
+            }
+            final int locator = fill(eocdPosition - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+            if (window.getInt(locator) != ZIP64_LOCATOR_SIG) {
+                throw new ZipException("ZIP64 end of central directory locator not found");
+            }
+            cdEnd = window.getLong(locator + 8);
+            final int record = fill(cdEnd, ZIP64_EOCD_SIZE);
+            if (window.getInt(record) != ZIP64_EOCD_SIG) {
+                throw new ZipException("ZIP64 end of central directory not found");
+            }
+            cdSize = window.getLong(record + 40);
+            cdOffset = window.getLong(record + 48);
+        }
+
+        // bytes prepended to the archive, such as a self-extractor, shift every offset that it records
+        final long base = cdEnd - cdSize - cdOffset;
+        if (base < 0L || cdSize < 0L || cdOffset < 0L) {
+            throw new ZipException("Invalid central directory offset");
+        }
+
+        long position = base + cdOffset;
+        while (position < cdEnd) {
+            int header = fill(position, CEN_SIZE);
+            if (window.getInt(header) != CEN_SIG) {
+                throw new ZipException("Invalid central directory header");
+            }
+            final int nameLength = getUnsignedShort(header + 28);
+            final int extraLength = getUnsignedShort(header + 30);
+            final int commentLength = getUnsignedShort(header + 32);
+            if (nameLength == name.length) {
+                header = fill(position, CEN_SIZE + nameLength + extraLength);
+                if (matches(header + CEN_SIZE, name)) {
+                    return readEntry(header, nameLength, extraLength, base);
+                }
+            }
+            position += CEN_SIZE + nameLength + extraLength + commentLength;
+        }
+        return null;
+    }
+
+    private boolean matches(final int offset, final byte[] name) {
+        for (int i = name.length - 1; i >= 0; i--) {
+            if (window.get(offset + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] readEntry(final int header, final int nameLength, final int extraLength, final long base)
+            throws IOException {
+        if ((getUnsignedShort(header + 8) & 1) != 0) {
+            throw new ZipException("Encrypted entry");
+        }
+        final int method = getUnsignedShort(header + 10);
+        final long crc = getUnsignedInt(header + 16);
+        long compressedSize = getUnsignedInt(header + 20);
+        long size = getUnsignedInt(header + 24);
+        long localOffset = getUnsignedInt(header + 42);
+
+        // the ZIP64 extra field holds, in this order, only those values that overflowed
+        int extra = header + CEN_SIZE + nameLength;
+        final int extraEnd = extra + extraLength;
+        while (extra + 4 <= extraEnd) {
+            final int id = getUnsignedShort(extra);
+            final int length = getUnsignedShort(extra + 2);
+            if (id == ZIP64_EXTRA_ID) {
+                int field = extra + 4;
+                if (size == ZIP64_MAGIC && field + 8 <= extraEnd) {
+                    size = window.getLong(field);
+                    field += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC && field + 8 <= extraEnd) {
+                    compressedSize = window.getLong(field);
+                    field += 8;
+                }
+                if (localOffset == ZIP64_MAGIC && field + 8 <= extraEnd) {
+                    localOffset = window.getLong(field);
+                }
+                break;
+            }
+            extra += 4 + length;
+        }
+        if (size < 0L || size > MAX_ENTRY_SIZE || compressedSize < 0L || compressedSize > MAX_ENTRY_SIZE) {
+            throw new ZipException("Unsupported entry size");
+        }
+
+        final int local = fill(base + localOffset, LOC_SIZE);
+        if (window.getInt(local) != LOC_SIG) {
+            throw new ZipException("Invalid local file header");
+        }
+        final long dataPosition = base + localOffset + LOC_SIZE
+                + getUnsignedShort(local + 26) + getUnsignedShort(local + 28);
+
+        // one trailing byte for the inflater, which may need input past the end of a raw deflate stream
+        final byte[] compressed = new byte[(int) compressedSize + 1];
+        final ByteBuffer data = ByteBuffer.wrap(compressed, 0, (int) compressedSize);
+        while (data.hasRemaining()) {
+            if (channel.read(data, dataPosition + data.position()) < 0) {
+                throw new ZipException("Truncated entry");
+            }
+        }
+
+        final byte[] bytes;
+        if (method == 0) {
+            if (compressedSize != size) {
+                throw new ZipException("Invalid stored entry size");
+            }
+            bytes = new byte[(int) size];
+            System.arraycopy(compressed, 0, bytes, 0, bytes.length);
+        } else if (method == 8) {
+            bytes = inflate(compressed, (int) size);
+        } else {
+            throw new ZipException("Unsupported compression method: " + method);
+        }
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(bytes);
+        if (checksum.getValue() != crc) {
+            throw new ZipException("Invalid entry CRC");
+        }
+        return bytes;
+    }
+
+    private static byte[] inflate(final byte[] compressed, final int size) throws ZipException {
+        final byte[] bytes = new byte[size];
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                final int inflated = inflater.inflate(bytes, length, size - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != size) {
+                throw new ZipException("Invalid deflated entry size");
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Makes the window hold the bytes at {@code [position, position + length)}, reading from the file only if it does
+     * not already hold them.
+     * @return the index of {@code position} in the window
+     */
+    private int fill(final long position, final int length) throws IOException {
+        if (position >= windowStart && position + length <= windowStart + window.limit()) {
+            return (int) (position - windowStart);
+        }
+        if (length > window.capacity()) {
+            window = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        window.clear();
+        windowStart = position;
+        while (window.hasRemaining()) {
+            if (channel.read(window, position + window.position()) < 0) {
+                break;
+            }
+        }
+        window.flip();
+        if (window.limit() < length) {
+            throw new ZipException("Truncated zip file");
+        }
+        return 0;
+    }
+
+    private int getUnsignedShort(final int index) {
+        return window.getShort(index) & 0xFFFF;
+    }
+
+    private long getUnsignedInt(final int index) {
+        return window.getInt(index) & ZIP64_MAGIC;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Forwards every event to each of a list of listeners in turn, so that for example a
+ * {@link StatisticsResponseProgressListener} can be combined with a logging listener for a single install.
+ */
+public class CompositeResponseProgressListener implements ResponseProgressListener {
+
+    private final List<ResponseProgressListener> listeners;
+
+    public CompositeResponseProgressListener(ResponseProgressListener... listeners) {
+        this(Arrays.asList(listeners));
+    }
+
+    public CompositeResponseProgressListener(List<? extends ResponseProgressListener> listeners) {
+        if (listeners == null) {
+            throw new NullPointerException("listeners");
+        }
+        List<ResponseProgressListener> _listeners = new ArrayList<ResponseProgressListener>(listeners.size());
+        for (ResponseProgressListener listener : listeners) {
+            if (listener == null) {
+                throw new NullPointerException("listener");
+            }
+            _listeners.add(listener);
+        }
+        this.listeners = Collections.unmodifiableList(_listeners);
+    }
+
+    public List<ResponseProgressListener> getListeners() {
+        return listeners;
+    }
+
+    public void onStart(String title) {
+        for (ResponseProgressListener listener : listeners) {
+            listener.onStart(title);
+        }
+    }
+
+    public void onLog(String message) {
+        for (ResponseProgressListener listener : listeners) {
+            listener.onLog(message);
+        }
+    }
+
+    public void onMessage(String message) {
+        for (ResponseProgressListener listener : listeners) {
+            listener.onMessage(message);
+        }
+    }
+
+    public void onProgress(String action, String path) {
+        for (ResponseProgressListener listener : listeners) {
+            listener.onProgress(action, path);
+        }
+    }
+
+    public void onError(String path, String error) {
+        for (ResponseProgressListener listener : listeners) {
+            listener.onError(path, error);
+        }
+    }
+}
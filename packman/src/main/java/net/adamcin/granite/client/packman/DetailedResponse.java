@@ -27,7 +27,9 @@
 
 package net.adamcin.granite.client.packman;
 
+import java.io.File;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A more detailed {@link ServiceResponse} based on the HTML service representation
@@ -47,11 +49,32 @@ public interface DetailedResponse extends ServiceResponse {
     boolean hasErrors();
 
     /**
-     * Lists the progress errors. Does not include a failure message.
+     * Lists the progress errors. Does not include a failure message. If a bounded {@link ProgressErrorPolicy} was in
+     * effect, only the first and last errors are listed.
      * @return List of progress errors, which may be empty, but never null.
      */
     List<String> getProgressErrors();
 
+    /**
+     * Total number of progress errors reported by the service, including any that were not retained by the
+     * {@link ProgressErrorPolicy}.
+     * @return the number of progress errors
+     */
+    long getProgressErrorCount();
+
+    /**
+     * Counts the progress errors by path prefix, to the depth configured by the {@link ProgressErrorPolicy}.
+     * @return map of path prefix to number of errors, sorted by path prefix. May be empty, but never null.
+     */
+    Map<String, Long> getProgressErrorCountsByPrefix();
+
+    /**
+     * The gzip-compressed file containing every progress error, one per line, if the {@link ProgressErrorPolicy}
+     * requested it. The caller is responsible for deleting the file.
+     * @return the spilled progress errors, or {@code null} if not spilled
+     */
+    File getProgressErrorsFile();
+
     /**
      * Lists the stack trace elements returned by the service if the request was unsuccessful.
      * @return
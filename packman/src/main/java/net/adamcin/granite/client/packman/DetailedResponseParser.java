@@ -0,0 +1,577 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass tokenizer for the console.html service representation. Bytes are pushed in arbitrary chunks, split into
+ * lines with {@link java.io.BufferedReader#readLine()} semantics, and each line is matched against the known markup
+ * directly from the byte buffer, so that only titles, paths and messages are ever decoded into Strings. This requires
+ * an ASCII-compatible charset, in which the bytes of a multi-byte character never look like the markup.
+ */
+final class DetailedResponseParser {
+    private static final byte[] START = ascii("<body><h2>");
+    private static final byte[] START_END = ascii("</h2>");
+    private static final byte[] SUCCESS = ascii("</div><br>");
+    private static final byte[] SUCCESS_IN = ascii(" in ");
+    private static final byte[] SUCCESS_MS = ascii("ms.<br>");
+    private static final byte[] SPAN = ascii("<span");
+    private static final byte[] SPAN_CLASS = ascii("<span class=\"");
+    private static final byte[] SPAN_CLASS_END = ascii("\"><b>");
+    private static final byte[] BOLD_END = ascii("</b>&nbsp;");
+    private static final byte[] BR = ascii("<br>");
+    private static final byte[] END_OF_MESSAGE = ascii("</span><br>");
+    private static final byte[] BEGIN_FAILURE =
+            ascii("<span class=\"error\">Error during processing.</span><br><code><pre>");
+    private static final byte[] END_FAILURE = ascii("</pre>");
+
+    private static final String ACTION_ERROR = "E";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Canonical names of the charsets whose bytes can be scanned for markup directly
+     */
+    private static final String[] ASCII_COMPATIBLE = {
+            "UTF-8", "US-ASCII", "ISO-8859-1", "ISO-8859-15", "windows-1252"
+    };
+
+    /**
+     * progress actions are almost always a single ASCII character, so share their Strings
+     */
+    private static final String[] ASCII_ACTIONS = new String[128];
+    static {
+        for (char c = 0; c < ASCII_ACTIONS.length; c++) {
+            ASCII_ACTIONS[c] = String.valueOf(c).intern();
+        }
+    }
+
+    private final ResponseProgressListener listener;
+    private final Charset charset;
+    private final List<String> failureBuilder = new ArrayList<String>();
+    private final ProgressErrorCollector progressErrors;
+
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+    private boolean skipLF = false;
+
+    /**
+     * UTF-8 encoding buffer and pending high surrogate for {@link #write(char[], int, int)}
+     */
+    private byte[] encoded = null;
+    private char highSurrogate = 0;
+
+    private boolean started = false;
+    private boolean failure = false;
+    private boolean pendingFailure = false;
+
+    private boolean inMessage = false;
+    private String messageAction = null;
+    private String messagePath = null;
+    private final StringBuilder messageError = new StringBuilder();
+
+    private DetailedResponse response = null;
+
+    DetailedResponseParser(final ResponseProgressListener listener) {
+        this(listener, ProgressErrorPolicy.UNBOUNDED);
+    }
+
+    DetailedResponseParser(final ResponseProgressListener listener, final ProgressErrorPolicy policy) {
+        this(listener, policy, UTF_8);
+    }
+
+    /**
+     * @param listener the progress listener
+     * @param policy determines which progress errors are retained
+     * @param charset the charset of the bytes passed to {@link #write(byte[], int, int)}, which must be
+     *                {@link #isAsciiCompatible(Charset) ASCII-compatible}
+     */
+    DetailedResponseParser(final ResponseProgressListener listener, final ProgressErrorPolicy policy,
+                           final Charset charset) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        if (!isAsciiCompatible(charset)) {
+            throw new IllegalArgumentException("charset " + charset + " is not ASCII-compatible");
+        }
+        this.listener = listener;
+        this.charset = charset;
+        this.progressErrors = new ProgressErrorCollector(policy);
+    }
+
+    /**
+     * Reads the entire response from the reader, stopping as soon as a success or failure result is recognized.
+     * @param reader the decoded response body
+     * @param listener the progress listener
+     * @return the detailed response
+     * @throws IOException if the reader throws or if neither a success or failure result is found
+     */
+    static DetailedResponse parse(final Reader reader, final ResponseProgressListener listener) throws IOException {
+        DetailedResponseParser parser = new DetailedResponseParser(listener);
+        try {
+            char[] buffer = new char[8192];
+            int len;
+            while (!parser.isComplete() && (len = reader.read(buffer)) != -1) {
+                parser.write(buffer, 0, len);
+            }
+            return parser.finish();
+        } finally {
+            parser.abort();
+        }
+    }
+
+    /**
+     * @param charset a charset
+     * @return true if the charset encodes ASCII as single bytes and never uses bytes below 0x80 for anything else
+     */
+    static boolean isAsciiCompatible(final Charset charset) {
+        if (charset != null) {
+            for (String name : ASCII_COMPATIBLE) {
+                if (name.equals(charset.name())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true once a success or failure result has been recognized. Any further input is ignored.
+     */
+    boolean isComplete() {
+        return response != null;
+    }
+
+    /**
+     * Push a chunk of the response body into the parser. Lines may span any number of chunks.
+     * @param b the byte buffer
+     * @param off the offset of the chunk
+     * @param len the length of the chunk
+     */
+    void write(final byte[] b, final int off, final int len) {
+        final int end = off + len;
+        int i = off;
+        while (i < end && !isComplete()) {
+            if (skipLF) {
+                skipLF = false;
+                if (b[i] == '\n') {
+                    i++;
+                    continue;
+                }
+            }
+
+            final int start = i;
+            while (i < end && b[i] != '\n' && b[i] != '\r') {
+                i++;
+            }
+
+            if (i == end) {
+                // no terminator in this chunk, so carry the partial line over
+                appendLine(b, start, i - start);
+            } else {
+                skipLF = b[i] == '\r';
+                if (lineLength == 0) {
+                    processLine(b, start, i);
+                } else {
+                    appendLine(b, start, i - start);
+                    processLine(line, 0, lineLength);
+                    lineLength = 0;
+                }
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Push a chunk of already decoded characters into the parser, which encodes them as UTF-8. Only valid for a parser
+     * that was created for UTF-8.
+     * @param cbuf the char buffer
+     * @param off the offset of the chunk
+     * @param len the length of the chunk
+     */
+    void write(final char[] cbuf, final int off, final int len) {
+        if (encoded == null || encoded.length < len * 3 + 4) {
+            encoded = new byte[Math.max(len * 3 + 4, 1024)];
+        }
+
+        final byte[] out = encoded;
+        int pos = 0;
+        for (int i = off; i < off + len; i++) {
+            final char c = cbuf[i];
+            if (highSurrogate != 0) {
+                final char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    final int cp = Character.toCodePoint(high, c);
+                    out[pos++] = (byte) (0xF0 | (cp >> 18));
+                    out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    out[pos++] = (byte) (0x80 | (cp & 0x3F));
+                    continue;
+                }
+                out[pos++] = '?';
+            }
+
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                out[pos++] = '?';
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        write(out, 0, pos);
+    }
+
+    /**
+     * Signals the end of the response body, processing any unterminated last line.
+     * @return the detailed response
+     * @throws IOException if neither a success or failure result was found
+     */
+    DetailedResponse finish() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            write(new byte[]{'?'}, 0, 1);
+        }
+
+        if (!isComplete() && lineLength > 0) {
+            processLine(line, 0, lineLength);
+            lineLength = 0;
+        }
+
+        if (!isComplete()) {
+            // throw an exception if neither success or failure was returned
+            progressErrors.discard();
+            throw new IOException("Failed to parse service response");
+        }
+
+        return response;
+    }
+
+    /**
+     * Closes and deletes the spill file of a response that could not be read to the end. Has no effect once a result
+     * has been recognized, because the spill file then belongs to the result.
+     */
+    void abort() {
+        if (!isComplete()) {
+            progressErrors.discard();
+        }
+    }
+
+    private void appendLine(final byte[] b, final int off, final int len) {
+        if (lineLength + len > line.length) {
+            byte[] grown = new byte[Math.max(line.length * 2, lineLength + len)];
+            System.arraycopy(line, 0, grown, 0, lineLength);
+            line = grown;
+        }
+        System.arraycopy(b, off, line, lineLength, len);
+        lineLength += len;
+    }
+
+    private void processLine(final byte[] b, final int off, final int end) {
+        if (failure) {
+            handleFailure(b, off, end);
+        } else if (inMessage) {
+            handleMessageContinued(b, off, end);
+        } else {
+            if (!started) {
+                started = handleStart(b, off, end);
+            }
+
+            if (started) {
+                if (handleSuccess(b, off, end)) {
+                    return;
+                }
+
+                if (!startsWith(b, off, end, SPAN)) {
+                    handleLogs(b, off, end);
+                }
+
+                handleMessage(b, off, end);
+
+                if (endsWith(b, off, end, BEGIN_FAILURE)) {
+                    if (inMessage) {
+                        pendingFailure = true;
+                    } else {
+                        failure = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean handleStart(final byte[] b, final int off, final int end) {
+        if (startsWith(b, off, end, START)) {
+            final int titleBegin = off + START.length;
+            final int titleEnd = indexOf(b, '<', titleBegin, end);
+            if (titleEnd >= 0 && regionMatches(b, titleEnd, end, START_END)) {
+                listener.onStart(decode(b, titleBegin, titleEnd));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean handleSuccess(final byte[] b, final int off, final int end) {
+        if (startsWith(b, off, end, SUCCESS)) {
+            final int messageBegin = off + SUCCESS.length;
+
+            // the message is greedy, so the rightmost " in \d+ms.<br>" wins
+            for (int i = end - SUCCESS_IN.length; i >= messageBegin; i--) {
+                if (regionMatches(b, i, end, SUCCESS_IN)) {
+                    final int digitsBegin = i + SUCCESS_IN.length;
+                    int j = digitsBegin;
+                    long duration = 0L;
+                    while (j < end && b[j] >= '0' && b[j] <= '9') {
+                        if (duration >= 0L) {
+                            duration = duration > (Long.MAX_VALUE - 9L) / 10L ? -1L : duration * 10L + (b[j] - '0');
+                        }
+                        j++;
+                    }
+
+                    if (j > digitsBegin && regionMatches(b, j, end, SUCCESS_MS)) {
+                        progressErrors.close();
+                        response = new AbstractPackageManagerClient.DetailedResponseImpl(
+                                true, decode(b, messageBegin, i), duration, progressErrors, null);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void handleFailure(final byte[] b, final int off, final int end) {
+        if (startsWith(b, off, end, END_FAILURE)) {
+            String msg = !failureBuilder.isEmpty() ? failureBuilder.remove(0) : "";
+            progressErrors.close();
+            response = new AbstractPackageManagerClient.DetailedResponseImpl(
+                    false, msg, -1, progressErrors, failureBuilder);
+        } else {
+            // assume line is part of stack trace
+            failureBuilder.add(trimmed(b, off, end));
+        }
+    }
+
+    private void handleLogs(final byte[] b, final int off, final int end) {
+        // only the last of a run of leading "text<br>" segments is reported
+        int logBegin = off;
+        int logEnd = off;
+        int pos = off;
+        int lt;
+        while ((lt = indexOf(b, '<', pos, end)) >= 0 && regionMatches(b, lt, end, BR)) {
+            logBegin = pos;
+            logEnd = lt;
+            pos = lt + BR.length;
+        }
+
+        if (logEnd > logBegin) {
+            listener.onLog(decode(b, logBegin, logEnd));
+        }
+    }
+
+    private void handleMessage(final byte[] b, final int off, final int end) {
+        int span = off;
+        while ((span = indexOf(b, SPAN_CLASS, span, end)) >= 0) {
+            final int actionBegin = span + SPAN_CLASS.length;
+            final int actionEnd = indexOf(b, '"', actionBegin, end);
+            if (actionEnd < 0) {
+                return;
+            }
+
+            if (regionMatches(b, actionEnd, end, SPAN_CLASS_END)) {
+                final int boldEnd = indexOf(b, '<', actionEnd + SPAN_CLASS_END.length, end);
+                if (boldEnd >= 0 && regionMatches(b, boldEnd, end, BOLD_END)) {
+                    final int pathBegin = boldEnd + BOLD_END.length;
+                    int pathEnd = pathBegin;
+                    while (pathEnd < end && b[pathEnd] != '<' && b[pathEnd] != '(') {
+                        pathEnd++;
+                    }
+
+                    beginMessage(b, actionBegin, actionEnd, pathBegin, pathEnd, end);
+                    return;
+                }
+            }
+
+            span++;
+        }
+    }
+
+    private void beginMessage(final byte[] b, final int actionBegin, final int actionEnd,
+                              final int pathBegin, final int pathEnd, final int end) {
+
+        final boolean isError = actionEnd - actionBegin == 1 && b[actionBegin] == 'E';
+        final boolean isEndOfMessage = endsWith(b, pathEnd, end, END_OF_MESSAGE);
+
+        if (isError) {
+            messageAction = ACTION_ERROR;
+        } else if (actionEnd - actionBegin == 1 && b[actionBegin] >= 0) {
+            messageAction = ASCII_ACTIONS[b[actionBegin]];
+        } else {
+            messageAction = decode(b, actionBegin, actionEnd);
+        }
+
+        if (isError) {
+            messagePath = decode(b, pathBegin, pathEnd);
+            messageError.setLength(0);
+            messageError.append(decode(b, pathEnd, end));
+        } else if (messageAction.length() == 1) {
+            messagePath = trimmed(b, pathBegin, pathEnd);
+        }
+
+        if (isEndOfMessage) {
+            endMessage();
+        } else {
+            inMessage = true;
+        }
+    }
+
+    private void handleMessageContinued(final byte[] b, final int off, final int end) {
+        if (messageAction == ACTION_ERROR) {
+            messageError.append("\r\n").append(decode(b, off, end));
+        }
+
+        if (endsWith(b, off, end, END_OF_MESSAGE)) {
+            inMessage = false;
+            endMessage();
+            if (pendingFailure) {
+                pendingFailure = false;
+                failure = true;
+            }
+        }
+    }
+
+    private void endMessage() {
+        if (messageAction == ACTION_ERROR) {
+            // strip the trailing </span><br>
+            messageError.setLength(messageError.length() - END_OF_MESSAGE.length);
+            final String error = messageError.toString();
+            progressErrors.add(messagePath, error);
+
+            // strip the enclosing parentheses
+            listener.onError(messagePath.trim(), error.length() > 1 ? error.substring(1, error.length() - 1) : "");
+        } else if (messageAction.length() == 1) {
+            listener.onProgress(messageAction, messagePath);
+        } else {
+            listener.onMessage(messageAction);
+        }
+
+        messageAction = null;
+        messagePath = null;
+    }
+
+    /**
+     * Decodes a slice of the line. Slices of pure ASCII, which are by far the most common, are widened directly
+     * instead of going through the charset.
+     */
+    @SuppressWarnings("deprecation")
+    private String decode(final byte[] b, final int off, final int end) {
+        for (int i = off; i < end; i++) {
+            if (b[i] < 0) {
+                return charset.decode(ByteBuffer.wrap(b, off, end - off)).toString();
+            }
+        }
+        return new String(b, 0, off, end - off);
+    }
+
+    /**
+     * Equivalent to {@link String#trim()}, but without copying the untrimmed region first
+     */
+    private String trimmed(final byte[] b, final int off, final int end) {
+        int begin = off;
+        int _end = end;
+        while (begin < _end && b[begin] >= 0 && b[begin] <= ' ') {
+            begin++;
+        }
+        while (_end > begin && b[_end - 1] >= 0 && b[_end - 1] <= ' ') {
+            _end--;
+        }
+        return decode(b, begin, _end);
+    }
+
+    static int indexOf(final byte[] b, final char ch, final int from, final int end) {
+        for (int i = from; i < end; i++) {
+            if (b[i] == ch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int indexOf(final byte[] b, final byte[] token, final int from, final int end) {
+        final byte first = token[0];
+        final int last = end - token.length;
+        for (int i = from; i <= last; i++) {
+            if (b[i] == first && regionMatches(b, i, end, token)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean regionMatches(final byte[] b, final int pos, final int end, final byte[] token) {
+        if (pos < 0 || end - pos < token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (b[pos + i] != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean startsWith(final byte[] b, final int off, final int end, final byte[] token) {
+        return regionMatches(b, off, end, token);
+    }
+
+    static boolean endsWith(final byte[] b, final int off, final int end, final byte[] token) {
+        return end - off >= token.length && regionMatches(b, end - token.length, end, token);
+    }
+
+    private static byte[] ascii(final String token) {
+        final byte[] b = new byte[token.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) token.charAt(i);
+        }
+        return b;
+    }
+}
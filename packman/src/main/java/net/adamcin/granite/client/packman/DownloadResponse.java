@@ -35,4 +35,55 @@ import java.io.File;
 public interface DownloadResponse {
     Long getLength();
     File getContent();
+
+    /**
+     * @return the number of bytes received from the server, which excludes the bytes of a resumed partial download
+     */
+    long getTransferred();
+
+    /**
+     * @return the offset at which an interrupted download was resumed, or 0 if the package was downloaded in full
+     */
+    long getResumedFrom();
+
+    /**
+     * @return the number of byte ranges that the package was fetched in
+     */
+    int getSegments();
+
+    /**
+     * @return {@code true} if the server answered a range request or advertised {@code Accept-Ranges: bytes}
+     */
+    boolean isRangeSupported();
+
+    /**
+     * @return {@code true} if the server answered a conditional download with {@code 304 Not Modified}, in which case
+     * the existing file was left untouched
+     */
+    boolean isNotModified();
+
+    /**
+     * @return the {@code ETag} of the package, or null if the server did not send one
+     */
+    String getETag();
+
+    /**
+     * @return the {@code Last-Modified} date of the package, or null if the server did not send one
+     */
+    String getLastModified();
+
+    /**
+     * @return the hex-encoded SHA-256 digest of the file, or null if the download was not conditional
+     */
+    String getSha256();
+
+    /**
+     * @return the elapsed time of the download in milliseconds
+     */
+    long getDuration();
+
+    /**
+     * @return the number of bytes received per second
+     */
+    double getThroughput();
 }
@@ -0,0 +1,196 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the {@link PackId} of every package file identified by {@link PackageManagerClient#identify(File)} and
+ * {@link PackageManagerClient#identifyAll(File)}, keyed by canonical path, so that a file whose size and last
+ * modification time have not changed is never opened again, even by another JVM.
+ * <p>
+ * The cache is a properties file, which is read once by each instance, and rewritten through a temporary file while
+ * holding a {@link FileLock} on its {@code .lock} file, so that it may be shared by several clients and by several
+ * JVMs. Entries of files that no longer exist are dropped whenever the cache is written.
+ */
+public final class IdentifyCache {
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String SIZE_SUFFIX = ".size";
+    private static final String LAST_MODIFIED_SUFFIX = ".lastModified";
+    private static final String GROUP_SUFFIX = ".group";
+    private static final String NAME_SUFFIX = ".name";
+    private static final String VERSION_SUFFIX = ".version";
+    private static final String PATH_SUFFIX = ".path";
+
+    private final File file;
+    private final SharedFileLock sharedLock;
+    private volatile Properties entries = null;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param file the cache file, which is created by the first identification
+     * @throws IOException if the parent directory of the cache cannot be created
+     */
+    public IdentifyCache(File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        this.file = file.getCanonicalFile();
+        final File parent = this.file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create path: " + parent.getAbsolutePath());
+        }
+
+        this.sharedLock = new SharedFileLock(new File(this.file.getPath() + LOCK_SUFFIX));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of packages served from the cache by this instance
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of packages that this instance had to open
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    //-------------------------------------------------------------------------
+    // AbstractPackageManagerClient
+    //-------------------------------------------------------------------------
+
+    /**
+     * @param packageFile a canonical package file
+     * @return the recorded {@link PackId}, or null if the file is not cached, or has changed since it was cached
+     */
+    PackId get(File packageFile) {
+        final Properties cached = read();
+        final String key = packageFile.getPath();
+        final String path = cached.getProperty(key + PATH_SUFFIX);
+        if (path != null
+                && Long.toString(packageFile.length()).equals(cached.getProperty(key + SIZE_SUFFIX))
+                && Long.toString(packageFile.lastModified()).equals(cached.getProperty(key + LAST_MODIFIED_SUFFIX))) {
+            hits.incrementAndGet();
+            return PackId.valueOf(cached.getProperty(key + GROUP_SUFFIX, ""), cached.getProperty(key + NAME_SUFFIX, ""),
+                    cached.getProperty(key + VERSION_SUFFIX, ""), path);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Records the identified packages, keyed by their canonical files, along with the size and last modification time
+     * that each file had when it was identified.
+     * @param stamps the stamp of each identified file, taken before it was opened
+     */
+    void putAll(Map<File, PackId> identified, Map<File, Stamp> stamps) throws IOException {
+        if (identified.isEmpty()) {
+            return;
+        }
+        final FileLock lock = sharedLock.lock();
+        try {
+            final Properties cached = AbstractPackageManagerClient.readProperties(file);
+            final Properties merged = cached != null ? cached : new Properties();
+            for (Map.Entry<File, PackId> entry : identified.entrySet()) {
+                final String key = entry.getKey().getPath();
+                final PackId packId = entry.getValue();
+                final Stamp stamp = stamps.get(entry.getKey());
+                if (stamp == null) {
+                    continue;
+                }
+                merged.setProperty(key + SIZE_SUFFIX, Long.toString(stamp.size));
+                merged.setProperty(key + LAST_MODIFIED_SUFFIX, Long.toString(stamp.lastModified));
+                merged.setProperty(key + GROUP_SUFFIX, packId.getGroup());
+                merged.setProperty(key + NAME_SUFFIX, packId.getName());
+                merged.setProperty(key + VERSION_SUFFIX, packId.getVersion());
+                merged.setProperty(key + PATH_SUFFIX, packId.getInstallationPath());
+            }
+            for (Object property : new ArrayList<Object>(merged.keySet())) {
+                final String name = property.toString();
+                if (name.endsWith(PATH_SUFFIX)) {
+                    final String key = name.substring(0, name.length() - PATH_SUFFIX.length());
+                    if (!new File(key).isFile()) {
+                        for (String suffix : new String[]{SIZE_SUFFIX, LAST_MODIFIED_SUFFIX, GROUP_SUFFIX,
+                                NAME_SUFFIX, VERSION_SUFFIX, PATH_SUFFIX}) {
+                            merged.remove(key + suffix);
+                        }
+                    }
+                }
+            }
+            AbstractPackageManagerClient.writeProperties(file, merged);
+            entries = merged;
+        } finally {
+            sharedLock.unlock(lock);
+        }
+    }
+
+    /**
+     * The size and last modification time of a package file, taken before the file is opened, so that a file replaced
+     * while it was being identified is recorded with its old stats, and identified again on the next lookup.
+     */
+    static final class Stamp {
+        final long size;
+        final long lastModified;
+
+        Stamp(File packageFile) {
+            this.size = packageFile.length();
+            this.lastModified = packageFile.lastModified();
+        }
+    }
+
+    //-------------------------------------------------------------------------
+    // Internal
+    //-------------------------------------------------------------------------
+
+    private Properties read() {
+        Properties cached = entries;
+        if (cached == null) {
+            cached = AbstractPackageManagerClient.readProperties(file);
+            if (cached == null) {
+                cached = new Properties();
+            }
+            entries = cached;
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Minimal JSON pull tokenizer. Tokens are read on demand from a reused char buffer, and string and number values are
+ * only materialized as Strings when requested, so arbitrarily large documents can be scanned in constant memory.
+ */
+final class JsonPullParser {
+
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+    }
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+
+    private char[] text = new char[64];
+    private int textLength = 0;
+
+    /**
+     * nesting stack, true for objects and false for arrays
+     */
+    private boolean[] stack = new boolean[16];
+    private int depth = 0;
+    private boolean expectName = false;
+
+    private Token token = null;
+
+    JsonPullParser(final Reader reader) {
+        if (reader == null) {
+            throw new NullPointerException("reader");
+        }
+        this.reader = reader;
+    }
+
+    /**
+     * @return the current token, or null if {@link #next()} has not been called
+     */
+    Token getToken() {
+        return token;
+    }
+
+    /**
+     * Advances to the next token.
+     * @return the next token, {@link Token#END_DOCUMENT} if the input is exhausted
+     * @throws IOException on read failure or malformed input
+     */
+    Token next() throws IOException {
+        token = read(true);
+        return token;
+    }
+
+    /**
+     * Skips the value following the current {@link Token#NAME}, or the remainder of the current object or array if
+     * the current token is {@link Token#BEGIN_OBJECT} or {@link Token#BEGIN_ARRAY}. Strings are scanned but not
+     * copied.
+     * @throws IOException on read failure or malformed input
+     */
+    void skipValue() throws IOException {
+        int level = 0;
+        if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+            level = 1;
+        }
+        do {
+            token = read(false);
+            switch (token) {
+                case BEGIN_OBJECT:
+                case BEGIN_ARRAY:
+                    level++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    level--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of document");
+                default:
+                    break;
+            }
+        } while (level > 0);
+    }
+
+    /**
+     * @return the text of the current {@link Token#NAME}, {@link Token#STRING} or {@link Token#NUMBER}
+     */
+    String getText() {
+        return new String(text, 0, textLength);
+    }
+
+    /**
+     * Compares the text of the current token without creating a String.
+     * @param value the expected text
+     * @return true if equal
+     */
+    boolean textEquals(final String value) {
+        if (value.length() != textLength) {
+            return false;
+        }
+        for (int i = 0; i < textLength; i++) {
+            if (text[i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the current {@link Token#NUMBER} or numeric {@link Token#STRING} as an int
+     * @throws IOException if the current token is not numeric
+     */
+    int getInt() throws IOException {
+        if (token == Token.NUMBER || token == Token.STRING) {
+            long value = 0L;
+            boolean negative = false;
+            int i = 0;
+            if (textLength > 0 && text[0] == '-') {
+                negative = true;
+                i++;
+            }
+            boolean integral = i < textLength && textLength - i <= 10;
+            for (; integral && i < textLength; i++) {
+                char c = text[i];
+                if (c >= '0' && c <= '9') {
+                    value = value * 10L + (c - '0');
+                } else {
+                    integral = false;
+                }
+            }
+            if (integral && value <= Integer.MAX_VALUE) {
+                return (int) (negative ? -value : value);
+            }
+            try {
+                return (int) Double.parseDouble(getText());
+            } catch (NumberFormatException e) {
+                throw syntaxError("Expected a number but was " + getText());
+            }
+        }
+        throw syntaxError("Expected a number but was " + token);
+    }
+
+    /**
+     * @return the current {@link Token#TRUE} or {@link Token#FALSE}, or a "true" or "false" {@link Token#STRING}
+     * @throws IOException if the current token is not a boolean
+     */
+    boolean getBoolean() throws IOException {
+        if (token == Token.TRUE) {
+            return true;
+        } else if (token == Token.FALSE) {
+            return false;
+        } else if (token == Token.STRING) {
+            String value = getText();
+            if ("true".equalsIgnoreCase(value)) {
+                return true;
+            } else if ("false".equalsIgnoreCase(value)) {
+                return false;
+            }
+        }
+        throw syntaxError("Expected a boolean but was " + token);
+    }
+
+    /**
+     * @return the current scalar token as a String, following the conventions of org.json's getString()
+     * @throws IOException if the current token is not a scalar
+     */
+    String getScalarText() throws IOException {
+        switch (token) {
+            case STRING:
+            case NUMBER:
+                return getText();
+            case TRUE:
+                return "true";
+            case FALSE:
+                return "false";
+            case NULL:
+                return "null";
+            default:
+                throw syntaxError("Expected a scalar value but was " + token);
+        }
+    }
+
+    IOException syntaxError(final String message) {
+        return new IOException(message + " at depth " + depth);
+    }
+
+    private Token read(final boolean store) throws IOException {
+        for (;;) {
+            final int c = nextNonWhitespace();
+            switch (c) {
+                case -1:
+                    if (depth > 0) {
+                        throw syntaxError("Unexpected end of document");
+                    }
+                    return Token.END_DOCUMENT;
+                case '{':
+                    push(true);
+                    expectName = true;
+                    return Token.BEGIN_OBJECT;
+                case '[':
+                    push(false);
+                    expectName = false;
+                    return Token.BEGIN_ARRAY;
+                case '}':
+                    pop(true);
+                    return Token.END_OBJECT;
+                case ']':
+                    pop(false);
+                    return Token.END_ARRAY;
+                case ',':
+                    expectName = depth > 0 && stack[depth - 1];
+                    break;
+                case ':':
+                    break;
+                case '"':
+                    readString(store);
+                    if (expectName) {
+                        expectName = false;
+                        return Token.NAME;
+                    }
+                    return Token.STRING;
+                case 't':
+                    readLiteral("rue");
+                    return Token.TRUE;
+                case 'f':
+                    readLiteral("alse");
+                    return Token.FALSE;
+                case 'n':
+                    readLiteral("ull");
+                    return Token.NULL;
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        readNumber((char) c);
+                        return Token.NUMBER;
+                    }
+                    throw syntaxError("Unexpected character '" + (char) c + "'");
+            }
+        }
+    }
+
+    private void push(final boolean isObject) {
+        if (depth == stack.length) {
+            boolean[] grown = new boolean[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, depth);
+            stack = grown;
+        }
+        stack[depth++] = isObject;
+    }
+
+    private void pop(final boolean isObject) throws IOException {
+        if (depth == 0 || stack[depth - 1] != isObject) {
+            throw syntaxError("Unbalanced " + (isObject ? "'}'" : "']'"));
+        }
+        depth--;
+        expectName = false;
+    }
+
+    private boolean fill() throws IOException {
+        limit = reader.read(buffer, 0, buffer.length);
+        pos = 0;
+        if (limit < 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private int nextChar() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        for (;;) {
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return c;
+                }
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+    }
+
+    private void readLiteral(final String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (nextChar() != rest.charAt(i)) {
+                throw syntaxError("Invalid literal");
+            }
+        }
+    }
+
+    private void readNumber(final char first) throws IOException {
+        textLength = 0;
+        appendText(first);
+        for (;;) {
+            while (pos < limit) {
+                char c = buffer[pos];
+                if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                    appendText(c);
+                    pos++;
+                } else {
+                    return;
+                }
+            }
+            if (!fill()) {
+                return;
+            }
+        }
+    }
+
+    private void readString(final boolean store) throws IOException {
+        textLength = 0;
+        for (;;) {
+            // copy runs of plain characters in bulk
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            if (store && pos > start) {
+                appendText(buffer, start, pos - start);
+            }
+
+            if (pos == limit) {
+                if (!fill()) {
+                    throw syntaxError("Unterminated string");
+                }
+                continue;
+            }
+
+            if (buffer[pos++] == '"') {
+                return;
+            }
+
+            // escape sequence
+            int escaped = nextChar();
+            char c;
+            switch (escaped) {
+                case 'b':
+                    c = '\b';
+                    break;
+                case 'f':
+                    c = '\f';
+                    break;
+                case 'n':
+                    c = '\n';
+                    break;
+                case 'r':
+                    c = '\r';
+                    break;
+                case 't':
+                    c = '\t';
+                    break;
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(nextChar(), 16);
+                        if (digit < 0) {
+                            throw syntaxError("Invalid unicode escape");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    c = (char) value;
+                    break;
+                case -1:
+                    throw syntaxError("Unterminated string");
+                default:
+                    c = (char) escaped;
+                    break;
+            }
+            if (store) {
+                appendText(c);
+            }
+        }
+    }
+
+    private void appendText(final char c) {
+        if (textLength == text.length) {
+            growText(1);
+        }
+        text[textLength++] = c;
+    }
+
+    private void appendText(final char[] c, final int off, final int len) {
+        if (textLength + len > text.length) {
+            growText(len);
+        }
+        System.arraycopy(c, off, text, textLength, len);
+        textLength += len;
+    }
+
+    private void growText(final int len) {
+        char[] grown = new char[Math.max(text.length * 2, textLength + len)];
+        System.arraycopy(text, 0, grown, 0, textLength);
+        text = grown;
+    }
+}
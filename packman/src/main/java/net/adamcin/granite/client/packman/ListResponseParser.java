@@ -0,0 +1,150 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streams the results of a list.jsp response to a {@link ListResultListener} with a {@link JsonPullParser}, so that
+ * neither a JSON tree nor the full list of results is ever held in memory.
+ */
+final class ListResponseParser {
+
+    private ListResponseParser() {
+    }
+
+    /**
+     * Parses the response, calling the listener once per result.
+     * @param reader the decoded response body
+     * @param listener the result listener
+     * @return the total reported by the response
+     * @throws IOException if the reader throws or if the response is malformed
+     */
+    static int parse(final Reader reader, final ListResultListener listener) throws IOException {
+        final JsonPullParser json = new JsonPullParser(reader);
+        if (json.next() != JsonPullParser.Token.BEGIN_OBJECT) {
+            throw json.syntaxError("Expected a JSON object");
+        }
+
+        boolean hasResults = false;
+        boolean hasTotal = false;
+        int total = 0;
+
+        JsonPullParser.Token token;
+        while ((token = json.next()) == JsonPullParser.Token.NAME) {
+            if (json.textEquals(AbstractPackageManagerClient.KEY_RESULTS)) {
+                if (json.next() != JsonPullParser.Token.BEGIN_ARRAY) {
+                    throw json.syntaxError("Expected \"" + AbstractPackageManagerClient.KEY_RESULTS + "\" array");
+                }
+                while ((token = json.next()) == JsonPullParser.Token.BEGIN_OBJECT) {
+                    listener.onResult(readResult(json));
+                }
+                if (token != JsonPullParser.Token.END_ARRAY) {
+                    throw json.syntaxError("Expected a result object");
+                }
+                hasResults = true;
+            } else if (json.textEquals(AbstractPackageManagerClient.KEY_TOTAL)) {
+                json.next();
+                total = json.getInt();
+                hasTotal = true;
+            } else {
+                json.skipValue();
+            }
+        }
+
+        if (token != JsonPullParser.Token.END_OBJECT) {
+            throw json.syntaxError("Expected a member name");
+        }
+        if (!hasResults) {
+            throw new IOException("Response is missing \"" + AbstractPackageManagerClient.KEY_RESULTS + "\"");
+        }
+        if (!hasTotal) {
+            throw new IOException("Response is missing \"" + AbstractPackageManagerClient.KEY_TOTAL + "\"");
+        }
+        return total;
+    }
+
+    private static ListResult readResult(final JsonPullParser json) throws IOException {
+        String group = null;
+        String name = null;
+        String version = "";
+        boolean hasSnapshot = false;
+        boolean needsRewrap = false;
+        long size = -1L;
+        long lastModified = -1L;
+
+        while (json.next() == JsonPullParser.Token.NAME) {
+            if (json.textEquals(AbstractPackageManagerClient.KEY_GROUP)) {
+                json.next();
+                group = json.getScalarText();
+            } else if (json.textEquals(AbstractPackageManagerClient.KEY_NAME)) {
+                json.next();
+                name = json.getScalarText();
+            } else if (json.textEquals(AbstractPackageManagerClient.KEY_VERSION)) {
+                json.next();
+                version = json.getScalarText();
+            } else if (json.textEquals(AbstractPackageManagerClient.KEY_HAS_SNAPSHOT)) {
+                json.next();
+                hasSnapshot = json.getBoolean();
+            } else if (json.textEquals(AbstractPackageManagerClient.KEY_NEEDS_REWRAP)) {
+                json.next();
+                needsRewrap = json.getBoolean();
+            } else if (json.textEquals(AbstractPackageManagerClient.KEY_SIZE)) {
+                json.next();
+                size = parseLong(json.getScalarText());
+            } else if (json.textEquals(AbstractPackageManagerClient.KEY_LAST_MODIFIED)) {
+                json.next();
+                lastModified = parseLong(json.getScalarText());
+            } else {
+                json.skipValue();
+            }
+        }
+
+        if (json.getToken() != JsonPullParser.Token.END_OBJECT) {
+            throw json.syntaxError("Expected a member name");
+        }
+        if (group == null) {
+            throw new IOException("Result is missing \"" + AbstractPackageManagerClient.KEY_GROUP + "\"");
+        }
+        if (name == null) {
+            throw new IOException("Result is missing \"" + AbstractPackageManagerClient.KEY_NAME + "\"");
+        }
+
+        PackId packId = PackId.createPackId(group, name, version);
+        return new AbstractPackageManagerClient.ListResultImpl(packId, hasSnapshot, needsRewrap, size, lastModified);
+    }
+
+    private static long parseLong(final String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+}
@@ -31,4 +31,14 @@ public interface ListResult {
     PackId getPackId();
     boolean isHasSnapshot();
     boolean isNeedsRewrap();
+
+    /**
+     * @return the size of the package in bytes, or -1 if the server did not report it
+     */
+    long getSize();
+
+    /**
+     * @return the last modification time of the package in milliseconds, or -1 if the server did not report it
+     */
+    long getLastModified();
 }
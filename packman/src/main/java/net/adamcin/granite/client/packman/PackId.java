@@ -31,17 +31,26 @@ package net.adamcin.granite.client.packman;
 import org.apache.jackrabbit.vault.packaging.PackageId;
 import org.apache.jackrabbit.vault.packaging.Version;
 
+import java.io.ByteArrayInputStream;
+import java.io.Externalizable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.Properties;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.ZipException;
 
 public final class PackId implements Serializable, Comparable<PackId> {
+    /**
+     * The default value computed for the original serialized form, which is still read from older streams
+     */
+    private static final long serialVersionUID = 366882441735068562L;
     public static final Pattern PID_PATTERN = Pattern.compile("^([^:]+):([^:]+)(:([^:]*))?$");
 
     public static final String PROPERTIES_ENTRY = "META-INF/vault/properties.xml";
@@ -54,6 +63,8 @@ public final class PackId implements Serializable, Comparable<PackId> {
     private final String name;
     private final String version;
     private final String installationPath;
+    private transient volatile VersionKey versionKey;
+    private transient int hash;
 
     private PackId(final String group, final String name, final String version, final String installationPath) {
         this.group = group;
@@ -78,6 +89,18 @@ public final class PackId implements Serializable, Comparable<PackId> {
         return installationPath;
     }
 
+    /**
+     * @return the parsed form of the version, which is computed once
+     */
+    VersionKey getVersionKey() {
+        VersionKey key = versionKey;
+        if (key == null) {
+            key = new VersionKey(version);
+            versionKey = key;
+        }
+        return key;
+    }
+
     @Override
     public String toString() {
         return group + ":" + name + ":" + version;
@@ -112,10 +135,14 @@ public final class PackId implements Serializable, Comparable<PackId> {
 
     @Override
     public int hashCode() {
-        int result = group.hashCode();
-        result = 31 * result + name.hashCode();
-        result = 31 * result + version.hashCode();
-        result = 31 * result + installationPath.hashCode();
+        int result = hash;
+        if (result == 0) {
+            result = group.hashCode();
+            result = 31 * result + name.hashCode();
+            result = 31 * result + version.hashCode();
+            result = 31 * result + installationPath.hashCode();
+            hash = result;
+        }
         return result;
     }
 
@@ -128,7 +155,7 @@ public final class PackId implements Serializable, Comparable<PackId> {
                 if (this.getVersion().equals(o.getVersion())) {
                     return 0;
                 } else {
-                    return Version.create(this.getVersion()).compareTo(Version.create(o.getVersion()));
+                    return this.getVersionKey().compareTo(o.getVersionKey());
                 }
             } else {
                 return this.getName().compareTo(o.getName());
@@ -138,30 +165,23 @@ public final class PackId implements Serializable, Comparable<PackId> {
         }
     }
 
+    /**
+     * Identifies a package by its META-INF/vault/properties.xml entry, which is found by scanning the central
+     * directory of the zip, or by its file name if it has no such entry.
+     */
     public static PackId identifyPackage(File file) throws IOException {
         if (file == null) {
             throw new NullPointerException("file");
         }
 
-        JarFile jar = new JarFile(file);
-        JarEntry propsEntry = jar.getJarEntry(PROPERTIES_ENTRY);
-
-        PackId id = null;
-        if (propsEntry != null) {
-            InputStream propsStream = null;
-            try {
-                propsStream = jar.getInputStream(propsEntry);
-                Properties props = new Properties();
-                props.loadFromXML(propsStream);
-
-                id = identifyProperties(props);
-            } finally {
-                if (propsStream != null) {
-                    propsStream.close();
-                }
-            }
+        Properties props;
+        try {
+            props = readProperties(file);
+        } catch (ZipException e) {
+            props = readJarProperties(file);
         }
 
+        PackId id = props != null ? identifyProperties(props) : null;
         if (id == null) {
             PackageId _id = new PackageId(PackageId.ETC_PACKAGES_PREFIX + file.getName());
             return new PackId(_id.getGroup(), _id.getName(), _id.getVersionString(), _id.getInstallationPath());
@@ -170,6 +190,44 @@ public final class PackId implements Serializable, Comparable<PackId> {
         }
     }
 
+    /**
+     * @return the package properties, or null if the zip has no properties entry
+     * @throws ZipException if the central directory cannot be scanned
+     */
+    static Properties readProperties(File file) throws IOException {
+        byte[] entry = CentralDirectoryReader.readEntry(file, PROPERTIES_ENTRY);
+        if (entry == null) {
+            return null;
+        }
+        Properties props = new Properties();
+        props.loadFromXML(new ByteArrayInputStream(entry));
+        return props;
+    }
+
+    /**
+     * Reads the package properties through {@link JarFile}, which builds a table of every entry in the zip first.
+     * @return the package properties, or null if the zip has no properties entry
+     */
+    static Properties readJarProperties(File file) throws IOException {
+        JarFile jar = new JarFile(file);
+        try {
+            JarEntry propsEntry = jar.getJarEntry(PROPERTIES_ENTRY);
+            if (propsEntry == null) {
+                return null;
+            }
+            InputStream propsStream = jar.getInputStream(propsEntry);
+            try {
+                Properties props = new Properties();
+                props.loadFromXML(propsStream);
+                return props;
+            } finally {
+                propsStream.close();
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
     public static PackId identifyProperties(final Properties props) {
         String group = props.getProperty(PROP_GROUP);
         String name = props.getProperty(PROP_NAME);
@@ -188,6 +246,13 @@ public final class PackId implements Serializable, Comparable<PackId> {
         }
     }
 
+    /**
+     * Recreates a PackId from the values of a previously created one
+     */
+    static PackId valueOf(final String group, final String name, final String version, final String installationPath) {
+        return new PackId(group, name, version, installationPath);
+    }
+
     public static PackId createPackId(final String group, final String name, final String version) {
         if (group != null && group.length() > 1 && name != null && name.length() > 1) {
             PackageId _id = new PackageId(group, name, version != null ? version : "");
@@ -197,16 +262,182 @@ public final class PackId implements Serializable, Comparable<PackId> {
         }
     }
 
+    /**
+     * Splits a trimmed pid at its colons exactly like {@link #PID_PATTERN}: a non-empty group and name, optionally
+     * followed by a version, which may be empty.
+     */
     public static PackId parsePid(final String pid) {
         if (pid != null) {
-            Matcher matcher = PID_PATTERN.matcher(pid.trim());
-            if (matcher.find()) {
-                String group = matcher.group(1);
-                String name = matcher.group(2);
-                String version = matcher.groupCount() >= 4 ? matcher.group(4) : null;
-                return createPackId(group, name, version);
+            final String trimmed = pid.trim();
+            final int first = trimmed.indexOf(':');
+            if (first > 0) {
+                final int second = trimmed.indexOf(':', first + 1);
+                if (second < 0) {
+                    if (first + 1 < trimmed.length()) {
+                        return createPackId(trimmed.substring(0, first), trimmed.substring(first + 1), null);
+                    }
+                } else if (second > first + 1 && trimmed.indexOf(':', second + 1) < 0) {
+                    return createPackId(trimmed.substring(0, first), trimmed.substring(first + 1, second),
+                            trimmed.substring(second + 1));
+                }
             }
         }
         return null;
     }
+
+    /**
+     * Serializes this PackId in its {@link PackIdCodec} encoding
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(this);
+    }
+
+    static final class SerializedForm implements Externalizable {
+        private static final long serialVersionUID = 1L;
+
+        private PackId packId;
+
+        public SerializedForm() {
+        }
+
+        SerializedForm(PackId packId) {
+            this.packId = packId;
+        }
+
+        public void writeExternal(ObjectOutput out) throws IOException {
+            PackIdCodec.write(out, packId);
+        }
+
+        public void readExternal(ObjectInput in) throws IOException {
+            packId = PackIdCodec.read(in);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return packId;
+        }
+    }
+
+    /**
+     * The segments of a version string, split and parsed once, which compare exactly like
+     * {@link Version#compareTo(Version)} without allocating. A version is split at each dot, and each segment at each
+     * dash, ignoring empty segments. Two segments that differ compare as integers if both are integers of different
+     * value, and otherwise dash part by dash part, as integers or else as strings, where a segment with fewer parts
+     * is greater, so that {@code 1.0-SNAPSHOT} precedes {@code 1.0}. If all common segments are equal, the version
+     * with more segments is greater.
+     */
+    static final class VersionKey implements Comparable<VersionKey> {
+        private static final long PARSED = 1L << 32;
+        private static final long CANONICAL = 1L << 33;
+
+        private final String[] segments;
+        private final String[][] parts;
+
+        /**
+         * {@link #PARSED} plus the value of each segment or part that is an integer, and 0 for any other. An integer
+         * that is written the way {@link Integer#toString(int)} would write it is also {@link #CANONICAL}, so that
+         * two such segments are equal if and only if their values are, and their strings need not be compared.
+         */
+        private final long[] values;
+        private final long[][] partValues;
+
+        VersionKey(String version) {
+            this.segments = explode(version != null ? version : "", '.');
+            this.values = new long[segments.length];
+            this.parts = new String[segments.length][];
+            this.partValues = new long[segments.length][];
+            for (int i = 0; i < segments.length; i++) {
+                values[i] = parse(segments[i]);
+                parts[i] = explode(segments[i], '-');
+                partValues[i] = new long[parts[i].length];
+                for (int j = 0; j < parts[i].length; j++) {
+                    partValues[i][j] = parse(parts[i][j]);
+                }
+            }
+        }
+
+        public int compareTo(VersionKey o) {
+            final int length = Math.min(segments.length, o.segments.length);
+            for (int i = 0; i < length; i++) {
+                final long value = values[i];
+                final long other = o.values[i];
+                if ((value & other & CANONICAL) != 0L) {
+                    if (value != other) {
+                        return (int) value - (int) other;
+                    }
+                    continue;
+                }
+                if (segments[i].equals(o.segments[i])) {
+                    continue;
+                }
+                final int c = compare(value, other);
+                if (c != 0) {
+                    return c;
+                }
+
+                final String[] p = parts[i];
+                final String[] op = o.parts[i];
+                final int partLength = Math.min(p.length, op.length);
+                for (int j = 0; j < partLength; j++) {
+                    final int pc = compare(partValues[i][j], o.partValues[i][j]);
+                    if (pc != 0) {
+                        return pc;
+                    }
+                    final int sc = p[j].compareTo(op[j]);
+                    if (sc != 0) {
+                        return sc;
+                    }
+                }
+                final int d = p.length - op.length;
+                if (d != 0) {
+                    return -d;
+                }
+            }
+            return segments.length - o.segments.length;
+        }
+
+        /**
+         * @return the difference of two integers, as {@link Version} computes it, or 0 if either is not an integer or
+         * if they are equal
+         */
+        private static int compare(long value, long other) {
+            if ((value & other & PARSED) != 0L) {
+                return (int) value - (int) other;
+            }
+            return 0;
+        }
+
+        private static long parse(String segment) {
+            try {
+                final int value = Integer.parseInt(segment);
+                return (Integer.toString(value).equals(segment) ? CANONICAL | PARSED : PARSED) | (value & 0xFFFFFFFFL);
+            } catch (NumberFormatException e) {
+                return 0L;
+            }
+        }
+
+        private static String[] explode(String value, char separator) {
+            int count = 0;
+            int start = 0;
+            for (int i = 0; i <= value.length(); i++) {
+                if (i == value.length() || value.charAt(i) == separator) {
+                    if (i > start) {
+                        count++;
+                    }
+                    start = i + 1;
+                }
+            }
+            final String[] exploded = new String[count];
+            count = 0;
+            start = 0;
+            for (int i = 0; i <= value.length(); i++) {
+                if (i == value.length() || value.charAt(i) == separator) {
+                    if (i > start) {
+                        exploded[count++] = value.substring(start, i);
+                    }
+                    start = i + 1;
+                }
+            }
+            return exploded;
+        }
+    }
 }
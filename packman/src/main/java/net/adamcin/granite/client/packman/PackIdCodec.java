@@ -0,0 +1,200 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import org.apache.jackrabbit.vault.packaging.PackageId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of {@link PackId}, which is also the serialized form of a PackId.
+ * <p>
+ * Each string is written as its UTF-8 bytes prefixed by their length as an unsigned varint. A PackId is its group,
+ * name and version, followed by a varint which is {@code 0} if the installation path is the one derived from the
+ * other three, or else the length of the path plus one, followed by its bytes. A collection is its size, followed by
+ * each PackId, whose group is replaced by a varint index into the groups already written, where the index equal to
+ * the number of groups written so far introduces a new group.
+ */
+public final class PackIdCodec {
+    private static final String UTF_8 = "UTF-8";
+    private static final int CHUNK_SIZE = 8192;
+
+    private PackIdCodec() {
+    }
+
+    public static void write(DataOutput out, PackId packId) throws IOException {
+        writeString(out, packId.getGroup());
+        writeFields(out, packId);
+    }
+
+    public static PackId read(DataInput in) throws IOException {
+        return readFields(in, readString(in));
+    }
+
+    /**
+     * Writes a collection of PackIds, sharing each distinct group between all of the PackIds in that group
+     */
+    public static void writeAll(DataOutput out, Collection<PackId> packIds) throws IOException {
+        final Map<String, Integer> groups = new HashMap<String, Integer>();
+        writeVarInt(out, packIds.size());
+        for (PackId packId : packIds) {
+            final Integer index = groups.get(packId.getGroup());
+            if (index != null) {
+                writeVarInt(out, index);
+            } else {
+                writeVarInt(out, groups.size());
+                writeString(out, packId.getGroup());
+                groups.put(packId.getGroup(), groups.size());
+            }
+            writeFields(out, packId);
+        }
+    }
+
+    /**
+     * Reads a collection written by {@link #writeAll(DataOutput, Collection)}, whose PackIds share the same instance
+     * of each group
+     */
+    public static List<PackId> readAll(DataInput in) throws IOException {
+        final int size = readVarInt(in);
+        final List<PackId> packIds = new ArrayList<PackId>(Math.min(size, 1024));
+        final List<String> groups = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            final int index = readVarInt(in);
+            if (index == groups.size()) {
+                groups.add(readString(in));
+            } else if (index > groups.size()) {
+                throw new StreamCorruptedException("unknown group index " + index);
+            }
+            packIds.add(readFields(in, groups.get(index)));
+        }
+        return packIds;
+    }
+
+    private static void writeFields(DataOutput out, PackId packId) throws IOException {
+        writeString(out, packId.getName());
+        writeString(out, packId.getVersion());
+        final String path = packId.getInstallationPath();
+        if (path.equals(installationPath(packId.getGroup(), packId.getName(), packId.getVersion()))) {
+            writeVarInt(out, 0);
+        } else {
+            final byte[] bytes = path.getBytes(UTF_8);
+            writeVarInt(out, bytes.length + 1);
+            out.write(bytes);
+        }
+    }
+
+    private static PackId readFields(DataInput in, String group) throws IOException {
+        final String name = readString(in);
+        final String version = readString(in);
+        final int pathLength = readVarInt(in);
+        final String path = pathLength == 0
+                ? installationPath(group, name, version)
+                : readBytes(in, pathLength - 1);
+        return PackId.valueOf(group, name, version, path);
+    }
+
+    /**
+     * The path that {@link PackageId#getInstallationPath()} derives from a group, name and version
+     */
+    static String installationPath(String group, String name, String version) {
+        final StringBuilder path = new StringBuilder(PackageId.ETC_PACKAGES_PREFIX.length() + group.length()
+                + name.length() + version.length() + 2);
+        path.append(PackageId.ETC_PACKAGES_PREFIX);
+        if (group.length() > 0) {
+            path.append(group).append('/');
+        }
+        path.append(name);
+        if (version.length() > 0) {
+            path.append('-').append(version);
+        }
+        return path.toString();
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return readBytes(in, readVarInt(in));
+    }
+
+    /**
+     * Reads a string of the given length in bytes. Long strings are read a chunk at a time, so that a corrupt length
+     * runs out of input rather than allocating a buffer of that size up front.
+     */
+    private static String readBytes(DataInput in, int length) throws IOException {
+        if (length <= CHUNK_SIZE) {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, UTF_8);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK_SIZE);
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        for (int remaining = length; remaining > 0; remaining -= CHUNK_SIZE) {
+            final int count = Math.min(remaining, CHUNK_SIZE);
+            in.readFully(chunk, 0, count);
+            bytes.write(chunk, 0, count);
+        }
+        return bytes.toString(UTF_8);
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.writeByte(remaining);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new StreamCorruptedException("negative varint");
+                }
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("malformed varint");
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Collapses equal {@link PackId} instances to a single canonical instance, whose group, name and version strings are
+ * shared with every other pooled identity, so that a process listing the same packages again and again keeps only
+ * one copy of each identity alive. Entries are only weakly referenced, and disappear once no caller retains the
+ * canonical instance.
+ * <p>
+ * A pool may be shared by several clients through {@link PackageManagerClient#setPackIdPool(PackIdPool)}, which
+ * interns every {@link ListResult} returned by the list methods.
+ */
+public final class PackIdPool {
+    private final Map<PackId, WeakReference<PackId>> packIds = new WeakHashMap<PackId, WeakReference<PackId>>();
+    private final Map<String, WeakReference<String>> strings = new WeakHashMap<String, WeakReference<String>>();
+
+    /**
+     * @param packId a package identity
+     * @return the canonical instance equal to {@code packId}, or null if {@code packId} is null
+     */
+    public synchronized PackId intern(PackId packId) {
+        if (packId == null) {
+            return null;
+        }
+        final WeakReference<PackId> ref = packIds.get(packId);
+        PackId pooled = ref != null ? ref.get() : null;
+        if (pooled == null) {
+            pooled = PackId.valueOf(internString(packId.getGroup()), internString(packId.getName()),
+                    internString(packId.getVersion()), packId.getInstallationPath());
+            packIds.put(pooled, new WeakReference<PackId>(pooled));
+        }
+        return pooled;
+    }
+
+    /**
+     * @return the number of canonical instances which have not yet been collected
+     */
+    public synchronized int size() {
+        return packIds.size();
+    }
+
+    /**
+     * Removes every entry, so that subsequent calls to {@link #intern(PackId)} create new canonical instances.
+     */
+    public synchronized void clear() {
+        packIds.clear();
+        strings.clear();
+    }
+
+    private String internString(String value) {
+        final WeakReference<String> ref = strings.get(value);
+        String pooled = ref != null ? ref.get() : null;
+        if (pooled == null) {
+            pooled = value;
+            strings.put(pooled, new WeakReference<String>(pooled));
+        }
+        return pooled;
+    }
+
+    /**
+     * @param response a list response
+     * @return a list response whose results carry canonical identities
+     */
+    ListResponse internResponse(ListResponse response) {
+        final List<ListResult> results = new ArrayList<ListResult>(response.getResults().size());
+        for (ListResult result : response.getResults()) {
+            results.add(internResult(result));
+        }
+        return new AbstractPackageManagerClient.ListResponseImpl(results, response.getTotal());
+    }
+
+    /**
+     * @param listener a list result listener
+     * @return a listener which passes results carrying canonical identities to {@code listener}
+     */
+    ListResultListener internListener(final ListResultListener listener) {
+        return new ListResultListener() {
+            public void onResult(ListResult result) {
+                listener.onResult(internResult(result));
+            }
+        };
+    }
+
+    private ListResult internResult(ListResult result) {
+        return new AbstractPackageManagerClient.ListResultImpl(intern(result.getPackId()), result.isHasSnapshot(),
+                result.isNeedsRewrap(), result.getSize(), result.getLastModified());
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of downloaded packages, which may be shared by several clients and by several JVMs. Each
+ * package is stored once under its SHA-256 digest, and each entry maps a server and {@link PackId} to a digest, along
+ * with the {@code ETag} and {@code Last-Modified} date that the server reported for it. When the total size of the
+ * stored packages exceeds the limit, the least recently used packages are evicted. The last use of a package is
+ * recorded as the modification time of a marker file, so that it is shared with other JVMs.
+ * <p>
+ * Every change to the cache directory is made while holding a {@link FileLock} on its {@code .lock} file, and
+ * packages and entries are written to temporary files that are renamed into place. Packages are served by hard link
+ * when the runtime and file system support it, and by copy otherwise. A served file shares its inode with the cached
+ * package, so the package itself is never touched, downloads replace the target file instead of truncating it, and
+ * the digest of a package is verified before it is served, in case a served file was modified in place anyway.
+ */
+public final class PackageCache {
+    private static final String OBJECTS = "objects";
+    private static final String ENTRIES = "entries";
+    private static final String TMP = "tmp";
+    private static final String USED = "used";
+    private static final String LOCK_FILE = ".lock";
+    private static final String META_PID = "pid";
+    private static final String META_VALIDATED = "validated";
+    private static final long STALE_TMP_AGE = 24L * 60L * 60L * 1000L;
+
+    /**
+     * {@code File.toPath()} and {@code Files.createLink(Path, Path)}, which are only available on Java 7 and later
+     */
+    private static final Method TO_PATH;
+    private static final Method CREATE_LINK;
+
+    static {
+        Method toPath = null;
+        Method createLink = null;
+        try {
+            Class<?> path = Class.forName("java.nio.file.Path");
+            toPath = File.class.getMethod("toPath");
+            createLink = Class.forName("java.nio.file.Files").getMethod("createLink", path, path);
+        } catch (Exception e) {
+            toPath = null;
+            createLink = null;
+        }
+        TO_PATH = toPath;
+        CREATE_LINK = createLink;
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final SharedFileLock sharedLock;
+    private volatile long maxAge = 0L;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    /**
+     * @param directory the cache directory, which is created if necessary
+     * @param maxBytes the maximum total size of the cached packages
+     * @throws IOException if the cache directory cannot be created
+     */
+    public PackageCache(File directory, long maxBytes) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        if (maxBytes < 1L) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.directory = directory.getCanonicalFile();
+        this.maxBytes = maxBytes;
+        for (String name : new String[]{OBJECTS, ENTRIES, TMP, USED}) {
+            File dir = new File(this.directory, name);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Failed to create path: " + dir.getAbsolutePath());
+            }
+        }
+
+        this.sharedLock = new SharedFileLock(new File(this.directory, LOCK_FILE));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of milliseconds after a download or revalidation during which an entry is served without
+     * asking the server whether the package has changed
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @param maxAge the number of milliseconds during which an entry is served without revalidation. 0 by default,
+     *               which sends a conditional request for every download.
+     */
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return the number of downloads served from the cache by this instance
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of downloads fetched from the server by this instance
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of packages evicted by this instance
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the total size of the packages evicted by this instance
+     */
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    /**
+     * @return the total size of the cached packages
+     */
+    public long getSize() {
+        long size = 0L;
+        for (File object : listObjects()) {
+            size += object.length();
+        }
+        return size;
+    }
+
+    //-------------------------------------------------------------------------
+    // AbstractPackageManagerClient
+    //-------------------------------------------------------------------------
+
+    static String key(String baseUrl, PackId packId) {
+        try {
+            return AbstractPackageManagerClient.toHex(AbstractPackageManagerClient.newSha256()
+                    .digest((baseUrl + "\n" + packId.getInstallationPath()).getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available", e);
+        }
+    }
+
+    /**
+     * @return the entry for the key, or null if there is none or if its package has been evicted
+     */
+    Properties getEntry(String key) {
+        final File entryFile = getEntryFile(key);
+        final Properties entry = AbstractPackageManagerClient.readProperties(entryFile);
+        if (entry == null) {
+            return null;
+        }
+        final String sha256 = entry.getProperty(AbstractPackageManagerClient.META_SHA256);
+        if (sha256 == null || !getObject(sha256).isFile()) {
+            entryFile.delete();
+            return null;
+        }
+        return entry;
+    }
+
+    boolean isFresh(Properties entry) {
+        final long validated = parseLong(entry.getProperty(META_VALIDATED));
+        return maxAge > 0L && validated > 0L && System.currentTimeMillis() - validated <= maxAge;
+    }
+
+    /**
+     * Records that the server confirmed the entry.
+     * @return {@code true} if the package of the entry is still cached
+     */
+    boolean validate(String key, Properties entry) throws IOException {
+        final FileLock lock = sharedLock.lock();
+        try {
+            if (!getObject(entry.getProperty(AbstractPackageManagerClient.META_SHA256)).isFile()) {
+                return false;
+            }
+            entry.setProperty(META_VALIDATED, Long.toString(System.currentTimeMillis()));
+            AbstractPackageManagerClient.writeProperties(getEntryFile(key), entry);
+            return true;
+        } finally {
+            sharedLock.unlock(lock);
+        }
+    }
+
+    /**
+     * Links or copies the package of the entry to the target file, after verifying its digest. A package which does
+     * not match its digest is evicted.
+     * @return {@code false} if the package has been evicted
+     */
+    boolean serve(Properties entry, File toFile) throws IOException {
+        final String sha256 = entry.getProperty(AbstractPackageManagerClient.META_SHA256);
+        final File object = getObject(sha256);
+        FileInputStream in;
+        FileLock lock = sharedLock.lock();
+        try {
+            if (!object.isFile()) {
+                return false;
+            }
+            touch(sha256);
+            // an open file survives eviction, so the digest does not need to be computed while holding the lock
+            in = new FileInputStream(object);
+        } finally {
+            sharedLock.unlock(lock);
+        }
+
+        try {
+            final MessageDigest digest = AbstractPackageManagerClient.newSha256();
+            AbstractPackageManagerClient.digestChannel(digest, in.getChannel(), 0L, in.getChannel().size());
+            if (!sha256.equals(AbstractPackageManagerClient.toHex(digest.digest()))) {
+                lock = sharedLock.lock();
+                try {
+                    remove(object);
+                } finally {
+                    sharedLock.unlock(lock);
+                }
+                return false;
+            }
+
+            lock = sharedLock.lock();
+            try {
+                if (object.isFile() && linkTo(object, toFile)) {
+                    return true;
+                }
+            } finally {
+                sharedLock.unlock(lock);
+            }
+            AbstractPackageManagerClient.copyFile(in.getChannel(), toFile);
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return a new file in the cache directory, to download a package to
+     */
+    File newPartFile() throws IOException {
+        return File.createTempFile("download", AbstractPackageManagerClient.PARTIAL_DOWNLOAD_SUFFIX,
+                new File(directory, TMP));
+    }
+
+    /**
+     * Moves a downloaded package into the cache, records its entry, evicts the least recently used packages until
+     * the cache fits within its limit again, and links or copies the package to the target file.
+     * @return {@code false} if the package has no digest or is larger than the cache, in which case the partial file
+     * is left in place
+     */
+    boolean put(String key, PackId packId, File partFile, DownloadResponse response, File toFile)
+            throws IOException {
+        final String sha256 = response.getSha256();
+        if (sha256 == null || partFile.length() > maxBytes) {
+            return false;
+        }
+
+        final Properties entry = AbstractPackageManagerClient.newDownloadMetadata(response);
+        entry.setProperty(META_PID, packId.toString());
+        entry.setProperty(META_VALIDATED, Long.toString(System.currentTimeMillis()));
+
+        FileInputStream in = null;
+        final FileLock lock = sharedLock.lock();
+        try {
+            final File object = getObject(sha256);
+            if (object.isFile()) {
+                partFile.delete();
+            } else if (!partFile.renameTo(object)) {
+                throw new IOException("Failed to rename " + partFile.getAbsolutePath() + " to "
+                        + object.getAbsolutePath());
+            }
+            touch(sha256);
+            AbstractPackageManagerClient.writeProperties(getEntryFile(key), entry);
+            evict(object);
+            if (!linkTo(object, toFile)) {
+                // an open file survives eviction, so the copy does not need to hold the lock
+                in = new FileInputStream(object);
+            }
+        } finally {
+            sharedLock.unlock(lock);
+        }
+        if (in != null) {
+            try {
+                AbstractPackageManagerClient.copyFile(in.getChannel(), toFile);
+            } finally {
+                in.close();
+            }
+        }
+        return true;
+    }
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    //-------------------------------------------------------------------------
+    // Internal
+    //-------------------------------------------------------------------------
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private void evict(final File keep) {
+        final List<File> objects = listObjects();
+        long size = 0L;
+        for (File object : objects) {
+            size += object.length();
+        }
+
+        if (size > maxBytes) {
+            Collections.sort(objects, new Comparator<File>() {
+                public int compare(File left, File right) {
+                    long l = lastUsed(left);
+                    long r = lastUsed(right);
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+            });
+            for (File object : objects) {
+                if (size <= maxBytes) {
+                    break;
+                }
+                if (object.equals(keep)) {
+                    continue;
+                }
+                final long length = object.length();
+                if (remove(object)) {
+                    size -= length;
+                    evictions.incrementAndGet();
+                    evictedBytes.addAndGet(length);
+                }
+            }
+        }
+
+        final File[] tmpFiles = new File(directory, TMP).listFiles();
+        if (tmpFiles != null) {
+            final long stale = System.currentTimeMillis() - STALE_TMP_AGE;
+            for (File tmpFile : tmpFiles) {
+                if (tmpFile.lastModified() < stale) {
+                    tmpFile.delete();
+                }
+            }
+        }
+    }
+
+    private List<File> listObjects() {
+        final File[] objects = new File(directory, OBJECTS).listFiles();
+        return objects != null ? new ArrayList<File>(Arrays.asList(objects)) : new ArrayList<File>();
+    }
+
+    private File getObject(String sha256) {
+        return new File(new File(directory, OBJECTS), sha256 + ".zip");
+    }
+
+    /**
+     * Must be called while holding the lock. Records the last use of a package without touching the package, whose
+     * modification time is shared with every file linked to it.
+     */
+    private void touch(String sha256) throws IOException {
+        final File used = getUsedFile(sha256);
+        if (!used.setLastModified(System.currentTimeMillis())) {
+            new FileOutputStream(used).close();
+        }
+    }
+
+    private long lastUsed(File object) {
+        final File used = getUsedFile(object.getName().substring(0, object.getName().length() - ".zip".length()));
+        return used.isFile() ? used.lastModified() : object.lastModified();
+    }
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private boolean remove(File object) {
+        getUsedFile(object.getName().substring(0, object.getName().length() - ".zip".length())).delete();
+        return object.delete();
+    }
+
+    private File getUsedFile(String sha256) {
+        return new File(new File(directory, USED), sha256);
+    }
+
+    private File getEntryFile(String key) {
+        return new File(new File(directory, ENTRIES), key + ".properties");
+    }
+
+    /**
+     * Must be called while holding the lock.
+     * @return {@code true} if the object was linked to the target file, which is replaced
+     */
+    private static boolean linkTo(File object, File toFile) throws IOException {
+        if (toFile.exists() && !toFile.delete()) {
+            throw new IOException("Failed to replace file: " + toFile.getAbsolutePath());
+        }
+        return link(object, toFile);
+    }
+
+    private static boolean link(File existing, File link) {
+        if (CREATE_LINK == null) {
+            return false;
+        }
+        try {
+            CREATE_LINK.invoke(null, TO_PATH.invoke(link), TO_PATH.invoke(existing));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable index of {@link ListResult}s, sorted by group, then name, then version in {@link PackId} order, which
+ * answers group, group prefix, name, latest version and existence queries by binary search.
+ * <p>
+ * Every change returns a new catalog and leaves the original untouched, so a catalog held in a volatile field or an
+ * {@link java.util.concurrent.atomic.AtomicReference} may be read by any number of threads while another thread
+ * replaces it with an updated copy.
+ */
+public final class PackageCatalog {
+    public static final PackageCatalog EMPTY = new PackageCatalog(new ListResult[0]);
+
+    /**
+     * The {@link PackId} order, broken by version string and installation path so that only equal PackIds compare
+     * as equal.
+     */
+    private static final Comparator<PackId> ORDER = new Comparator<PackId>() {
+        public int compare(PackId left, PackId right) {
+            int result = left.compareTo(right);
+            if (result == 0) {
+                result = left.getVersion().compareTo(right.getVersion());
+            }
+            if (result == 0) {
+                result = left.getInstallationPath().compareTo(right.getInstallationPath());
+            }
+            return result;
+        }
+    };
+
+    private static final Comparator<ListResult> RESULT_ORDER = new Comparator<ListResult>() {
+        public int compare(ListResult left, ListResult right) {
+            return ORDER.compare(left.getPackId(), right.getPackId());
+        }
+    };
+
+    private final ListResult[] results;
+
+    private PackageCatalog(ListResult[] results) {
+        this.results = results;
+    }
+
+    /**
+     * @param responses the responses of one or more list requests
+     * @return a catalog of their results, where a later result replaces an earlier one with an equal PackId
+     */
+    public static PackageCatalog of(ListResponse... responses) {
+        PackageCatalog catalog = EMPTY;
+        for (ListResponse response : responses) {
+            catalog = catalog.with(response);
+        }
+        return catalog;
+    }
+
+    /**
+     * @param response the response of a list request
+     * @return a copy of this catalog with the results of {@code response}, which replace any results with equal
+     * PackIds
+     */
+    public PackageCatalog with(ListResponse response) {
+        final List<ListResult> added = new ArrayList<ListResult>(response.getResults().size());
+        for (ListResult result : response.getResults()) {
+            if (result != null && result.getPackId() != null) {
+                added.add(result);
+            }
+        }
+        if (added.isEmpty()) {
+            return this;
+        }
+        final ListResult[] incoming = added.toArray(new ListResult[added.size()]);
+        // a stable sort keeps the last of several equal results at the end of its run
+        Arrays.sort(incoming, RESULT_ORDER);
+
+        final ListResult[] merged = new ListResult[results.length + incoming.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < results.length || j < incoming.length) {
+            if (j + 1 < incoming.length && RESULT_ORDER.compare(incoming[j], incoming[j + 1]) == 0) {
+                j++;
+                continue;
+            }
+            final int c = i == results.length ? 1 : j == incoming.length ? -1
+                    : RESULT_ORDER.compare(results[i], incoming[j]);
+            if (c < 0) {
+                merged[size++] = results[i++];
+            } else {
+                if (c == 0) {
+                    i++;
+                }
+                merged[size++] = incoming[j++];
+            }
+        }
+        final ListResult[] trimmed = new ListResult[size];
+        System.arraycopy(merged, 0, trimmed, 0, size);
+        return new PackageCatalog(trimmed);
+    }
+
+    /**
+     * @param packId a package identity
+     * @return a copy of this catalog without the result for {@code packId}, or this catalog if it has no such result
+     */
+    public PackageCatalog without(PackId packId) {
+        final int index = indexOf(packId);
+        if (index < 0) {
+            return this;
+        }
+        final ListResult[] remaining = new ListResult[results.length - 1];
+        System.arraycopy(results, 0, remaining, 0, index);
+        System.arraycopy(results, index + 1, remaining, index, remaining.length - index);
+        return new PackageCatalog(remaining);
+    }
+
+    public int size() {
+        return results.length;
+    }
+
+    /**
+     * @return every result, in order
+     */
+    public List<ListResult> getResults() {
+        return view(0, results.length);
+    }
+
+    public boolean contains(PackId packId) {
+        return indexOf(packId) >= 0;
+    }
+
+    /**
+     * @return the result for {@code packId}, or null if the catalog has none
+     */
+    public ListResult get(PackId packId) {
+        final int index = indexOf(packId);
+        return index >= 0 ? results[index] : null;
+    }
+
+    /**
+     * @return the results in {@code group}, in order
+     */
+    public List<ListResult> getGroup(final String group) {
+        final int from = search(0, results.length, new Bound() {
+            boolean after(PackId packId) {
+                return packId.getGroup().compareTo(group) >= 0;
+            }
+        });
+        final int to = search(from, results.length, new Bound() {
+            boolean after(PackId packId) {
+                return packId.getGroup().compareTo(group) > 0;
+            }
+        });
+        return view(from, to);
+    }
+
+    /**
+     * @return the results in every group starting with {@code prefix}, such as every subgroup of {@code adobe/}, in
+     * order
+     */
+    public List<ListResult> getGroupsStartingWith(final String prefix) {
+        final int from = search(0, results.length, new Bound() {
+            boolean after(PackId packId) {
+                return packId.getGroup().compareTo(prefix) >= 0;
+            }
+        });
+        final int to = search(from, results.length, new Bound() {
+            boolean after(PackId packId) {
+                return !packId.getGroup().startsWith(prefix);
+            }
+        });
+        return view(from, to);
+    }
+
+    /**
+     * @return the results of every version of {@code group:name}, from the earliest to the latest
+     */
+    public List<ListResult> getVersions(final String group, final String name) {
+        final int from = search(0, results.length, new Bound() {
+            boolean after(PackId packId) {
+                final int c = packId.getGroup().compareTo(group);
+                return c > 0 || c == 0 && packId.getName().compareTo(name) >= 0;
+            }
+        });
+        final int to = search(from, results.length, new Bound() {
+            boolean after(PackId packId) {
+                return !packId.getGroup().equals(group) || !packId.getName().equals(name);
+            }
+        });
+        return view(from, to);
+    }
+
+    /**
+     * @return the result of the latest version of {@code group:name}, or null if the catalog has none
+     */
+    public ListResult getLatest(String group, String name) {
+        final List<ListResult> versions = getVersions(group, name);
+        return versions.isEmpty() ? null : versions.get(versions.size() - 1);
+    }
+
+    /**
+     * Filters every result. An arbitrary filter can not be answered by binary search, so a query which is limited
+     * to one group should use {@link #filter(String, PackIdFilter)}.
+     * @return the results whose PackIds are included by {@code filter}, in order
+     */
+    public List<ListResult> filter(PackIdFilter filter) {
+        return filter(getResults(), filter);
+    }
+
+    /**
+     * @return the results in {@code group} whose PackIds are included by {@code filter}, in order
+     */
+    public List<ListResult> filter(String group, PackIdFilter filter) {
+        return filter(getGroup(group), filter);
+    }
+
+    private static List<ListResult> filter(List<ListResult> candidates, PackIdFilter filter) {
+        final List<ListResult> included = new ArrayList<ListResult>();
+        for (ListResult result : candidates) {
+            if (filter.includes(result.getPackId())) {
+                included.add(result);
+            }
+        }
+        return Collections.unmodifiableList(included);
+    }
+
+    private int indexOf(final PackId packId) {
+        if (packId == null) {
+            return -1;
+        }
+        final int index = search(0, results.length, new Bound() {
+            boolean after(PackId other) {
+                return ORDER.compare(other, packId) >= 0;
+            }
+        });
+        return index < results.length && results[index].getPackId().equals(packId) ? index : -1;
+    }
+
+    /**
+     * @return the first index in {@code [from, to)} of a result which is after the bound, or {@code to} if there is
+     * none, given that every result after the bound is followed only by results after the bound
+     */
+    private int search(int from, int to, Bound bound) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (bound.after(results[mid].getPackId())) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private List<ListResult> view(int from, int to) {
+        return Collections.unmodifiableList(Arrays.asList(results).subList(from, to));
+    }
+
+    private static abstract class Bound {
+        abstract boolean after(PackId packId);
+    }
+}
@@ -29,6 +29,11 @@ package net.adamcin.granite.client.packman;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
 
 /**
  * This is the Public API for a CRX Package Manager Console client. It is intended to be used for implementation of
@@ -48,6 +53,85 @@ public interface PackageManagerClient {
      */
     void setServiceTimeout(long serviceTimeout);
 
+    /**
+     * Set the policy that determines which progress errors are retained by a {@link DetailedResponse}
+     * @param progressErrorPolicy the policy. {@link ProgressErrorPolicy#UNBOUNDED} by default.
+     */
+    void setProgressErrorPolicy(ProgressErrorPolicy progressErrorPolicy);
+
+    /**
+     * Set the size of the buffer used to copy a package download to its file
+     * @param downloadBufferSize size in bytes. 64 KB by default.
+     */
+    void setDownloadBufferSize(int downloadBufferSize);
+
+    /**
+     * Set whether downloads are written to a {@code .part} file next to the target file, which is kept when a
+     * download fails, so that the next download of the same package requests only the remaining bytes
+     * @param downloadResume {@code true} to resume interrupted downloads. {@code false} by default.
+     */
+    void setDownloadResume(boolean downloadResume);
+
+    /**
+     * Set the number of byte ranges that a download is split into and fetched in parallel, if the server honors
+     * range requests and the client supports concurrent requests
+     * @param downloadSegments number of parallel ranges. 1 by default.
+     */
+    void setDownloadSegments(int downloadSegments);
+
+    /**
+     * Set whether downloads send {@code If-None-Match} and {@code If-Modified-Since} based on a {@code .meta} file
+     * written next to the target file by the previous download, which also records the SHA-256 digest computed while
+     * the package was streamed. An unmodified package is not downloaded again.
+     * @param downloadConditional {@code true} to send conditional downloads. {@code false} by default.
+     */
+    void setDownloadConditional(boolean downloadConditional);
+
+    /**
+     * Set a cache that serves {@link #downloadToDirectory(PackId, File)} from previously downloaded packages
+     * @param packageCache the cache, or null to always download
+     */
+    void setPackageCache(PackageCache packageCache);
+
+    /**
+     * Set a manifest of previously uploaded packages, which makes {@link #upload(File, boolean, PackId)} skip the
+     * upload of a file that is byte-identical to the last one uploaded successfully under the same {@link PackId},
+     * unless {@code force} is true, in which case the file is always uploaded.
+     * A skipped upload returns a successful response for which {@link SimpleResponse#isSkipped()} is {@code true}.
+     * @param uploadManifest the manifest, or null to always upload
+     */
+    void setUploadManifest(UploadManifest uploadManifest);
+
+    /**
+     * Set a listener for the bytes of every upload and download as they are transferred
+     * @param transferProgressListener the listener, or null to not report transfer progress
+     */
+    void setTransferProgressListener(TransferProgressListener transferProgressListener);
+
+    /**
+     * Set the minimum time between two calls to {@link TransferProgressListener#onProgress}
+     * @param transferProgressInterval interval in milliseconds. 500 by default.
+     */
+    void setTransferProgressInterval(long transferProgressInterval);
+
+    /**
+     * Set a limiter for the rate of every upload and download, which may be shared with other clients
+     * @param bandwidthLimiter the limiter, or null for unlimited transfers
+     */
+    void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter);
+
+    /**
+     * Set a persistent cache of identified package files
+     * @param identifyCache the cache, or null to always open the package files
+     */
+    void setIdentifyCache(IdentifyCache identifyCache);
+
+    /**
+     * Set a pool of canonical package identities, shared by the results of every list request
+     * @param packIdPool the pool, or null to return new identities from each request
+     */
+    void setPackIdPool(PackIdPool packIdPool);
+
     String getBaseUrl();
 
     String getLoginUrl();
@@ -67,6 +151,16 @@ public interface PackageManagerClient {
      */
     PackId identify(File file) throws IOException;
 
+    /**
+     * Identify every zip file under a directory, in parallel, skipping the files that the
+     * {@link #setIdentifyCache(IdentifyCache) identify cache} has seen unchanged
+     * @param directory the directory to search, including its subdirectories
+     * @return the {@link PackId} of each zip file, keyed by canonical file, in path order
+     * @throws IOException if the directory can not be listed, or if any zip file can not be read, in which case the
+     * files that were read are still recorded in the identify cache
+     */
+    Map<File, PackId> identifyAll(File directory) throws IOException;
+
     /**
      * Wait for service availability. Use this method between installing a package and any calling any other POST-based
      * service operation
@@ -107,6 +201,35 @@ public interface PackageManagerClient {
      */
     ListResponse list(PackId packageId, boolean includeVersions) throws Exception;
 
+    /**
+     * List all packages, passing each result to the {@code listener} as soon as it is parsed instead of collecting
+     * them in a {@link ListResponse}. Use this for very large package inventories.
+     * @param listener receives each result in response order
+     * @return the total reported by the server
+     * @throws Exception
+     */
+    int list(ListResultListener listener) throws Exception;
+
+    /**
+     * List all packages filtered by {@code query}, passing each result to the {@code listener} as soon as it is parsed.
+     * @param query can be null or empty string
+     * @param listener receives each result in response order
+     * @return the total reported by the server
+     * @throws Exception
+     */
+    int list(String query, ListResultListener listener) throws Exception;
+
+    /**
+     * List one package matching {@code packageId} or many packages matching the {@code packageId} up to the first
+     * hyphen, passing each result to the {@code listener} as soon as it is parsed.
+     * @param packageId
+     * @param includeVersions
+     * @param listener receives each result in response order
+     * @return the total reported by the server
+     * @throws Exception
+     */
+    int list(PackId packageId, boolean includeVersions, ListResultListener listener) throws Exception;
+
     /**
      * Upload a package to the server. Does not install the package once uploaded.
      * @param file the package file to be uploaded
@@ -119,6 +242,46 @@ public interface PackageManagerClient {
      */
     SimpleResponse upload(File file, boolean force, PackId packageId) throws Exception;
 
+    /**
+     * Upload a package to the server from a stream, without writing it to a file first. The stream is read once, as
+     * the request is sent, and is closed afterwards. Does not install the package once uploaded.
+     * @param in the package to be uploaded
+     * @param length the number of bytes to read from {@code in}, or -1 if unknown, in which case the request body is
+     *               sent with chunked transfer encoding until the end of the stream
+     * @param force set to {@code true} for the uploaded package to replace an existing package on the server that has
+     *              the same id
+     * @param packageId the {@link PackId} providing the installation path. Required, because a stream cannot be
+     *                  identified without reading it
+     * @return standard simple service response
+     * @throws Exception
+     */
+    SimpleResponse upload(InputStream in, long length, boolean force, PackId packageId) throws Exception;
+
+    /**
+     * Upload a package to the server from a channel, without writing it to a file first.
+     * @param channel the package to be uploaded
+     * @param length the number of bytes to read from {@code channel}, or -1 if unknown
+     * @param force set to {@code true} for the uploaded package to replace an existing package on the server that has
+     *              the same id
+     * @param packageId the {@link PackId} providing the installation path
+     * @return standard simple service response
+     * @throws Exception
+     * @see #upload(InputStream, long, boolean, PackId)
+     */
+    SimpleResponse upload(ReadableByteChannel channel, long length, boolean force, PackId packageId) throws Exception;
+
+    /**
+     * Upload the remaining bytes of a buffer to the server as a package.
+     * @param buffer the package to be uploaded
+     * @param force set to {@code true} for the uploaded package to replace an existing package on the server that has
+     *              the same id
+     * @param packageId the {@link PackId} providing the installation path
+     * @return standard simple service response
+     * @throws Exception
+     * @see #upload(InputStream, long, boolean, PackId)
+     */
+    SimpleResponse upload(ByteBuffer buffer, boolean force, PackId packageId) throws Exception;
+
     /**
      * Downloads the package identified by {@code packageId} to the absolute path specified by {@code toFile}
      * @param packageId
@@ -157,6 +320,18 @@ public interface PackageManagerClient {
 
     DetailedResponse contents(PackId packageId, ResponseProgressListener listener) throws Exception;
 
+    /**
+     * Lists the contents of a package, writing the raw service response to a GZIP-compressed transcript as it is
+     * parsed.
+     * @param packageId {@link PackId} representing the package
+     * @param listener response progress listener
+     * @param transcript receives the GZIP-compressed response body. It is not closed. Ignored if {@code null}.
+     * @return detailed service response
+     * @throws Exception
+     */
+    DetailedResponse contents(PackId packageId, ResponseProgressListener listener, OutputStream transcript)
+            throws Exception;
+
     /**
      * Install a package that has already been uploaded to the server.
      * @param packageId {@link PackId} representing package to be installed
@@ -181,6 +356,22 @@ public interface PackageManagerClient {
     DetailedResponse install(PackId packageId, boolean recursive, int autosave,
                  ACHandling acHandling, ResponseProgressListener listener) throws Exception;
 
+    /**
+     * Install a package that has already been uploaded to the server, writing the raw service response to a
+     * GZIP-compressed transcript as it is parsed. The transcript is written with bounded memory however long the
+     * install log is.
+     * @param packageId {@link PackId} representing package to be installed
+     * @param recursive set to {@code true} to also install subpackages
+     * @param autosave number of changes between session saves.
+     * @param acHandling Access Control Handling value {@link ACHandling}. Unspecified if {@code null}.
+     * @param listener response progress listener
+     * @param transcript receives the GZIP-compressed response body. It is not closed. Ignored if {@code null}.
+     * @return detailed service response
+     * @throws Exception
+     */
+    DetailedResponse install(PackId packageId, boolean recursive, int autosave,
+                 ACHandling acHandling, ResponseProgressListener listener, OutputStream transcript) throws Exception;
+
     /**
      * Performs a dryRun of an installation of the specified package
      * @param packageId
@@ -198,16 +389,37 @@ public interface PackageManagerClient {
      */
     DetailedResponse dryRun(PackId packageId, ResponseProgressListener listener) throws Exception;
 
+    /**
+     * Performs a dryRun of an installation of the specified package, writing the raw service response to a
+     * GZIP-compressed transcript
+     * @param packageId
+     * @param listener
+     * @param transcript receives the GZIP-compressed response body. It is not closed. Ignored if {@code null}.
+     * @return
+     * @throws Exception
+     */
+    DetailedResponse dryRun(PackId packageId, ResponseProgressListener listener, OutputStream transcript)
+            throws Exception;
+
     DetailedResponse build(PackId packageId) throws Exception;
 
     DetailedResponse build(PackId packageId, ResponseProgressListener listener) throws Exception;
 
+    DetailedResponse build(PackId packageId, ResponseProgressListener listener, OutputStream transcript)
+            throws Exception;
+
     DetailedResponse rewrap(PackId packageId) throws Exception;
 
     DetailedResponse rewrap(PackId packageId, ResponseProgressListener listener) throws Exception;
 
+    DetailedResponse rewrap(PackId packageId, ResponseProgressListener listener, OutputStream transcript)
+            throws Exception;
+
     DetailedResponse uninstall(PackId packageId) throws Exception;
 
     DetailedResponse uninstall(PackId packageId, ResponseProgressListener listener) throws Exception;
 
+    DetailedResponse uninstall(PackId packageId, ResponseProgressListener listener, OutputStream transcript)
+            throws Exception;
+
 }
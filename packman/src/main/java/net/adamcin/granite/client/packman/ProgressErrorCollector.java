@@ -0,0 +1,203 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Collects progress errors according to a {@link ProgressErrorPolicy}. The first errors are kept in a list, the last
+ * errors in a ring buffer that overwrites its oldest entry, and every error increments the counter of its path prefix.
+ */
+final class ProgressErrorCollector {
+
+    private final ProgressErrorPolicy policy;
+    private final List<String> first = new ArrayList<String>();
+    private final String[] last;
+    private int lastStart = 0;
+    private int lastSize = 0;
+    private long count = 0L;
+    private final Map<String, long[]> prefixCounts = new HashMap<String, long[]>();
+
+    private File spillFile = null;
+    private Writer spillWriter = null;
+    private boolean spillFailed = false;
+
+    ProgressErrorCollector(final ProgressErrorPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        this.policy = policy;
+        this.last = new String[policy.isBounded() ? policy.getLastLimit() : 0];
+    }
+
+    /**
+     * @param path the path reported with the error
+     * @param error the error, including its enclosing parentheses
+     */
+    void add(final String path, final String error) {
+        final String entry = path + " " + error;
+        count++;
+
+        final String prefix = prefix(path.trim(), policy.getPrefixDepth());
+        long[] prefixCount = prefixCounts.get(prefix);
+        if (prefixCount == null) {
+            prefixCount = new long[1];
+            prefixCounts.put(prefix, prefixCount);
+        }
+        prefixCount[0]++;
+
+        if (!policy.isBounded() || first.size() < policy.getFirstLimit()) {
+            first.add(entry);
+        } else if (last.length > 0) {
+            last[(lastStart + lastSize) % last.length] = entry;
+            if (lastSize < last.length) {
+                lastSize++;
+            } else {
+                lastStart = (lastStart + 1) % last.length;
+            }
+        }
+
+        if (policy.isSpill()) {
+            spill(entry);
+        }
+    }
+
+    /**
+     * Closes the spill file, if any.
+     */
+    void close() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+                spillWriter = null;
+            } catch (IOException e) {
+                abandonSpill();
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the spill file, if any, for a response that could not be parsed.
+     */
+    void discard() {
+        close();
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the retained errors, which are the first errors followed by the last errors
+     */
+    List<String> getErrors() {
+        if (lastSize == 0) {
+            return Collections.unmodifiableList(first);
+        }
+        List<String> errors = new ArrayList<String>(first.size() + lastSize);
+        errors.addAll(first);
+        for (int i = 0; i < lastSize; i++) {
+            errors.add(last[(lastStart + i) % last.length]);
+        }
+        return Collections.unmodifiableList(errors);
+    }
+
+    Map<String, Long> getCountsByPrefix() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, long[]> prefixCount : prefixCounts.entrySet()) {
+            counts.put(prefixCount.getKey(), prefixCount.getValue()[0]);
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    File getSpillFile() {
+        return spillFile;
+    }
+
+    /**
+     * Spilling is best effort: the errors are still counted if the file cannot be written, so a full disk does not
+     * fail an operation that has already been executed by the server.
+     */
+    private void spill(final String entry) {
+        try {
+            if (spillFailed) {
+                return;
+            }
+            if (spillWriter == null) {
+                spillFile = File.createTempFile("progress-errors", ".txt.gz", policy.getSpillDirectory());
+                spillWriter = new BufferedWriter(new OutputStreamWriter(
+                        new GZIPOutputStream(new FileOutputStream(spillFile)), "UTF-8"));
+            }
+            spillWriter.write(entry);
+            spillWriter.write('\n');
+        } catch (IOException e) {
+            abandonSpill();
+        }
+    }
+
+    private void abandonSpill() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException ignored) {
+            }
+            spillWriter = null;
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+        spillFailed = true;
+    }
+
+    static String prefix(final String path, final int depth) {
+        int segments = 0;
+        for (int i = 1; i < path.length(); i++) {
+            if (path.charAt(i) == '/' && ++segments == depth) {
+                return path.substring(0, i);
+            }
+        }
+        return path;
+    }
+}
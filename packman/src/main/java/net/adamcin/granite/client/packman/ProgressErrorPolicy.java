@@ -0,0 +1,136 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+
+/**
+ * Controls how the progress errors of a {@link DetailedResponse} are retained. A package that fails on every node can
+ * report millions of errors, so the policy can limit the errors kept in memory to the first and last N, while the
+ * total count and the counts per path prefix remain exact. The complete stream of errors can optionally be spilled to
+ * a gzip-compressed temporary file.
+ */
+public final class ProgressErrorPolicy {
+
+    public static final int DEFAULT_PREFIX_DEPTH = 2;
+
+    /**
+     * Retains every progress error in memory. This is the default.
+     */
+    public static final ProgressErrorPolicy UNBOUNDED = new ProgressErrorPolicy(-1, 0, DEFAULT_PREFIX_DEPTH, false, null);
+
+    private final int firstLimit;
+    private final int lastLimit;
+    private final int prefixDepth;
+    private final boolean spill;
+    private final File spillDirectory;
+
+    private ProgressErrorPolicy(int firstLimit, int lastLimit, int prefixDepth, boolean spill, File spillDirectory) {
+        this.firstLimit = firstLimit;
+        this.lastLimit = lastLimit;
+        this.prefixDepth = prefixDepth;
+        this.spill = spill;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Retains only the first and the last progress errors in memory.
+     * @param first number of errors to keep from the beginning of the response
+     * @param last number of errors to keep from the end of the response
+     * @return a bounded policy
+     */
+    public static ProgressErrorPolicy bounded(int first, int last) {
+        if (first < 0) {
+            throw new IllegalArgumentException("first must not be negative");
+        }
+        if (last < 0) {
+            throw new IllegalArgumentException("last must not be negative");
+        }
+        return new ProgressErrorPolicy(first, last, DEFAULT_PREFIX_DEPTH, false, null);
+    }
+
+    /**
+     * @param prefixDepth number of leading path segments that are counted together, such that a depth of 2 counts an
+     *                    error on /content/dam/a/b under /content/dam
+     * @return a copy of this policy with the given prefix depth
+     */
+    public ProgressErrorPolicy withPrefixDepth(int prefixDepth) {
+        if (prefixDepth < 1) {
+            throw new IllegalArgumentException("prefixDepth must be at least 1");
+        }
+        return new ProgressErrorPolicy(firstLimit, lastLimit, prefixDepth, spill, spillDirectory);
+    }
+
+    /**
+     * Writes every progress error to a gzip-compressed temporary file, which is then available from
+     * {@link DetailedResponse#getProgressErrorsFile()}. The caller is responsible for deleting it.
+     * @param directory the directory in which to create the file, or {@code null} for the default temporary directory
+     * @return a copy of this policy that spills to a file
+     */
+    public ProgressErrorPolicy withSpill(File directory) {
+        return new ProgressErrorPolicy(firstLimit, lastLimit, prefixDepth, true, directory);
+    }
+
+    /**
+     * @return the number of errors kept from the beginning of the response, or {@code -1} if unbounded
+     */
+    public int getFirstLimit() {
+        return firstLimit;
+    }
+
+    /**
+     * @return the number of errors kept from the end of the response
+     */
+    public int getLastLimit() {
+        return lastLimit;
+    }
+
+    public boolean isBounded() {
+        return firstLimit >= 0;
+    }
+
+    public int getPrefixDepth() {
+        return prefixDepth;
+    }
+
+    public boolean isSpill() {
+        return spill;
+    }
+
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    @Override
+    public String toString() {
+        return "{first:" + firstLimit +
+                ", last:" + lastLimit +
+                ", prefixDepth:" + prefixDepth +
+                ", spill:" + spill + "}";
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the statistics collected by a {@link StatisticsResponseProgressListener}.
+ */
+public final class ProgressStatistics {
+
+    private final long elapsedMillis;
+    private final Map<String, Long> actionCounts;
+    private final long progressCount;
+    private final long errorCount;
+    private final double oneSecondRate;
+    private final double tenSecondRate;
+    private final double oneMinuteRate;
+    private final double averageRate;
+
+    ProgressStatistics(long elapsedMillis, Map<String, Long> actionCounts, long progressCount, long errorCount,
+                       double oneSecondRate, double tenSecondRate, double oneMinuteRate, double averageRate) {
+        this.elapsedMillis = elapsedMillis;
+        this.actionCounts = actionCounts;
+        this.progressCount = progressCount;
+        this.errorCount = errorCount;
+        this.oneSecondRate = oneSecondRate;
+        this.tenSecondRate = tenSecondRate;
+        this.oneMinuteRate = oneMinuteRate;
+        this.averageRate = averageRate;
+    }
+
+    /**
+     * @return milliseconds since {@link ResponseProgressListener#onStart(String)}, or {@code -1L} if not started
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the number of events per action code, such as A, U, D and E, sorted by action code
+     */
+    public Map<String, Long> getActionCounts() {
+        return actionCounts;
+    }
+
+    /**
+     * @param action an action code, such as "A" for added
+     * @return the number of events for the action code
+     */
+    public long getActionCount(String action) {
+        Long count = actionCounts.get(action);
+        return count == null ? 0L : count;
+    }
+
+    /**
+     * @return the total number of progress and error events
+     */
+    public long getProgressCount() {
+        return progressCount;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return progress and error events per second over the last second
+     */
+    public double getOneSecondRate() {
+        return oneSecondRate;
+    }
+
+    /**
+     * @return progress and error events per second over the last ten seconds
+     */
+    public double getTenSecondRate() {
+        return tenSecondRate;
+    }
+
+    /**
+     * @return progress and error events per second over the last minute
+     */
+    public double getOneMinuteRate() {
+        return oneMinuteRate;
+    }
+
+    /**
+     * @return progress and error events per second since {@link ResponseProgressListener#onStart(String)}
+     */
+    public double getAverageRate() {
+        return averageRate;
+    }
+
+    @Override
+    public String toString() {
+        return "{elapsedMillis:" + elapsedMillis +
+                ", actions:" + actionCounts +
+                ", errors:" + errorCount +
+                ", rate1s:" + oneSecondRate +
+                ", rate10s:" + tenSecondRate +
+                ", rate60s:" + oneMinuteRate +
+                ", average:" + averageRate + "}";
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes the writers of the properties files kept by {@link PackageCache}, {@link UploadManifest} and
+ * {@link IdentifyCache}, across the threads of this JVM and across JVMs, by holding a {@link ReentrantLock} shared by
+ * every instance for the same lock file, and then a {@link FileLock} on the lock file itself. The {@link FileLock}
+ * alone is not enough, because it is held on behalf of the whole JVM.
+ * <p>
+ * Writers replace the guarded files through {@link AbstractPackageManagerClient#writeProperties(File,
+ * java.util.Properties)}, which renames a temporary file over them, so readers never need to hold the lock.
+ */
+final class SharedFileLock {
+    private static final ConcurrentMap<String, ReentrantLock> JVM_LOCKS =
+            new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final File lockFile;
+    private final ReentrantLock jvmLock;
+
+    /**
+     * @param lockFile the canonical lock file, which is created when the lock is first taken
+     */
+    SharedFileLock(File lockFile) {
+        this.lockFile = lockFile;
+        ReentrantLock lock = new ReentrantLock();
+        ReentrantLock existing = JVM_LOCKS.putIfAbsent(lockFile.getPath(), lock);
+        this.jvmLock = existing != null ? existing : lock;
+    }
+
+    /**
+     * Blocks until the lock is held by the current thread. Every call must be followed by {@link #unlock(FileLock)}
+     * in a finally block.
+     * @return the lock held on the lock file
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    FileLock lock() throws IOException {
+        jvmLock.lock();
+        RandomAccessFile file = null;
+        boolean locked = false;
+        try {
+            file = new RandomAccessFile(lockFile, "rw");
+            final FileLock lock = file.getChannel().lock();
+            locked = true;
+            return lock;
+        } finally {
+            if (!locked) {
+                if (file != null) {
+                    try { file.close(); } catch (IOException ignored) {}
+                }
+                jvmLock.unlock();
+            }
+        }
+    }
+
+    void unlock(FileLock lock) {
+        try {
+            lock.channel().close();
+        } catch (IOException ignored) {
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+}
@@ -37,4 +37,10 @@ public interface SimpleResponse extends ServiceResponse {
      * @return a path if specified in the response, or an empty string otherwise.
      */
     String getPath();
+
+    /**
+     * @return {@code true} if an upload was not sent because the package matches the one recorded in the
+     * {@link UploadManifest} at its last successful upload
+     */
+    boolean isSkipped();
 }
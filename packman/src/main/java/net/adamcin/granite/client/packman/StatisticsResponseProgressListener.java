@@ -0,0 +1,197 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts progress events by action code and measures their rate over sliding windows of one second, ten seconds
+ * and one minute. The counters are updated without locks, and {@link #getStatistics()} may be called from any thread
+ * while the operation is still running. Combine it with other listeners using a
+ * {@link CompositeResponseProgressListener}.
+ */
+public class StatisticsResponseProgressListener implements ResponseProgressListener {
+
+    private static final String ACTION_ERROR = "E";
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final int WINDOW_SECONDS = 60;
+    private static final int BUCKETS = WINDOW_SECONDS + 1;
+    private static final int STAMP_SHIFT = 32;
+    private static final long COUNT_MASK = (1L << STAMP_SHIFT) - 1L;
+
+    /**
+     * Single-character ASCII action codes are counted in an array indexed by character; anything else in a map.
+     */
+    private final AtomicLongArray asciiCounts = new AtomicLongArray(128);
+    private final ConcurrentMap<String, AtomicLong> otherCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong progressCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * Ring of one-second buckets. Each bucket packs the second it counts (plus one, so that zero is an empty bucket)
+     * into the high 32 bits and the event count for that second into the low 32 bits, so that a bucket is moved to a
+     * new second and counted in one compare-and-set. There is one more bucket than the longest window for the current,
+     * partial second.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final long baseNanos;
+    private volatile long startNanos = -1L;
+
+    public StatisticsResponseProgressListener() {
+        this.baseNanos = nanoTime();
+    }
+
+    public void onStart(String title) {
+        startNanos = nanoTime();
+    }
+
+    public void onLog(String message) { }
+
+    public void onMessage(String message) { }
+
+    public void onProgress(String action, String path) {
+        count(action);
+    }
+
+    public void onError(String path, String error) {
+        errorCount.incrementAndGet();
+        count(ACTION_ERROR);
+    }
+
+    /**
+     * @return a point-in-time view of the statistics collected so far. Each counter is read on its own while the
+     * operation may still be running, so the fields are not guaranteed to agree with one another exactly.
+     */
+    public ProgressStatistics getStatistics() {
+        final long now = nanoTime();
+        final long started = startNanos;
+        final long elapsedNanos = started < 0L ? -1L : now - started;
+
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (int c = 0; c < asciiCounts.length(); c++) {
+            long count = asciiCounts.get(c);
+            if (count > 0L) {
+                counts.put(String.valueOf((char) c), count);
+            }
+        }
+        for (Map.Entry<String, AtomicLong> entry : otherCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+
+        final long total = progressCount.get();
+        final double averageRate = elapsedNanos > 0L ? total * (double) NANOS_PER_SECOND / elapsedNanos : 0.0D;
+
+        return new ProgressStatistics(
+                elapsedNanos < 0L ? -1L : elapsedNanos / 1000000L,
+                Collections.unmodifiableMap(counts),
+                total,
+                errorCount.get(),
+                rate(now, 1),
+                rate(now, 10),
+                rate(now, WINDOW_SECONDS),
+                averageRate);
+    }
+
+    /**
+     * @return the current time in nanoseconds. Tests may override this to control the clock.
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private void count(final String action) {
+        if (action != null && action.length() == 1 && action.charAt(0) < asciiCounts.length()) {
+            asciiCounts.incrementAndGet(action.charAt(0));
+        } else {
+            final String key = String.valueOf(action);
+            AtomicLong count = otherCounts.get(key);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = otherCounts.putIfAbsent(key, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        progressCount.incrementAndGet();
+
+        final long second = (nanoTime() - baseNanos) / NANOS_PER_SECOND;
+        final int bucket = (int) (second % BUCKETS);
+        final long stamp = second + 1L;
+        while (true) {
+            final long current = buckets.get(bucket);
+            final long currentStamp = current >>> STAMP_SHIFT;
+            final long next;
+            if (currentStamp == stamp) {
+                next = current + 1L;
+            } else if (currentStamp < stamp) {
+                // the bucket last counted a second that has left the window
+                next = (stamp << STAMP_SHIFT) | 1L;
+            } else {
+                // a later second already took the bucket; this event is too old for any window
+                return;
+            }
+            if (buckets.compareAndSet(bucket, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sums the buckets of the last whole seconds of the window and of the current, partial second, and divides by the
+     * time they cover.
+     */
+    private double rate(final long now, final int windowSeconds) {
+        final long sinceBase = now - baseNanos;
+        final long currentSecond = sinceBase / NANOS_PER_SECOND;
+
+        long events = 0L;
+        for (int i = 0; i <= windowSeconds; i++) {
+            final long second = currentSecond - i;
+            if (second < 0L) {
+                break;
+            }
+            final long current = buckets.get((int) (second % BUCKETS));
+            if (current >>> STAMP_SHIFT == second + 1L) {
+                events += current & COUNT_MASK;
+            }
+        }
+
+        final long windowNanos = Math.min(sinceBase - (currentSecond - windowSeconds) * NANOS_PER_SECOND, sinceBase);
+        return windowNanos > 0L ? events * (double) NANOS_PER_SECOND / windowNanos : 0.0D;
+    }
+}
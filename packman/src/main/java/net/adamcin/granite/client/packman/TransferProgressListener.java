@@ -0,0 +1,55 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+/**
+ * Callback for the bytes of a package upload or download as they cross the network. Progress is reported at most
+ * once per {@link PackageManagerClient#setTransferProgressInterval(long) interval}, from whichever thread moves the
+ * bytes, which for a segmented download may be any of its segment threads. Calls are never concurrent.
+ */
+public interface TransferProgressListener {
+
+    /**
+     * Called periodically while the package is transferred.
+     * @param packageId the package being transferred
+     * @param transferred bytes transferred so far
+     * @param total bytes expected in total, or -1 if the server did not say
+     * @param bytesPerSecond throughput since the previous call
+     * @param averageBytesPerSecond throughput since the start of the transfer
+     */
+    void onProgress(PackId packageId, long transferred, long total, double bytesPerSecond,
+                    double averageBytesPerSecond);
+
+    /**
+     * Called once when the upload or download completes successfully.
+     * @param packageId the package that was transferred
+     * @param transferred bytes transferred, which is 0 if a download was served without a transfer
+     * @param averageBytesPerSecond throughput from the start of the transfer to its last byte
+     */
+    void onComplete(PackId packageId, long transferred, double averageBytesPerSecond);
+}
@@ -0,0 +1,192 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the SHA-256 digest of every package file uploaded successfully by
+ * {@link PackageManagerClient#upload(File, boolean, PackId)}, keyed by server and {@link PackId}, so that uploading a
+ * byte-identical file again can be skipped, unless the upload is forced. Unless {@link #setConfirmWithServer(boolean)}
+ * is turned off, a skip is also confirmed by listing the package, and comparing the size and last modification time
+ * reported by the server with those recorded after the upload, which catches a package that was deleted or replaced
+ * on the server by someone else.
+ * <p>
+ * The manifest is a properties file, which is rewritten through a temporary file while holding a {@link FileLock} on
+ * its {@code .lock} file, so that it may be shared by several clients and by several JVMs.
+ */
+public final class UploadManifest {
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String SHA256_SUFFIX = ".sha256";
+    private static final String LENGTH_SUFFIX = ".length";
+    private static final String SERVER_SIZE_SUFFIX = ".serverSize";
+    private static final String SERVER_LAST_MODIFIED_SUFFIX = ".serverLastModified";
+
+    private final File file;
+    private final SharedFileLock sharedLock;
+    private volatile boolean confirmWithServer = true;
+
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong skippedBytes = new AtomicLong();
+    private final AtomicLong uploaded = new AtomicLong();
+
+    /**
+     * @param file the manifest file, which is created by the first successful upload
+     * @throws IOException if the parent directory of the manifest cannot be created
+     */
+    public UploadManifest(File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        this.file = file.getCanonicalFile();
+        final File parent = this.file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create path: " + parent.getAbsolutePath());
+        }
+
+        this.sharedLock = new SharedFileLock(new File(this.file.getPath() + LOCK_SUFFIX));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isConfirmWithServer() {
+        return confirmWithServer;
+    }
+
+    /**
+     * @param confirmWithServer {@code true} to list the package before skipping an upload, and to upload it anyway if
+     *                          the server no longer reports the size and last modification time recorded after the
+     *                          last upload. {@code true} by default.
+     */
+    public void setConfirmWithServer(boolean confirmWithServer) {
+        this.confirmWithServer = confirmWithServer;
+    }
+
+    /**
+     * @return the number of uploads skipped by this instance
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the total size of the packages whose uploads were skipped by this instance
+     */
+    public long getSkippedBytes() {
+        return skippedBytes.get();
+    }
+
+    /**
+     * @return the number of uploads recorded by this instance
+     */
+    public long getUploadedCount() {
+        return uploaded.get();
+    }
+
+    //-------------------------------------------------------------------------
+    // AbstractPackageManagerClient
+    //-------------------------------------------------------------------------
+
+    static String key(String baseUrl, PackId packId) {
+        return baseUrl + packId.getInstallationPath() + ".zip";
+    }
+
+    /**
+     * @return {@code true} if the last upload recorded for the key had the same digest and length
+     */
+    boolean matches(String key, String sha256, long length) {
+        final Properties manifest = read();
+        return sha256.equals(manifest.getProperty(key + SHA256_SUFFIX))
+                && length == parseLong(manifest.getProperty(key + LENGTH_SUFFIX));
+    }
+
+    /**
+     * @param result the package as listed by the server, or null if it was not found
+     * @return {@code true} if the server still reports the size and last modification time recorded for the key
+     */
+    boolean confirms(String key, ListResult result) {
+        if (result == null) {
+            return false;
+        }
+        final Properties manifest = read();
+        final long size = parseLong(manifest.getProperty(key + SERVER_SIZE_SUFFIX));
+        final long lastModified = parseLong(manifest.getProperty(key + SERVER_LAST_MODIFIED_SUFFIX));
+        return (size < 0L || size == result.getSize())
+                && (lastModified < 0L || lastModified == result.getLastModified());
+    }
+
+    /**
+     * @param result the package as listed by the server after the upload, or null if it was not listed
+     */
+    void record(String key, String sha256, long length, ListResult result) throws IOException {
+        final FileLock lock = sharedLock.lock();
+        try {
+            final Properties manifest = read();
+            manifest.setProperty(key + SHA256_SUFFIX, sha256);
+            manifest.setProperty(key + LENGTH_SUFFIX, Long.toString(length));
+            manifest.setProperty(key + SERVER_SIZE_SUFFIX, Long.toString(result != null ? result.getSize() : -1L));
+            manifest.setProperty(key + SERVER_LAST_MODIFIED_SUFFIX,
+                    Long.toString(result != null ? result.getLastModified() : -1L));
+            AbstractPackageManagerClient.writeProperties(file, manifest);
+        } finally {
+            sharedLock.unlock(lock);
+        }
+        uploaded.incrementAndGet();
+    }
+
+    void recordSkip(long length) {
+        skipped.incrementAndGet();
+        skippedBytes.addAndGet(length);
+    }
+
+    //-------------------------------------------------------------------------
+    // Internal
+    //-------------------------------------------------------------------------
+
+    private Properties read() {
+        final Properties manifest = AbstractPackageManagerClient.readProperties(file);
+        return manifest != null ? manifest : new Properties();
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+}
@@ -28,30 +28,59 @@
 package net.adamcin.granite.client.packman.async;
 
 import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHandler;
 import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.Body;
+import com.ning.http.client.BodyGenerator;
 import com.ning.http.client.Cookie;
+import com.ning.http.client.FluentCaseInsensitiveStringsMap;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
 import com.ning.http.client.ListenableFuture;
 import com.ning.http.client.Realm;
 import com.ning.http.client.Request;
 import com.ning.http.client.Response;
+import com.ning.http.client.generators.InputStreamBodyGenerator;
 import com.ning.http.multipart.FilePart;
+import com.ning.http.multipart.FilePartSource;
+import com.ning.http.multipart.Part;
+import com.ning.http.multipart.PartSource;
 import net.adamcin.granite.client.packman.AbstractPackageManagerClient;
 import net.adamcin.granite.client.packman.DetailedResponse;
 import net.adamcin.granite.client.packman.DownloadResponse;
 import net.adamcin.granite.client.packman.ListResponse;
+import net.adamcin.granite.client.packman.ListResultListener;
 import net.adamcin.granite.client.packman.PackId;
+import net.adamcin.granite.client.packman.ProgressErrorPolicy;
 import net.adamcin.granite.client.packman.ResponseProgressListener;
 import net.adamcin.granite.client.packman.SimpleResponse;
 import net.adamcin.granite.client.packman.UnauthorizedException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -80,19 +109,460 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
                 }
             };
 
-    private static class DownloadResponseHandler extends AsyncCompletionHandler<DownloadResponse> {
-        final File outputFile;
-
-        private DownloadResponseHandler(File outputFile) {
+    /**
+     * Writes each body part to the output file as it is received, instead of buffering the complete package in memory
+     * like an {@link AsyncCompletionHandler}. Body parts are received on a netty I/O thread, which must not sleep for
+     * the {@link net.adamcin.granite.client.packman.BandwidthLimiter}, so a {@link ReadThrottle} stops reading the
+     * response instead.
+     */
+    private static class DownloadResponseHandler implements AsyncHandler<DownloadResponse> {
+        private final File outputFile;
+        private final DownloadRequest request;
+        private final ReadThrottle throttle = new ReadThrottle();
+        private int statusCode;
+        private String statusText;
+        private DownloadResponseBodyWriter writer;
+
+        private DownloadResponseHandler(File outputFile, DownloadRequest request) {
             this.outputFile = outputFile;
+            this.request = request;
+        }
+
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            this.statusCode = responseStatus.getStatusCode();
+            this.statusText = responseStatus.getStatusText();
+            return STATE.CONTINUE;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            this.writer = AbstractPackageManagerClient.newDownloadResponseWriter(
+                    this.statusCode,
+                    this.statusText,
+                    getDownloadHeaders(headers.getHeaders()),
+                    this.outputFile,
+                    this.request);
+            return STATE.CONTINUE;
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            final long wait = this.writer.writeWithoutWaiting(bodyPart.getBodyByteBuffer());
+            if (wait > 0L) {
+                this.throttle.pause(wait);
+            }
+            return STATE.CONTINUE;
+        }
+
+        public DownloadResponse onCompleted() throws Exception {
+            this.throttle.release();
+            if (this.writer == null) {
+                throw new IOException("Invalid status code: " + this.statusCode);
+            }
+            return this.writer.finish();
+        }
+
+        public void onThrowable(Throwable t) {
+            this.throttle.release();
+            if (this.writer != null) {
+                this.writer.abort();
+            }
+        }
+    }
+
+    /**
+     * Pauses and resumes reads on the netty channel of one request, so that a handler running on a netty I/O thread
+     * can apply backpressure without blocking the other connections of that thread. AHC 1.7 does not expose the
+     * channel of a {@code NettyResponseFuture}, so it is looked up reflectively. With any other provider, or before
+     * the future of the request is attached, reads cannot be paused.
+     */
+    static final class ChannelReads {
+        private static final Method CHANNEL;
+        private static final Method SET_READABLE;
+
+        static {
+            Method channel = null;
+            Method setReadable = null;
+            try {
+                channel = Class.forName("com.ning.http.client.providers.netty.NettyResponseFuture")
+                        .getDeclaredMethod("channel");
+                channel.setAccessible(true);
+                setReadable = Class.forName("org.jboss.netty.channel.Channel").getMethod("setReadable", boolean.class);
+            } catch (Exception e) {
+                channel = null;
+                setReadable = null;
+            } catch (LinkageError e) {
+                // netty is not on the classpath
+                channel = null;
+                setReadable = null;
+            }
+            CHANNEL = channel;
+            SET_READABLE = setReadable;
+        }
+
+        private Future<?> future;
+        private Object channel;
+
+        /**
+         * @param future the future returned for the request
+         */
+        synchronized void attach(Future<?> future) {
+            this.future = future;
+        }
+
+        synchronized boolean isAttached() {
+            return future != null;
+        }
+
+        /**
+         * @return {@code true} if the channel of the request was found and changed
+         */
+        synchronized boolean setReadable(boolean readable) {
+            if (CHANNEL == null || !CHANNEL.getDeclaringClass().isInstance(future)) {
+                return false;
+            }
+            try {
+                if (channel == null) {
+                    channel = CHANNEL.invoke(future);
+                }
+                if (channel == null) {
+                    return false;
+                }
+                SET_READABLE.invoke(channel, readable);
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Stops reading the response of one request until the bandwidth limiter is out of debt, by pausing reads on its
+     * {@link ChannelReads} and resuming them from a timer thread. Where reads cannot be paused, the calling thread
+     * sleeps instead. A pause that comes before the future of the request is known starts once it is attached.
+     */
+    static final class ReadThrottle {
+        private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "AsyncReadThrottle");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        private final Runnable resumeTask = new Runnable() {
+            public void run() {
+                resume();
+            }
+        };
+
+        private final ChannelReads reads = new ChannelReads();
+        private long resumeAt;
+        private boolean pending = false;
+        private boolean paused = false;
+
+        /**
+         * @param future the future returned for the request, whose channel is paused
+         */
+        synchronized void attach(Future<?> future) {
+            reads.attach(future);
+            if (pending) {
+                pending = false;
+                stopReading();
+            }
+        }
+
+        /**
+         * Stops reading for at least the given time, which is extended by every pause until reading resumes
+         * @param nanos the time to stop reading for
+         * @throws InterruptedIOException if the channel cannot be paused, and the thread is interrupted while it sleeps
+         */
+        void pause(long nanos) throws InterruptedIOException {
+            synchronized (this) {
+                final long until = System.nanoTime() + nanos;
+                resumeAt = paused || pending ? Math.max(resumeAt, until) : until;
+                if (paused || pending) {
+                    return;
+                }
+                if (!reads.isAttached()) {
+                    pending = true;
+                    return;
+                }
+                if (stopReading()) {
+                    return;
+                }
+            }
+            sleep(nanos);
+        }
+
+        /**
+         * Resumes reading once the response is complete, so that the channel is not returned to the pool paused
+         */
+        synchronized void release() {
+            pending = false;
+            if (paused) {
+                paused = false;
+                reads.setReadable(true);
+            }
+        }
+
+        private boolean stopReading() {
+            if (!reads.setReadable(false)) {
+                return false;
+            }
+            paused = true;
+            TIMER.schedule(resumeTask, Math.max(0L, resumeAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return true;
+        }
+
+        private synchronized void resume() {
+            if (!paused) {
+                return;
+            }
+            final long remaining = resumeAt - System.nanoTime();
+            if (remaining > 0L) {
+                TIMER.schedule(resumeTask, remaining, TimeUnit.NANOSECONDS);
+            } else {
+                paused = false;
+                reads.setReadable(true);
+            }
+        }
+
+        private static void sleep(long nanos) throws InterruptedIOException {
+            try {
+                Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling a transfer");
+            }
+        }
+    }
+
+    /**
+     * Hands the body parts of a response to the calling thread through a queue, so that the list can be parsed as it
+     * arrives without the netty I/O thread ever waiting for the parser. Once more than {@link #HIGH_WATER} bytes are
+     * queued, reads are paused on the {@link ChannelReads} of the request until the caller has drained the queue to
+     * half of that. Where reads cannot be paused, the thread that receives the body parts waits instead.
+     */
+    static final class QueuedBodyHandler implements AsyncHandler<Void> {
+        static final int HIGH_WATER = 256 * 1024;
+
+        private final ChannelReads reads = new ChannelReads();
+        private final LinkedList<ByteBuffer> parts = new LinkedList<ByteBuffer>();
+        private long queued = 0L;
+        private boolean paused = false;
+        private boolean headersReceived = false;
+        private boolean completed = false;
+        private boolean closed = false;
+        private Throwable failure = null;
+        private int statusCode;
+        private String statusText;
+        private String charset;
+
+        public synchronized STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            this.statusCode = responseStatus.getStatusCode();
+            this.statusText = responseStatus.getStatusText();
+            return STATE.CONTINUE;
+        }
+
+        public synchronized STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            this.charset = getResponseEncoding(headers.getHeaders());
+            this.headersReceived = true;
+            notifyAll();
+            return STATE.CONTINUE;
+        }
+
+        public synchronized STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            if (closed) {
+                return STATE.ABORT;
+            }
+            final byte[] bytes = bodyPart.getBodyPartBytes();
+            parts.addLast(ByteBuffer.wrap(bytes));
+            queued += bytes.length;
+            notifyAll();
+            if (queued > HIGH_WATER && !paused) {
+                paused = reads.setReadable(false);
+                while (!paused && !closed && queued > HIGH_WATER) {
+                    wait();
+                }
+            }
+            return STATE.CONTINUE;
+        }
+
+        public synchronized Void onCompleted() throws Exception {
+            completed = true;
+            notifyAll();
+            return null;
+        }
+
+        public synchronized void onThrowable(Throwable t) {
+            failure = t;
+            notifyAll();
+        }
+
+        /**
+         * @param future the future returned for the request, whose channel is paused
+         */
+        synchronized void attach(Future<?> future) {
+            reads.attach(future);
+            if (queued > HIGH_WATER && !paused) {
+                paused = reads.setReadable(false);
+            }
+        }
+
+        /**
+         * Waits for the response headers
+         * @throws IOException if the request fails first
+         */
+        synchronized void awaitHeaders() throws IOException {
+            while (!headersReceived && !completed) {
+                checkFailure();
+                await();
+            }
+            checkFailure();
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        String getStatusText() {
+            return statusText;
+        }
+
+        String getCharset() {
+            return charset;
+        }
+
+        /**
+         * @return the body, which is read from the queue. Closing it discards the rest of the body.
+         */
+        InputStream getBody() {
+            return new InputStream() {
+                @Override public int read() throws IOException {
+                    final byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+                }
+
+                @Override public int read(byte[] b, int off, int len) throws IOException {
+                    return take(b, off, len);
+                }
+
+                @Override public void close() {
+                    discard();
+                }
+            };
+        }
+
+        private synchronized int take(byte[] b, int off, int len) throws IOException {
+            while (parts.isEmpty()) {
+                checkFailure();
+                if (completed) {
+                    return -1;
+                }
+                await();
+            }
+            final ByteBuffer head = parts.getFirst();
+            final int read = Math.min(len, head.remaining());
+            head.get(b, off, read);
+            if (!head.hasRemaining()) {
+                parts.removeFirst();
+            }
+            queued -= read;
+            if (queued <= HIGH_WATER / 2) {
+                resume();
+            }
+            return read;
+        }
+
+        private synchronized void discard() {
+            closed = true;
+            parts.clear();
+            queued = 0L;
+            resume();
+        }
+
+        private void resume() {
+            if (paused) {
+                paused = false;
+                reads.setReadable(true);
+            }
+            notifyAll();
+        }
+
+        private void checkFailure() throws IOException {
+            if (failure != null) {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                IOException e = new IOException("Failed to read response: " + failure.getMessage());
+                e.initCause(failure);
+                throw e;
+            }
         }
 
-        @Override public DownloadResponse onCompleted(Response response) throws Exception {
-            return AbstractPackageManagerClient.parseDownloadResponse(
-                    response.getStatusCode(),
-                    response.getStatusText(),
-                    response.getResponseBodyAsStream(),
-                    this.outputFile);
+        private void await() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading a response");
+            }
+        }
+    }
+
+    /**
+     * Feeds each body part into a {@link DetailedResponseBodyParser} as it is received, instead of buffering the
+     * complete response like an {@link AsyncCompletionHandler}, so that the listener receives progress events while
+     * the operation is still running on the server.
+     */
+    private static class DetailedResponseHandler implements AsyncHandler<DetailedResponse> {
+        private final ResponseProgressListener listener;
+        private final ProgressErrorPolicy policy;
+        private final OutputStream transcript;
+        private int statusCode;
+        private String statusText;
+        private DetailedResponseBodyParser parser;
+
+        private DetailedResponseHandler(ResponseProgressListener listener, ProgressErrorPolicy policy,
+                                        OutputStream transcript) {
+            this.listener = listener;
+            this.policy = policy;
+            this.transcript = transcript;
+        }
+
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            this.statusCode = responseStatus.getStatusCode();
+            this.statusText = responseStatus.getStatusText();
+            return STATE.CONTINUE;
+        }
+
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            this.parser = AbstractPackageManagerClient.newDetailedResponseParser(
+                    this.statusCode,
+                    this.statusText,
+                    getResponseEncoding(headers.getHeaders()),
+                    this.listener,
+                    this.policy,
+                    this.transcript);
+            return STATE.CONTINUE;
+        }
+
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            // keep reading after the result is recognized so that the connection can be reused
+            this.parser.write(bodyPart.getBodyByteBuffer());
+            return STATE.CONTINUE;
+        }
+
+        public DetailedResponse onCompleted() throws Exception {
+            if (this.parser == null) {
+                throw new IOException("Failed to parse service response");
+            }
+            return this.parser.finish();
+        }
+
+        public void onThrowable(Throwable t) {
+            if (this.parser != null) {
+                this.parser.abort();
+            }
         }
     }
 
@@ -212,20 +682,12 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
         return getRequestTimeout() >= 0L ? fResponse.get(getRequestTimeout(), TimeUnit.MILLISECONDS) : fResponse.get();
     }
 
-    private DetailedResponse executeDetailedRequest(final Request request, final ResponseProgressListener listener)
+    private DetailedResponse executeDetailedRequest(final Request request, final ResponseProgressListener listener,
+                                                    final OutputStream transcript)
         throws IOException, InterruptedException, ExecutionException, TimeoutException {
 
-        ListenableFuture<DetailedResponse> fResponse = this.client.executeRequest(request, new AsyncCompletionHandler<DetailedResponse>(){
-            @Override public DetailedResponse onCompleted(Response response) throws Exception {
-                return AbstractPackageManagerClient.parseDetailedResponse(
-                        response.getStatusCode(),
-                        response.getStatusText(),
-                        response.getResponseBodyAsStream(),
-                        getResponseEncoding(response),
-                        listener
-                );
-            }
-        });
+        ListenableFuture<DetailedResponse> fResponse = this.client.executeRequest(request,
+                new DetailedResponseHandler(listener, getProgressErrorPolicy(), transcript));
 
         return getRequestTimeout() >= 0L ? fResponse.get(getRequestTimeout(), TimeUnit.MILLISECONDS) : fResponse.get();
     }
@@ -237,10 +699,36 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
         return getRequestTimeout() >= 0L ? fResponse.get(getRequestTimeout(), TimeUnit.MILLISECONDS) : fResponse.get();
     }
 
-    private DownloadResponse executeDownloadRequest(Request request, File outputFile)
+    /**
+     * Queues the body for the calling thread with a {@link QueuedBodyHandler}, so that the list can be parsed as it
+     * arrives instead of being buffered in full by an {@link AsyncCompletionHandler}.
+     */
+    private int executeListRequest(Request request, ListResultListener listener) throws IOException {
+
+        QueuedBodyHandler handler = new QueuedBodyHandler();
+        handler.attach(this.client.executeRequest(request, handler));
+
+        InputStream body = handler.getBody();
+        try {
+            handler.awaitHeaders();
+            return AbstractPackageManagerClient.parseListResponse(
+                    handler.getStatusCode(),
+                    handler.getStatusText(),
+                    body,
+                    handler.getCharset(),
+                    listener
+            );
+        } finally {
+            try { body.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private DownloadResponse executeDownloadRequest(Request request, File outputFile, DownloadRequest downloadRequest)
             throws IOException, InterruptedException, ExecutionException, TimeoutException {
 
-        ListenableFuture<DownloadResponse> fResponse = this.client.executeRequest(request, new DownloadResponseHandler(outputFile));
+        final DownloadResponseHandler handler = new DownloadResponseHandler(outputFile, downloadRequest);
+        ListenableFuture<DownloadResponse> fResponse = this.client.executeRequest(request, handler);
+        handler.throttle.attach(fResponse);
         return getRequestTimeout() >= 0L ? fResponse.get(getRequestTimeout(), TimeUnit.MILLISECONDS) : fResponse.get();
     }
 
@@ -310,10 +798,25 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
     }
 
     private static String getResponseEncoding(Response response) {
-        String encoding = response.getHeader("Content-Encoding");
+        return getResponseEncoding(response.getHeaders());
+    }
+
+    private static Map<String, String> getDownloadHeaders(FluentCaseInsensitiveStringsMap headers) {
+        Map<String, String> downloadHeaders = new HashMap<String, String>();
+        for (String name : DOWNLOAD_RESPONSE_HEADERS) {
+            String value = headers.getFirstValue(name);
+            if (value != null) {
+                downloadHeaders.put(name, value);
+            }
+        }
+        return downloadHeaders;
+    }
+
+    private static String getResponseEncoding(FluentCaseInsensitiveStringsMap headers) {
+        String encoding = headers.getFirstValue("Content-Encoding");
 
         if (encoding == null) {
-            String contentType = response.getContentType();
+            String contentType = headers.getFirstValue("Content-Type");
             if (contentType != null) {
                 int charsetBegin = contentType.toLowerCase().indexOf(";charset=");
                 if (charsetBegin >= 0) {
@@ -343,16 +846,156 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
         }
     }
 
+    @Override
+    protected boolean isConcurrentRequestSupported() {
+        return true;
+    }
+
     @Override
     protected ResponseBuilder getResponseBuilder() {
         return new AsyncResponseBuilder();
     }
 
+    /**
+     * A {@link FilePart} that encodes its own multipart body, which is read from its source as the request is written.
+     * The netty provider would otherwise copy the complete multipart body into memory for an SSL connection, and it
+     * requires the length of every part.
+     */
+    static final class StreamPart extends FilePart implements BodyGenerator {
+        private static final byte[] BOUNDARY_CHARS =
+                "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".getBytes();
+        private static final Random RANDOM = new Random();
+
+        private final byte[] boundary;
+
+        StreamPart(String name, PartSource partSource, String contentType) {
+            super(name, partSource, contentType, null);
+            this.boundary = generateBoundary();
+        }
+
+        /**
+         * @return a random boundary of 30 to 40 characters, like the one generated by MultipartRequestEntity, so that
+         * a package which happens to contain the fixed default boundary cannot break the body
+         */
+        private static byte[] generateBoundary() {
+            synchronized (RANDOM) {
+                byte[] bytes = new byte[RANDOM.nextInt(11) + 30];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = BOUNDARY_CHARS[RANDOM.nextInt(BOUNDARY_CHARS.length)];
+                }
+                return bytes;
+            }
+        }
+
+        @Override
+        protected byte[] getPartBoundary() {
+            return boundary;
+        }
+
+        /**
+         * @return the {@code Content-Type} of a request whose body is this part
+         */
+        String getMultipartContentType() {
+            return "multipart/form-data; boundary=" + new String(boundary);
+        }
+
+        boolean isChunked() {
+            return getSource().getLength() < 0L;
+        }
+
+        /**
+         * @return the complete multipart body of this part, with the part headers and the closing boundary around
+         * the data
+         */
+        InputStream createBodyStream() throws IOException {
+            return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                    new ByteArrayInputStream(getHead()),
+                    getSource().createInputStream(),
+                    new ByteArrayInputStream(getTail()))));
+        }
+
+        public Body createBody() throws IOException {
+            return new StreamBody(createBodyStream(),
+                    getHead().length + getSource().getLength() + getTail().length);
+        }
+
+        private byte[] getHead() throws IOException {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            sendStart(head);
+            sendDispositionHeader(head);
+            sendContentTypeHeader(head);
+            sendTransferEncodingHeader(head);
+            sendEndOfHeader(head);
+            return head.toByteArray();
+        }
+
+        private byte[] getTail() throws IOException {
+            ByteArrayOutputStream tail = new ByteArrayOutputStream();
+            sendEnd(tail);
+            Part.sendMessageEnd(tail, getPartBoundary());
+            return tail.toByteArray();
+        }
+    }
+
+    /**
+     * A {@link Body} of known length, which the netty provider writes one chunk at a time as the connection accepts
+     * it.
+     */
+    static final class StreamBody implements Body {
+        private final InputStream stream;
+        private final long length;
+
+        StreamBody(InputStream stream, long length) {
+            this.stream = stream;
+            this.length = length;
+        }
+
+        public long getContentLength() {
+            return length;
+        }
+
+        public long read(ByteBuffer buffer) throws IOException {
+            final int read = stream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (read > 0) {
+                buffer.position(buffer.position() + read);
+            }
+            return read;
+        }
+
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+    static final class StreamPartSource implements PartSource {
+        private final String fileName;
+        private final InputStream stream;
+        private final long length;
+
+        StreamPartSource(String fileName, InputStream stream, long length) {
+            this.fileName = fileName;
+            this.stream = stream;
+            this.length = length;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public InputStream createInputStream() {
+            return stream;
+        }
+    }
+
     class AsyncResponseBuilder extends ResponseBuilder {
 
         private PackId packId = null;
         private Map<String, String> stringParams = new HashMap<String, String>();
-        private Map<String, FilePart> fileParams = new HashMap<String, FilePart>();
+        private Map<String, StreamPart> fileParams = new HashMap<String, StreamPart>();
 
         @Override
         protected ResponseBuilder forPackId(PackId packId) {
@@ -378,7 +1021,14 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
 
         @Override
         public ResponseBuilder withParam(String name, File value, String mimeType) throws IOException {
-            this.fileParams.put(name, new FilePart(name, value, mimeType, null));
+            this.fileParams.put(name, new StreamPart(name, new FilePartSource(value), mimeType));
+            return this;
+        }
+
+        @Override
+        public ResponseBuilder withParam(String name, String fileName, InputStream value, long length,
+                                         String mimeType) throws IOException {
+            this.fileParams.put(name, new StreamPart(name, new StreamPartSource(fileName, value, length), mimeType));
             return this;
         }
 
@@ -393,15 +1043,14 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
                 }
             }
 
-            for (Map.Entry<String, FilePart> param : this.fileParams.entrySet()) {
-                requestBuilder.addBodyPart(param.getValue());
-            }
+            addFileParams(requestBuilder);
 
             return executeSimpleRequest(requestBuilder.build());
         }
 
         @Override
-        public DetailedResponse getDetailedResponse(final ResponseProgressListener listener) throws Exception {
+        public DetailedResponse getDetailedResponse(final ResponseProgressListener listener,
+                                                    final OutputStream transcript) throws Exception {
             AsyncHttpClient.BoundRequestBuilder requestBuilder = buildDetailedRequest(packId);
             for (Map.Entry<String, String> param : this.stringParams.entrySet()) {
                 if (this.fileParams.isEmpty()) {
@@ -411,11 +1060,21 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
                 }
             }
 
-            for (Map.Entry<String, FilePart> param : this.fileParams.entrySet()) {
-                requestBuilder.addBodyPart(param.getValue());
-            }
+            addFileParams(requestBuilder);
 
-            return executeDetailedRequest(requestBuilder.build(), listener);
+            return executeDetailedRequest(requestBuilder.build(), listener, transcript);
+        }
+
+        private void addFileParams(AsyncHttpClient.BoundRequestBuilder requestBuilder) throws IOException {
+            if (this.fileParams.size() > 1) {
+                throw new IOException("Only one file parameter may be uploaded per request");
+            }
+            for (StreamPart part : this.fileParams.values()) {
+                requestBuilder.setHeader("Content-Type", part.getMultipartContentType());
+                // the provider frames the chunks of an unknown length itself, but only for an InputStreamBodyGenerator
+                requestBuilder.setBody(part.isChunked()
+                        ? new InputStreamBodyGenerator(part.createBodyStream()) : part);
+            }
         }
 
         @Override
@@ -433,7 +1092,21 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
         }
 
         @Override
-        protected DownloadResponse getDownloadResponse(File file) throws Exception {
+        protected int getListResponse(ListResultListener listener) throws Exception {
+            AsyncHttpClient.BoundRequestBuilder requestBuilder = buildListRequest();
+            if (packId != null) {
+                requestBuilder.addQueryParameter(KEY_PATH, packId.getInstallationPath() + ".zip");
+            }
+
+            for (Map.Entry<String, String> param : this.stringParams.entrySet()) {
+                requestBuilder.addQueryParameter(param.getKey(), param.getValue());
+            }
+
+            return executeListRequest(requestBuilder.build(), listener);
+        }
+
+        @Override
+        protected DownloadResponse getDownloadResponse(File file, DownloadRequest downloadRequest) throws Exception {
             AsyncHttpClient.BoundRequestBuilder requestBuilder = buildDownloadRequest();
             if (packId != null) {
                 requestBuilder.addQueryParameter(KEY_PATH, packId.getInstallationPath() + ".zip");
@@ -443,7 +1116,13 @@ public final class AsyncPackageManagerClient extends AbstractPackageManagerClien
                 requestBuilder.addQueryParameter(param.getKey(), param.getValue());
             }
 
-            return executeDownloadRequest(requestBuilder.build(), file);
+            if (downloadRequest != null) {
+                for (Map.Entry<String, String> header : downloadRequest.getHeaders().entrySet()) {
+                    requestBuilder.setHeader(header.getKey(), header.getValue());
+                }
+            }
+
+            return executeDownloadRequest(requestBuilder.build(), file, downloadRequest);
         }
     }
 }
@@ -31,13 +31,16 @@ import net.adamcin.granite.client.packman.AbstractPackageManagerClient;
 import net.adamcin.granite.client.packman.DetailedResponse;
 import net.adamcin.granite.client.packman.DownloadResponse;
 import net.adamcin.granite.client.packman.ListResponse;
+import net.adamcin.granite.client.packman.ListResultListener;
 import net.adamcin.granite.client.packman.PackId;
 import net.adamcin.granite.client.packman.ResponseProgressListener;
 import net.adamcin.granite.client.packman.SimpleResponse;
 import net.adamcin.granite.client.packman.UnauthorizedException;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
@@ -46,10 +49,14 @@ import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
 import org.apache.commons.httpclient.methods.multipart.StringPart;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -145,13 +152,17 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
                 request.getResponseCharSet());
     }
 
-    private DetailedResponse executeDetailedRequest(final HttpMethodBase request, final ResponseProgressListener listener) throws IOException {
+    private DetailedResponse executeDetailedRequest(final HttpMethodBase request,
+                                                    final ResponseProgressListener listener,
+                                                    final OutputStream transcript) throws IOException {
         int status = getClient().executeMethod(request);
         return parseDetailedResponse(status,
                 request.getStatusText(),
                 request.getResponseBodyAsStream(),
                 request.getResponseCharSet(),
-                listener);
+                listener,
+                getProgressErrorPolicy(),
+                transcript);
     }
 
     private ListResponse executeListRequest(final HttpMethodBase request) throws IOException {
@@ -162,12 +173,47 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
                 request.getResponseCharSet());
     }
 
-    private DownloadResponse executeDownloadRequest(final HttpMethodBase request, final File outputFile) throws IOException {
+    private int executeListRequest(final HttpMethodBase request, final ListResultListener listener) throws IOException {
+        int status = getClient().executeMethod(request);
+        return parseListResponse(status,
+                request.getStatusText(),
+                request.getResponseBodyAsStream(),
+                request.getResponseCharSet(),
+                listener);
+    }
+
+    private DownloadResponse executeDownloadRequest(final HttpMethodBase request, final File outputFile,
+                                                    final DownloadRequest downloadRequest) throws IOException {
+        if (downloadRequest != null) {
+            for (Map.Entry<String, String> header : downloadRequest.getHeaders().entrySet()) {
+                request.setRequestHeader(header.getKey(), header.getValue());
+            }
+        }
         int status = getClient().executeMethod(request);
+        InputStream body = request.getResponseBodyAsStream();
         return parseDownloadResponse(status,
                                      request.getStatusText(),
-                                     request.getResponseBodyAsStream(),
-                                     outputFile);
+                                     getDownloadHeaders(request),
+                                     body != null ? body : new ByteArrayInputStream(new byte[0]),
+                                     outputFile,
+                                     downloadRequest,
+                                     getDownloadBufferSize());
+    }
+
+    private static Map<String, String> getDownloadHeaders(final HttpMethodBase request) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (String name : DOWNLOAD_RESPONSE_HEADERS) {
+            Header header = request.getResponseHeader(name);
+            if (header != null) {
+                headers.put(name, header.getValue());
+            }
+        }
+        return headers;
+    }
+
+    @Override
+    protected boolean isConcurrentRequestSupported() {
+        return getClient().getHttpConnectionManager() instanceof MultiThreadedHttpConnectionManager;
     }
 
     @Override
@@ -175,6 +221,45 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
         return new Http3ResponseBuilder();
     }
 
+    /**
+     * A {@link FilePart} that is read once from a stream. A negative length makes the {@link MultipartRequestEntity}
+     * length unknown, so that the request is sent with chunked transfer encoding.
+     */
+    static final class StreamPart extends FilePart {
+        StreamPart(String name, PartSource partSource, String contentType) {
+            super(name, partSource, contentType, null);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+    }
+
+    static final class StreamPartSource implements PartSource {
+        private final String fileName;
+        private final InputStream stream;
+        private final long length;
+
+        StreamPartSource(String fileName, InputStream stream, long length) {
+            this.fileName = fileName;
+            this.stream = stream;
+            this.length = length;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public InputStream createInputStream() {
+            return stream;
+        }
+    }
+
     class Http3ResponseBuilder extends ResponseBuilder {
 
         private PackId packId;
@@ -209,6 +294,13 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
             return this;
         }
 
+        @Override
+        public ResponseBuilder withParam(String name, String fileName, InputStream value, long length,
+                                         String mimeType) throws IOException {
+            this.fileParams.put(name, new StreamPart(name, new StreamPartSource(fileName, value, length), mimeType));
+            return this;
+        }
+
         @Override
         public SimpleResponse getSimpleResponse() throws Exception {
             PostMethod request = new PostMethod(getJsonUrl(this.packId));
@@ -234,7 +326,8 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
         }
 
         @Override
-        public DetailedResponse getDetailedResponse(final ResponseProgressListener listener) throws Exception {
+        public DetailedResponse getDetailedResponse(final ResponseProgressListener listener,
+                                                    final OutputStream transcript) throws Exception {
             PostMethod request = new PostMethod(getHtmlUrl(this.packId));
 
             List<Part> parts = new ArrayList<Part>();
@@ -251,16 +344,14 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
                     request.getParams()));
 
             try {
-                return executeDetailedRequest(request, listener);
+                return executeDetailedRequest(request, listener, transcript);
             } finally {
                 request.releaseConnection();
             }
 
         }
 
-        @Override
-        protected ListResponse getListResponse() throws Exception {
-
+        private String buildQueryString() throws IOException {
             StringBuilder qs = new StringBuilder();
 
             qs.append("?");
@@ -275,7 +366,12 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
                         .append(URLEncoder.encode(pair.getValue(), "utf-8")).append("&");
             }
 
-            GetMethod request = new GetMethod(getListUrl() + qs.substring(0, qs.length() - 1));
+            return qs.substring(0, qs.length() - 1);
+        }
+
+        @Override
+        protected ListResponse getListResponse() throws Exception {
+            GetMethod request = new GetMethod(getListUrl() + buildQueryString());
 
             try {
                 return executeListRequest(request);
@@ -285,25 +381,23 @@ public final class Http3PackageManagerClient extends AbstractPackageManagerClien
         }
 
         @Override
-        protected DownloadResponse getDownloadResponse(File outputFile) throws Exception {
-            StringBuilder qs = new StringBuilder();
+        protected int getListResponse(ListResultListener listener) throws Exception {
+            GetMethod request = new GetMethod(getListUrl() + buildQueryString());
 
-            qs.append("?");
-            if (packId != null) {
-                qs.append(KEY_PATH).append("=").append(
-                        URLEncoder.encode(packId.getInstallationPath() + ".zip", "utf-8")
-                );
-                qs.append("&");
-            }
-            for (NameValuePair pair : this.stringParams.values()) {
-                qs.append(URLEncoder.encode(pair.getName(), "utf-8")).append("=")
-                        .append(URLEncoder.encode(pair.getValue(), "utf-8")).append("&");
+            try {
+                return executeListRequest(request, listener);
+            } finally {
+                request.releaseConnection();
             }
+        }
 
-            GetMethod request = new GetMethod(getDownloadUrl() + qs.substring(0, qs.length() - 1));
+        @Override
+        protected DownloadResponse getDownloadResponse(File outputFile, DownloadRequest downloadRequest)
+                throws Exception {
+            GetMethod request = new GetMethod(getDownloadUrl() + buildQueryString());
 
             try {
-                return executeDownloadRequest(request, outputFile);
+                return executeDownloadRequest(request, outputFile, downloadRequest);
             } finally {
                 request.releaseConnection();
             }
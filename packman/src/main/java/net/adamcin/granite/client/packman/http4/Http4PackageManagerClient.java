@@ -31,11 +31,13 @@ import net.adamcin.granite.client.packman.AbstractPackageManagerClient;
 import net.adamcin.granite.client.packman.DetailedResponse;
 import net.adamcin.granite.client.packman.DownloadResponse;
 import net.adamcin.granite.client.packman.ListResponse;
+import net.adamcin.granite.client.packman.ListResultListener;
 import net.adamcin.granite.client.packman.PackId;
 import net.adamcin.granite.client.packman.ResponseProgressListener;
 import net.adamcin.granite.client.packman.SimpleResponse;
 import net.adamcin.granite.client.packman.UnauthorizedException;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
@@ -45,25 +47,40 @@ import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public final class Http4PackageManagerClient extends AbstractPackageManagerClient {
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 32;
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 60000L;
+
     private static final ResponseHandler<SimpleResponse> SIMPLE_RESPONSE_HANDLER =
             new ResponseHandler<SimpleResponse>() {
                 public SimpleResponse handleResponse(final HttpResponse response)
@@ -91,21 +108,48 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
                 }
             };
 
+    private static class ListResultHandler implements ResponseHandler<Integer> {
+        private final ListResultListener listener;
+
+        private ListResultHandler(ListResultListener listener) {
+            this.listener = listener;
+        }
+
+        public Integer handleResponse(final HttpResponse response)
+                throws ClientProtocolException, IOException {
+            StatusLine statusLine = response.getStatusLine();
+            return parseListResponse(
+                    statusLine.getStatusCode(),
+                    statusLine.getReasonPhrase(),
+                    response.getEntity().getContent(),
+                    getResponseEncoding(response),
+                    this.listener);
+        }
+    }
+
     private static class DownloadResponseHandler implements ResponseHandler<DownloadResponse> {
         private final File outputFile;
+        private final DownloadRequest request;
+        private final int bufferSize;
 
-        private DownloadResponseHandler(File outputFile) {
+        private DownloadResponseHandler(File outputFile, DownloadRequest request, int bufferSize) {
             this.outputFile = outputFile;
+            this.request = request;
+            this.bufferSize = bufferSize;
         }
 
         public DownloadResponse handleResponse(final HttpResponse response)
                 throws ClientProtocolException, IOException {
             StatusLine statusLine = response.getStatusLine();
+            HttpEntity entity = response.getEntity();
             return parseDownloadResponse(
                     statusLine.getStatusCode(),
                     statusLine.getReasonPhrase(),
-                    response.getEntity().getContent(),
-                    this.outputFile);
+                    getDownloadHeaders(response),
+                    entity != null ? entity.getContent() : new ByteArrayInputStream(new byte[0]),
+                    this.outputFile,
+                    this.request,
+                    this.bufferSize);
         }
     }
 
@@ -122,14 +166,64 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
             };
 
     private final AbstractHttpClient client;
-    private HttpContext httpContext = new BasicHttpContext();
+    private final IdleConnectionEvictor evictor;
+    private volatile HttpContext httpContext = new BasicHttpContext();
 
     public Http4PackageManagerClient() {
         this(new DefaultHttpClient());
     }
 
     public Http4PackageManagerClient(AbstractHttpClient client) {
+        this(client, 0L);
+    }
+
+    private Http4PackageManagerClient(AbstractHttpClient client, long idleConnectionTimeout) {
         this.client = client;
+        if (idleConnectionTimeout > 0L) {
+            this.evictor = new IdleConnectionEvictor(client.getConnectionManager(), idleConnectionTimeout);
+            this.evictor.start();
+        } else {
+            this.evictor = null;
+        }
+    }
+
+    /**
+     * Creates a client which may be used by several threads at once, with the default connection limits.
+     * @see #createConcurrentClient(int, int, long)
+     */
+    public static Http4PackageManagerClient createConcurrentClient() {
+        return createConcurrentClient(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE,
+                DEFAULT_IDLE_CONNECTION_TIMEOUT);
+    }
+
+    /**
+     * Creates a client which may be used by several threads at once. Requests share a pool of connections and a
+     * synchronized cookie store, so that a single login serves every thread, while each request is executed in its
+     * own {@link HttpContext}, which inherits the attributes of {@link #getHttpContext()}.
+     * @param maxConnections the maximum number of connections to all servers
+     * @param maxConnectionsPerRoute the maximum number of connections to one server
+     * @param idleConnectionTimeout the number of milliseconds after which an idle connection is closed, or 0 to keep
+     *                              idle connections open until the server closes them
+     * @return a client which should be {@link #shutdown() shut down} when it is no longer needed
+     */
+    public static Http4PackageManagerClient createConcurrentClient(int maxConnections, int maxConnectionsPerRoute,
+                                                                   long idleConnectionTimeout) {
+        ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        DefaultHttpClient client = new DefaultHttpClient(connectionManager);
+        client.setCookieStore(new BasicCookieStore());
+        return new Http4PackageManagerClient(client, idleConnectionTimeout);
+    }
+
+    /**
+     * Stops closing idle connections, and closes every connection of the underlying client
+     */
+    public void shutdown() {
+        if (evictor != null) {
+            evictor.interrupt();
+        }
+        client.getConnectionManager().shutdown();
     }
 
     public AbstractHttpClient getClient() {
@@ -144,6 +238,25 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
         this.httpContext = httpContext;
     }
 
+    /**
+     * @return the context of a single request, which is the shared context unless requests may be concurrent, so that
+     * concurrent requests do not overwrite the attributes that each sets while executing
+     */
+    private HttpContext newRequestContext() {
+        return isConcurrentRequestSupported() ? new BasicHttpContext(getHttpContext()) : getHttpContext();
+    }
+
+    private static Map<String, String> getDownloadHeaders(HttpResponse response) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (String name : DOWNLOAD_RESPONSE_HEADERS) {
+            Header header = response.getFirstHeader(name);
+            if (header != null) {
+                headers.put(name, header.getValue());
+            }
+        }
+        return headers;
+    }
+
     private static String getResponseEncoding(HttpResponse response) {
         Header encoding = response.getFirstHeader("Content-Encoding");
 
@@ -177,7 +290,7 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
         request.setEntity(entity);
 
         try {
-            HttpResponse response = getClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, getHttpContext());
+            HttpResponse response = getClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, newRequestContext());
             if (response.getStatusLine().getStatusCode() == 405) {
                 // if 405 Method not allowed, fallback to legacy login
                 return loginLegacy(username, password);
@@ -204,7 +317,7 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
         request.setEntity(entity);
 
         try {
-            HttpResponse response = getClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, getHttpContext());
+            HttpResponse response = getClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, newRequestContext());
             return response.getStatusLine().getStatusCode() == 200;
 
         } catch (Exception e) {
@@ -223,7 +336,7 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
         }
 
         try {
-            HttpResponse response = getClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, getHttpContext());
+            HttpResponse response = getClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, newRequestContext());
             return right(Exception.class, response.getStatusLine().getStatusCode() == 405);
         } catch (Exception e) {
             return left(e, Boolean.class);
@@ -231,10 +344,12 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
     }
 
     private SimpleResponse executeSimpleRequest(HttpUriRequest request) throws Exception {
-        return getClient().execute(request, SIMPLE_RESPONSE_HANDLER, getHttpContext());
+        return getClient().execute(request, SIMPLE_RESPONSE_HANDLER, newRequestContext());
     }
 
-    private DetailedResponse executeDetailedRequest(final HttpUriRequest request, final ResponseProgressListener listener) throws Exception {
+    private DetailedResponse executeDetailedRequest(final HttpUriRequest request,
+                                                    final ResponseProgressListener listener,
+                                                    final OutputStream transcript) throws Exception {
         return getClient().execute(request, new ResponseHandler<DetailedResponse>() {
                 public DetailedResponse handleResponse(final HttpResponse response)
                         throws ClientProtocolException, IOException {
@@ -244,17 +359,30 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
                             statusLine.getReasonPhrase(),
                             response.getEntity().getContent(),
                             getResponseEncoding(response),
-                            listener);
+                            listener,
+                            getProgressErrorPolicy(),
+                            transcript);
                 }
-            }, getHttpContext());
+            }, newRequestContext());
     }
 
     private ListResponse executeListRequest(HttpUriRequest request) throws Exception {
-        return getClient().execute(request, LIST_RESPONSE_HANDLER, getHttpContext());
+        return getClient().execute(request, LIST_RESPONSE_HANDLER, newRequestContext());
     }
 
-    private DownloadResponse executeDownloadRequest(HttpUriRequest request, File outputFile) throws Exception {
-        return getClient().execute(request, new DownloadResponseHandler(outputFile), getHttpContext());
+    private int executeListRequest(HttpUriRequest request, ListResultListener listener) throws Exception {
+        return getClient().execute(request, new ListResultHandler(listener), newRequestContext());
+    }
+
+    private DownloadResponse executeDownloadRequest(HttpUriRequest request, File outputFile,
+                                                    DownloadRequest downloadRequest) throws Exception {
+        return getClient().execute(request,
+                new DownloadResponseHandler(outputFile, downloadRequest, getDownloadBufferSize()), newRequestContext());
+    }
+
+    @Override
+    protected boolean isConcurrentRequestSupported() {
+        return getClient().getConnectionManager() instanceof ThreadSafeClientConnManager;
     }
 
     @Override
@@ -262,11 +390,84 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
         return new Http4ResponseBuilder();
     }
 
+    /**
+     * An {@link InputStreamBody} of known length, so that the {@link MultipartEntity} can declare its
+     * {@code Content-Length}. A negative length makes the entity chunked.
+     */
+    static final class StreamBody extends InputStreamBody {
+        private final long length;
+
+        StreamBody(InputStream in, String mimeType, String fileName, long length) {
+            super(in, mimeType, fileName);
+            this.length = length;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Keeps a request with a stream body from being retried after the stream has been read, and sends it with a
+     * {@code Content-Length} whenever the length is known.
+     */
+    static final class StreamEntity extends HttpEntityWrapper {
+        StreamEntity(HttpEntity wrapped) {
+            super(wrapped);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public boolean isChunked() {
+            return getContentLength() < 0L;
+        }
+    }
+
+    /**
+     * Periodically closes expired connections, and connections which have been idle for longer than the timeout,
+     * until it is interrupted or the connection manager is no longer referenced by its client.
+     */
+    static final class IdleConnectionEvictor extends Thread {
+        private final WeakReference<ClientConnectionManager> connectionManager;
+        private final long idleConnectionTimeout;
+
+        IdleConnectionEvictor(ClientConnectionManager connectionManager, long idleConnectionTimeout) {
+            super("Http4IdleConnectionEvictor");
+            this.connectionManager = new WeakReference<ClientConnectionManager>(connectionManager);
+            this.idleConnectionTimeout = idleConnectionTimeout;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            final long interval = Math.max(1L, Math.min(idleConnectionTimeout / 2L, 5000L));
+            try {
+                while (!isInterrupted()) {
+                    Thread.sleep(interval);
+                    ClientConnectionManager manager = connectionManager.get();
+                    if (manager == null) {
+                        return;
+                    }
+                    manager.closeExpiredConnections();
+                    manager.closeIdleConnections(idleConnectionTimeout, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                // shut down
+            }
+        }
+    }
+
     class Http4ResponseBuilder extends ResponseBuilder {
 
         private PackId packId;
         private Map<String, BasicNameValuePair> stringParams = new HashMap<String, BasicNameValuePair>();
-        private Map<String, FileBody> fileParams = new HashMap<String, FileBody>();
+        private Map<String, ContentBody> fileParams = new HashMap<String, ContentBody>();
+        private boolean repeatable = true;
 
         @Override
         public ResponseBuilder forPackId(final PackId packId) {
@@ -296,6 +497,14 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
             return this;
         }
 
+        @Override
+        public ResponseBuilder withParam(String name, String fileName, InputStream value, long length,
+                                         String mimeType) throws IOException {
+            this.fileParams.put(name, new StreamBody(value, mimeType, fileName, length));
+            this.repeatable = false;
+            return this;
+        }
+
         @Override
         public SimpleResponse getSimpleResponse() throws Exception {
             HttpPost request = new HttpPost(getJsonUrl(this.packId));
@@ -306,17 +515,18 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
                 entity.addPart(param.getName(), new StringBody(param.getValue()));
             }
 
-            for (Map.Entry<String, FileBody> param : this.fileParams.entrySet()) {
+            for (Map.Entry<String, ContentBody> param : this.fileParams.entrySet()) {
                 entity.addPart(param.getKey(), param.getValue());
             }
 
-            request.setEntity(entity);
+            request.setEntity(repeatable ? entity : new StreamEntity(entity));
 
             return executeSimpleRequest(request);
         }
 
         @Override
-        public DetailedResponse getDetailedResponse(final ResponseProgressListener listener) throws Exception {
+        public DetailedResponse getDetailedResponse(final ResponseProgressListener listener,
+                                                    final OutputStream transcript) throws Exception {
             HttpPost request = new HttpPost(getHtmlUrl(this.packId));
 
             MultipartEntity entity = new MultipartEntity();
@@ -325,17 +535,16 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
                 entity.addPart(param.getName(), new StringBody(param.getValue()));
             }
 
-            for (Map.Entry<String, FileBody> param : this.fileParams.entrySet()) {
+            for (Map.Entry<String, ContentBody> param : this.fileParams.entrySet()) {
                 entity.addPart(param.getKey(), param.getValue());
             }
 
-            request.setEntity(entity);
+            request.setEntity(repeatable ? entity : new StreamEntity(entity));
 
-            return executeDetailedRequest(request, listener);
+            return executeDetailedRequest(request, listener, transcript);
         }
 
-        @Override
-        protected ListResponse getListResponse() throws Exception {
+        private String buildQueryString() throws IOException {
             StringBuilder qs = new StringBuilder();
 
             qs.append("?");
@@ -350,30 +559,34 @@ public final class Http4PackageManagerClient extends AbstractPackageManagerClien
                         .append(URLEncoder.encode(pair.getValue(), "utf-8")).append("&");
             }
 
-            HttpGet request = new HttpGet(getListUrl() + qs.substring(0, qs.length() - 1));
+            return qs.substring(0, qs.length() - 1);
+        }
+
+        @Override
+        protected ListResponse getListResponse() throws Exception {
+            HttpGet request = new HttpGet(getListUrl() + buildQueryString());
 
             return executeListRequest(request);
         }
 
         @Override
-        protected DownloadResponse getDownloadResponse(File outputFile) throws Exception {
-            StringBuilder qs = new StringBuilder();
+        protected int getListResponse(ListResultListener listener) throws Exception {
+            HttpGet request = new HttpGet(getListUrl() + buildQueryString());
 
-            qs.append("?");
-            if (packId != null) {
-                qs.append(KEY_PATH).append("=").append(
-                        URLEncoder.encode(packId.getInstallationPath() + ".zip", "utf-8")
-                );
-                qs.append("&");
-            }
-            for (NameValuePair pair : this.stringParams.values()) {
-                qs.append(URLEncoder.encode(pair.getName(), "utf-8")).append("=")
-                        .append(URLEncoder.encode(pair.getValue(), "utf-8")).append("&");
-            }
+            return executeListRequest(request, listener);
+        }
 
-            HttpGet request = new HttpGet(getDownloadUrl() + qs.substring(0, qs.length() - 1));
+        @Override
+        protected DownloadResponse getDownloadResponse(File outputFile, DownloadRequest downloadRequest)
+                throws Exception {
+            HttpGet request = new HttpGet(getDownloadUrl() + buildQueryString());
+            if (downloadRequest != null) {
+                for (Map.Entry<String, String> header : downloadRequest.getHeaders().entrySet()) {
+                    request.setHeader(header.getKey(), header.getValue());
+                }
+            }
 
-            return executeDownloadRequest(request, outputFile);
+            return executeDownloadRequest(request, outputFile, downloadRequest);
         }
     }
 }
@@ -28,16 +28,19 @@
 package net.adamcin.granite.client.packman;
 
 import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import static org.junit.Assert.*;
 
@@ -176,6 +179,39 @@ public abstract class AbstractPackageManagerClientITBase {
         });
     }
 
+    @Test
+    public void testUploadStream() {
+        TestBody.test(new PackmgrClientTestBody() {
+            @Override protected void execute() throws Exception {
+                client.login("admin", "admin");
+                File file = new File("target/test-packmgr-client-1.0.zip");
+
+                generateTestPackage(file);
+
+                PackId id = client.identify(file);
+                if (client.existsOnServer(id)) {
+                    LOGGER.info("deleting: {}", client.delete(id));
+                }
+
+                LOGGER.info("uploading with length: {}",
+                        client.upload(new FileInputStream(file), file.length(), true, id));
+                assertTrue("package should exist on server", client.existsOnServer(id));
+                LOGGER.info("deleting: {}", client.delete(id));
+
+                LOGGER.info("uploading chunked: {}", client.upload(new FileInputStream(file), -1L, true, id));
+                assertTrue("package should exist on server", client.existsOnServer(id));
+                LOGGER.info("deleting: {}", client.delete(id));
+
+                ByteBuffer buffer = ByteBuffer.wrap(FileUtils.readFileToByteArray(file));
+                LOGGER.info("uploading buffer: {}", client.upload(buffer, true, id));
+                assertTrue("package should exist on server", client.existsOnServer(id));
+                LOGGER.info("deleting: {}", client.delete(id));
+
+                assertFalse("package should not exist on server", client.existsOnServer(id));
+            }
+        });
+    }
+
     abstract class PackmgrClientTestBody extends TestBody {
         AbstractPackageManagerClient client = getClientImplementation();
     }
@@ -0,0 +1,136 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BandwidthLimiterTest {
+    static final long RATE = 8L * 1048576L;
+    static final long BURST = 65536L;
+
+    @Test
+    public void testSharedBudget() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final BandwidthLimiter limiter = new BandwidthLimiter(RATE, BURST);
+                final long perThread = RATE / 8L;
+                List<Thread> threads = new ArrayList<Thread>();
+                for (int i = 0; i < 4; i++) {
+                    threads.add(new Thread() {
+                        @Override public void run() {
+                            try {
+                                for (long sent = 0L; sent < perThread; sent += 8192L) {
+                                    limiter.acquire(8192L);
+                                }
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+                }
+
+                final long start = System.nanoTime();
+                for (Thread thread : threads) {
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                assertRate(4L * perThread, System.nanoTime() - start);
+            }
+        });
+    }
+
+    @Test
+    public void testReserve() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final BandwidthLimiter limiter = new BandwidthLimiter(RATE, BURST);
+                final long start = System.nanoTime();
+                assertEquals("burst is free", 0L, limiter.reserve(BURST / 2L));
+                final long wait = limiter.reserve(BURST / 2L + RATE / 2L);
+                assertTrue("reserve does not sleep", System.nanoTime() - start < 100000000L);
+                assertTrue("debt of half a second: " + wait, wait > 450000000L && wait <= 500000000L);
+
+                limiter.acquire(1L);
+                assertTrue("next chunk waits behind the debt", System.nanoTime() - start >= wait);
+            }
+        });
+    }
+
+    @Test
+    public void testThrottledDownload() {
+        TestBody.test(new RangeDownloadTest.DownloadTestBody() {
+            @Override protected void execute() throws Exception {
+                RangeDownloadTest.RangeClient client =
+                        new RangeDownloadTest.RangeClient(RangeDownloadTest.content(3 * 1048576), true);
+                client.setBandwidthLimiter(new BandwidthLimiter(RATE, BURST));
+                client.setDownloadSegments(2);
+
+                final long start = System.nanoTime();
+                client.download(RangeDownloadTest.PACK_ID, toFile);
+                assertRate(client.content.length, System.nanoTime() - start);
+                assertTrue("content", Arrays.equals(client.content, FileUtils.readFileToByteArray(toFile)));
+            }
+        });
+    }
+
+    @Test
+    public void testThrottledUpload() {
+        TestBody.test(new UploadManifestTest.ManifestTestBody() {
+            @Override protected void execute() throws Exception {
+                UploadManifestTest.UploadClient client = new UploadManifestTest.UploadClient();
+                client.setBandwidthLimiter(new BandwidthLimiter(RATE, BURST));
+                FileUtils.writeByteArrayToFile(packageFile, RangeDownloadTest.content(2 * 1048576));
+
+                final long start = System.nanoTime();
+                assertTrue("upload succeeds", client.upload(packageFile, true, UploadManifestTest.PACK_ID).isSuccess());
+                assertRate(packageFile.length(), System.nanoTime() - start);
+            }
+        });
+    }
+
+    /**
+     * The first burst is free, and the rest may not be faster than the rate. Scheduling delays may only make it
+     * slower, so the upper bound is looser.
+     */
+    static void assertRate(long bytes, long nanos) {
+        final double expected = (bytes - BURST) * 1.0e9 / RATE;
+        assertTrue("at most the rate: " + nanos + "ns for " + bytes + " bytes", nanos >= expected * 0.97);
+        assertTrue("close to the rate: " + nanos + "ns for " + bytes + " bytes", nanos <= expected * 1.25 + 5.0e7);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class BufferedResponseProgressListenerTest {
+
+    @Test
+    public void testBlock() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+                BufferedResponseProgressListener listener = new BufferedResponseProgressListener(
+                        new RecordingListener(events, null), 4, BufferedResponseProgressListener.OverflowPolicy.BLOCK);
+
+                List<String> expected = new ArrayList<String>();
+                listener.onStart("install");
+                expected.add("start:install");
+                for (int i = 0; i < 1000; i++) {
+                    listener.onProgress("A", "/content/node-" + i);
+                    expected.add("progress:A:/content/node-" + i);
+                }
+                listener.onError("/content/node", "(denied)");
+                expected.add("error:/content/node:(denied)");
+                listener.close();
+
+                assertEquals("all events are delivered in order", expected, events);
+                assertEquals("no events are dropped", 0L, listener.getDroppedCount());
+                assertEquals("delivered count", 1002L, listener.getDeliveredCount());
+                assertTrue("queue depth is bounded", listener.getMaxQueueDepth() <= 4L);
+                assertEquals("queue is empty", 0, listener.getQueueDepth());
+            }
+        });
+    }
+
+    @Test
+    public void testDropOldest() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+                final CountDownLatch release = new CountDownLatch(1);
+                BufferedResponseProgressListener listener = new BufferedResponseProgressListener(
+                        new RecordingListener(events, release), 8,
+                        BufferedResponseProgressListener.OverflowPolicy.DROP_OLDEST);
+
+                for (int i = 0; i < 100; i++) {
+                    listener.onProgress("A", "/content/node-" + i);
+                }
+                release.countDown();
+                listener.close();
+
+                assertEquals("published count", 100L, listener.getPublishedCount());
+                assertEquals("every event is delivered or dropped", 100L,
+                        listener.getDeliveredCount() + listener.getDroppedCount());
+                assertTrue("events are dropped", listener.getDroppedCount() > 0L);
+                assertEquals("the newest event is delivered last", "progress:A:/content/node-99",
+                        events.get(events.size() - 1));
+            }
+        });
+    }
+
+    @Test
+    public void testCoalesce() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+                final CountDownLatch release = new CountDownLatch(1);
+                final BufferedResponseProgressListener listener = new BufferedResponseProgressListener(
+                        new RecordingListener(events, release), 8,
+                        BufferedResponseProgressListener.OverflowPolicy.COALESCE);
+
+                Thread producer = new Thread() {
+                    @Override public void run() {
+                        for (int i = 0; i < 100; i++) {
+                            listener.onProgress("A", "/content/node-" + i);
+                            if (i % 10 == 9) {
+                                listener.onError("/content/node-" + i, "(denied)");
+                            }
+                        }
+                        listener.onProgress("U", "/content/last");
+                    }
+                };
+                producer.start();
+                Thread.sleep(100L);
+                release.countDown();
+                producer.join();
+                listener.close();
+
+                int errors = 0;
+                int lastError = -1;
+                int lastProgress = -1;
+                for (int i = 0; i < events.size(); i++) {
+                    if (events.get(i).startsWith("error:")) {
+                        errors++;
+                        lastError = i;
+                    } else {
+                        lastProgress = i;
+                    }
+                }
+
+                assertEquals("errors are never coalesced", 10, errors);
+                assertTrue("progress events are coalesced", listener.getDroppedCount() > 0L);
+                assertEquals("every event is delivered or dropped", 111L,
+                        listener.getDeliveredCount() + listener.getDroppedCount());
+                assertTrue("order is preserved", lastProgress > lastError);
+                assertEquals("the newest event is delivered last", "progress:U:/content/last",
+                        events.get(events.size() - 1));
+            }
+        });
+    }
+
+    @Test
+    public void testIdleConsumerWakes() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+                BufferedResponseProgressListener listener = new BufferedResponseProgressListener(
+                        new RecordingListener(events, null));
+                for (int i = 0; i < 5; i++) {
+                    // give the consumer time to park before each event
+                    Thread.sleep(20L);
+                    listener.onProgress("A", "/content/node-" + i);
+                    final long stop = System.currentTimeMillis() + 5000L;
+                    while (events.size() <= i && System.currentTimeMillis() < stop) {
+                        Thread.sleep(1L);
+                    }
+                    assertEquals("event delivered while open", i + 1, events.size());
+                }
+                listener.close();
+            }
+        });
+    }
+
+    @Test
+    public void testPublishDuringClose() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+                final BufferedResponseProgressListener listener = new BufferedResponseProgressListener(
+                        new RecordingListener(events, null), 4, BufferedResponseProgressListener.OverflowPolicy.BLOCK);
+                final int perThread = 2000;
+                Thread[] producers = new Thread[4];
+                for (int t = 0; t < producers.length; t++) {
+                    final int producer = t;
+                    producers[t] = new Thread() {
+                        @Override public void run() {
+                            for (int i = 0; i < perThread; i++) {
+                                listener.onProgress("A", "/content/node-" + producer + "-" + i);
+                            }
+                        }
+                    };
+                    producers[t].start();
+                }
+                listener.close();
+                for (Thread producer : producers) {
+                    producer.join();
+                }
+
+                final long published = producers.length * perThread;
+                assertEquals("published count", published, listener.getPublishedCount());
+                assertEquals("events published around close are delivered", published, events.size());
+                assertEquals("delivered count", published, listener.getDeliveredCount());
+                assertEquals("queue is empty", 0, listener.getQueueDepth());
+            }
+        });
+    }
+
+    static class RecordingListener extends DefaultResponseProgressListener {
+        final List<String> events;
+        final CountDownLatch release;
+
+        RecordingListener(List<String> events, CountDownLatch release) {
+            this.events = events;
+            this.release = release;
+        }
+
+        private void await() {
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override public void onStart(String title) {
+            await();
+            events.add("start:" + title);
+        }
+
+        @Override public void onProgress(String action, String path) {
+            await();
+            events.add("progress:" + action + ":" + path);
+        }
+
+        @Override public void onError(String path, String error) {
+            await();
+            events.add("error:" + path + ":" + error);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class DetailedResponseParserTest {
+
+    final String INSTALL_SUCCESS = "/install_success.html";
+    final String INSTALL_SUCCESS_WITH_ERRORS = "/install_success_with_errors.html";
+    final String INSTALL_FAILURE = "/install_failure.html";
+
+    @Test
+    public void testChunkBoundaries() {
+        for (final String resource : new String[]{INSTALL_SUCCESS, INSTALL_SUCCESS_WITH_ERRORS, INSTALL_FAILURE}) {
+            TestBody.test(new TestBody() {
+                @Override protected void execute() throws Exception {
+                    String body = readResource(resource);
+
+                    RecordingListener expectedEvents = new RecordingListener();
+                    DetailedResponse expected = DetailedResponseParser.parse(new StringReader(body), expectedEvents);
+
+                    for (String lineSep : new String[]{"\n", "\r\n", "\r"}) {
+                        char[] chars = body.replace("\r\n", "\n").replace("\n", lineSep).toCharArray();
+                        for (int chunkSize : new int[]{1, 7, 256}) {
+                            RecordingListener events = new RecordingListener();
+                            DetailedResponseParser parser = new DetailedResponseParser(events);
+                            for (int i = 0; i < chars.length && !parser.isComplete(); i += chunkSize) {
+                                parser.write(chars, i, Math.min(chunkSize, chars.length - i));
+                            }
+                            DetailedResponse response = parser.finish();
+
+                            String context = resource + " lineSep=" + lineSep.length() + " chunkSize=" + chunkSize;
+                            assertEquals(context + " events", expectedEvents.events, events.events);
+                            assertEquals(context + " success", expected.isSuccess(), response.isSuccess());
+                            assertEquals(context + " message", expected.getMessage(), response.getMessage());
+                            assertEquals(context + " duration", expected.getDuration(), response.getDuration());
+                            assertEquals(context + " progressErrors", expected.getProgressErrors(), response.getProgressErrors());
+                            assertEquals(context + " stackTrace", expected.getStackTrace(), response.getStackTrace());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testMessages() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                String body = "<body><h2>Installing content</h2><div><span class=\"Importing content...\"><b>Importing content...</b>&nbsp;</span><br>\n" +
+                        "first log<br>last log<br>\n" +
+                        "<span class=\"A\"><b>A</b>&nbsp;/content/a</span><br>\n" +
+                        "<span class=\"U\"><b>U</b>&nbsp;/content/b (ignored)</span><br>\n" +
+                        "<span class=\"E\"><b>E</b>&nbsp;/content/c (line one\n" +
+                        "line two)</span><br>\n" +
+                        "</div><br>Package installed in 12ms.<br>\n";
+
+                RecordingListener events = new RecordingListener();
+                DetailedResponse response = DetailedResponseParser.parse(new StringReader(body), events);
+
+                List<String> expected = new ArrayList<String>();
+                expected.add("start:Installing content");
+                expected.add("message:Importing content...");
+                expected.add("log:last log");
+                expected.add("progress:A:/content/a");
+                expected.add("progress:U:/content/b");
+                expected.add("error:/content/c:line one\r\nline two");
+
+                assertEquals("events are correct", expected, events.events);
+                assertTrue("parses as success", response.isSuccess());
+                assertEquals("message is correct", "Package installed", response.getMessage());
+                assertEquals("duration is correct", 12L, response.getDuration());
+                assertEquals("one progress error", 1, response.getProgressErrors().size());
+            }
+        });
+    }
+
+    @Test
+    public void testByteChunkBoundaries() {
+        final String unicode = "<body><h2>Installing content</h2><div>\n" +
+                "<span class=\"A\"><b>A</b>&nbsp;/content/\u00fcber/\u6f22\u5b57/\ud834\udd1e</span><br>\n" +
+                "<span class=\"E\"><b>E</b>&nbsp;/content/caf\u00e9 (\u00e9chec)</span><br>\n" +
+                "</div><br>Package installed in 5ms.<br>\n";
+        final String latin = "<body><h2>Installing content</h2><div>\n" +
+                "<span class=\"A\"><b>A</b>&nbsp;/content/\u00fcber</span><br>\n" +
+                "<span class=\"\u00e9\"><b>\u00e9</b>&nbsp;/content/caf\u00e9</span><br>\n" +
+                "<span class=\"E\"><b>E</b>&nbsp;/content/caf\u00e9 (\u00e9chec)</span><br>\n" +
+                "</div><br>Package installed in 5ms.<br>\n";
+
+        for (final String[] pair : new String[][]{
+                {"UTF-8", unicode}, {"UTF-16", unicode}, {"GB18030", unicode},
+                {"ISO-8859-1", latin}, {"windows-1252", latin}}) {
+            TestBody.test(new TestBody() {
+                @Override protected void execute() throws Exception {
+                    final String charset = pair[0];
+                    final String body = pair[1];
+
+                    RecordingListener expectedEvents = new RecordingListener();
+                    DetailedResponse expected = DetailedResponseParser.parse(new StringReader(body), expectedEvents);
+                    assertTrue(charset + " path is decoded", expectedEvents.events.get(1).contains("/content/\u00fcber"));
+
+                    byte[] bytes = body.getBytes(charset);
+                    for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+                        RecordingListener events = new RecordingListener();
+                        AbstractPackageManagerClient.DetailedResponseBodyParser parser =
+                                AbstractPackageManagerClient.newDetailedResponseParser(200, "OK", charset, events);
+                        for (int i = 0; i < bytes.length; i += chunkSize) {
+                            parser.write(bytes, i, Math.min(chunkSize, bytes.length - i));
+                        }
+                        DetailedResponse response = parser.finish();
+
+                        String context = charset + " chunkSize=" + chunkSize;
+                        assertEquals(context + " events", expectedEvents.events, events.events);
+                        assertEquals(context + " message", expected.getMessage(), response.getMessage());
+                        assertEquals(context + " progressErrors",
+                                expected.getProgressErrors(), response.getProgressErrors());
+                    }
+
+                    char[] chars = body.toCharArray();
+                    RecordingListener events = new RecordingListener();
+                    DetailedResponseParser parser = new DetailedResponseParser(events);
+                    for (char c : chars) {
+                        parser.write(new char[]{c}, 0, 1);
+                    }
+                    parser.finish();
+                    assertEquals(charset + " single chars", expectedEvents.events, events.events);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testBoundedProgressErrors() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                StringBuilder body = new StringBuilder("<body><h2>Installing content</h2><div>\n");
+                for (int i = 0; i < 1000; i++) {
+                    body.append("<span class=\"E\"><b>E</b>&nbsp;/content/").append(i % 4 == 0 ? "dam" : "site")
+                            .append("/node-").append(i).append(" (denied)</span><br>\n");
+                }
+                body.append("</div><br>Package installed in 5ms.<br>\n");
+
+                ProgressErrorPolicy policy = ProgressErrorPolicy.bounded(3, 2)
+                        .withSpill(new File(System.getProperty("java.io.tmpdir")));
+                DetailedResponseParser parser = new DetailedResponseParser(new RecordingListener(), policy);
+                char[] chars = body.toString().toCharArray();
+                parser.write(chars, 0, chars.length);
+                DetailedResponse response = parser.finish();
+
+                List<String> expected = new ArrayList<String>();
+                expected.add("/content/dam/node-0  (denied)");
+                expected.add("/content/site/node-1  (denied)");
+                expected.add("/content/site/node-2  (denied)");
+                expected.add("/content/site/node-998  (denied)");
+                expected.add("/content/site/node-999  (denied)");
+
+                assertTrue("hasErrors", response.hasErrors());
+                assertEquals("first and last errors are retained", expected, response.getProgressErrors());
+                assertEquals("all errors are counted", 1000L, response.getProgressErrorCount());
+                assertEquals("dam errors are counted", Long.valueOf(250L),
+                        response.getProgressErrorCountsByPrefix().get("/content/dam"));
+                assertEquals("site errors are counted", Long.valueOf(750L),
+                        response.getProgressErrorCountsByPrefix().get("/content/site"));
+
+                File spilled = response.getProgressErrorsFile();
+                assertNotNull("errors are spilled", spilled);
+                try {
+                    InputStream stream = new GZIPInputStream(new FileInputStream(spilled));
+                    List<String> lines = new ArrayList<String>();
+                    try {
+                        for (Object line : IOUtils.readLines(stream, "UTF-8")) {
+                            lines.add((String) line);
+                        }
+                    } finally {
+                        stream.close();
+                    }
+                    assertEquals("all errors are spilled", 1000, lines.size());
+                    assertEquals("spilled errors are in order", "/content/site/node-999  (denied)", lines.get(999));
+                } finally {
+                    spilled.delete();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testAbortDeletesSpill() {
+        TestBody.test(new TestBody() {
+            File spillDir;
+
+            @Override protected void execute() throws Exception {
+                spillDir = File.createTempFile("spill", "");
+                spillDir.delete();
+                spillDir.mkdirs();
+
+                StringBuilder body = new StringBuilder("<body><h2>Installing content</h2><div>\n");
+                for (int i = 0; i < 100; i++) {
+                    body.append("<span class=\"E\"><b>E</b>&nbsp;/content/node-").append(i)
+                            .append(" (denied)</span><br>\n");
+                }
+                final byte[] bytes = body.toString().getBytes("UTF-8");
+                InputStream reset = new InputStream() {
+                    int pos = 0;
+
+                    @Override public int read() throws IOException {
+                        if (pos == bytes.length) {
+                            throw new IOException("Connection reset");
+                        }
+                        return bytes[pos++] & 0xff;
+                    }
+                };
+
+                ProgressErrorPolicy policy = ProgressErrorPolicy.bounded(3, 2).withSpill(spillDir);
+                try {
+                    AbstractPackageManagerClient.parseDetailedResponse(200, "OK", reset, "UTF-8", null, policy, null);
+                    fail("body fails partway through");
+                } catch (IOException e) {
+                    assertEquals("Connection reset", e.getMessage());
+                }
+                assertEquals("spill file is deleted", 0, spillDir.list().length);
+            }
+
+            @Override protected void cleanUp() {
+                FileUtils.deleteQuietly(spillDir);
+            }
+        });
+    }
+
+    @Test
+    public void testTranscript() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                byte[] body = (readResource(INSTALL_SUCCESS_WITH_ERRORS) + "<!-- trailing markup -->\n").getBytes("UTF-8");
+
+                final boolean[] closed = new boolean[1];
+                ByteArrayOutputStream transcript = new ByteArrayOutputStream() {
+                    @Override public void close() {
+                        closed[0] = true;
+                    }
+                };
+                DetailedResponse response = AbstractPackageManagerClient.parseDetailedResponse(200, "OK",
+                        new ByteArrayInputStream(body), "UTF-8", null, ProgressErrorPolicy.UNBOUNDED, transcript);
+
+                assertTrue("parses as success", response.isSuccess());
+                assertFalse("transcript stream is left open", closed[0]);
+                assertArrayEquals("transcript contains the whole body", body, gunzip(transcript.toByteArray()));
+
+                ByteArrayOutputStream directTranscript = new ByteArrayOutputStream();
+                AbstractPackageManagerClient.DetailedResponseBodyParser parser =
+                        AbstractPackageManagerClient.newDetailedResponseParser(200, "OK", "UTF-16", null,
+                                ProgressErrorPolicy.UNBOUNDED, directTranscript);
+                byte[] utf16 = new String(body, "UTF-8").getBytes("UTF-16");
+                for (int i = 0; i < utf16.length; i += 1000) {
+                    ByteBuffer chunk = ByteBuffer.allocateDirect(Math.min(1000, utf16.length - i));
+                    chunk.put(utf16, i, chunk.capacity()).flip();
+                    parser.write(chunk);
+                }
+                assertEquals("direct buffers parse the same", response.getProgressErrors(),
+                        parser.finish().getProgressErrors());
+                assertArrayEquals("direct buffers are transcribed", utf16, gunzip(directTranscript.toByteArray()));
+            }
+        });
+    }
+
+    static byte[] gunzip(byte[] gzipped) throws Exception {
+        InputStream stream = new GZIPInputStream(new ByteArrayInputStream(gzipped));
+        try {
+            return IOUtils.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    static String readResource(String resource) throws Exception {
+        InputStream stream = null;
+        try {
+            stream = DetailedResponseParserTest.class.getResourceAsStream(resource);
+            return IOUtils.toString(stream, "UTF-8");
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    static class RecordingListener implements ResponseProgressListener {
+        final List<String> events = new ArrayList<String>();
+
+        public void onStart(String title) {
+            events.add("start:" + title);
+        }
+
+        public void onLog(String message) {
+            events.add("log:" + message);
+        }
+
+        public void onMessage(String message) {
+            events.add("message:" + message);
+        }
+
+        public void onProgress(String action, String path) {
+            events.add("progress:" + action + ":" + path);
+        }
+
+        public void onError(String path, String error) {
+            events.add("error:" + path + ":" + error);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.*;
+
+public class IdentifyCacheTest {
+
+    @Test
+    public void testIdentifyAll() {
+        TestBody.test(new IdentifyTestBody() {
+            @Override protected void execute() throws Exception {
+                File packages = new File(root, "packages");
+                File nested = new File(packages, "nested");
+                nested.mkdirs();
+                FileUtils.copyURLToFile(getClass().getResource("/test-packmgr-client-1.0.zip"),
+                        new File(packages, "test-packmgr-client-1.0.zip"));
+                for (int i = 0; i < 6; i++) {
+                    PackIdTest.writePackage(new File(nested, "identify-" + i + ".zip"), 10, 10,
+                            i % 2 == 0 ? ZipEntry.DEFLATED : -1, 0, null);
+                }
+                FileUtils.writeStringToFile(new File(packages, "readme.txt"), "not a package");
+
+                UploadManifestTest.UploadClient client = new UploadManifestTest.UploadClient();
+                IdentifyCache cache = new IdentifyCache(cacheFile);
+                client.setIdentifyCache(cache);
+                Map<File, PackId> identified = client.identifyAll(packages);
+                assertEquals("zip files", 7, identified.size());
+                assertEquals("all opened", 7L, cache.getMissCount());
+                for (Map.Entry<File, PackId> entry : identified.entrySet()) {
+                    assertEquals("same as identify", PackId.identifyPackage(entry.getKey()), entry.getValue());
+                }
+
+                client.setIdentifyCache(cache = new IdentifyCache(cacheFile));
+                assertEquals("cached across instances", identified, client.identifyAll(packages));
+                assertEquals("none opened", 0L, cache.getMissCount());
+                assertEquals("all cached", 7L, cache.getHitCount());
+
+                File changed = new File(nested, "identify-1.zip").getCanonicalFile();
+                PackIdTest.writePackage(changed, 10, 10, ZipEntry.DEFLATED, 0, null);
+                changed.setLastModified(changed.lastModified() + 2000L);
+                File deleted = new File(nested, "identify-2.zip").getCanonicalFile();
+                deleted.delete();
+
+                Map<File, PackId> updated = client.identifyAll(packages);
+                assertEquals("changed file opened", 1L, cache.getMissCount());
+                assertEquals("changed file", PackId.createPackId("test", "identify", "1.0"), updated.get(changed));
+                assertFalse("deleted file", updated.containsKey(deleted));
+                assertFalse("deleted file dropped from the cache",
+                        FileUtils.readFileToString(cacheFile).contains(deleted.getName()));
+
+                assertEquals("identify uses the cache", updated.get(changed), client.identify(changed));
+                assertEquals("identify hit", 1L, cache.getMissCount());
+
+                File corrupt = new File(nested, "corrupt.zip");
+                FileUtils.writeByteArrayToFile(corrupt, RangeDownloadTest.content(1000));
+                File added = new File(nested, "identify-9.zip").getCanonicalFile();
+                PackIdTest.writePackage(added, 10, 10, ZipEntry.DEFLATED, 0, null);
+                try {
+                    client.identifyAll(packages);
+                    fail("corrupt zip");
+                } catch (IOException e) {
+                    assertTrue("names the file", e.getMessage().contains(corrupt.getName()));
+                }
+
+                client.setIdentifyCache(cache = new IdentifyCache(cacheFile));
+                assertEquals("readable file cached despite the corrupt one",
+                        PackId.createPackId("test", "identify", "1.0"), client.identify(added));
+                assertEquals("readable file not opened again", 0L, cache.getMissCount());
+            }
+        });
+    }
+
+    @Test
+    public void testStampTakenBeforeIdentification() {
+        TestBody.test(new IdentifyTestBody() {
+            @Override protected void execute() throws Exception {
+                File packageFile = new File(root, "identify.zip").getCanonicalFile();
+                PackIdTest.writePackage(packageFile, 10, 10, ZipEntry.DEFLATED, 0, null);
+                IdentifyCache.Stamp stamp = new IdentifyCache.Stamp(packageFile);
+                PackId packId = PackId.identifyPackage(packageFile);
+
+                PackIdTest.writePackage(packageFile, 20, 10, ZipEntry.DEFLATED, 0, null);
+                packageFile.setLastModified(stamp.lastModified + 2000L);
+                new IdentifyCache(cacheFile).putAll(Collections.singletonMap(packageFile, packId),
+                        Collections.singletonMap(packageFile, stamp));
+
+                IdentifyCache cache = new IdentifyCache(cacheFile);
+                assertNull("file replaced during identification is not trusted", cache.get(packageFile));
+                assertEquals("miss", 1L, cache.getMissCount());
+
+                PackIdTest.writePackage(packageFile, 10, 10, ZipEntry.DEFLATED, 0, null);
+                packageFile.setLastModified(stamp.lastModified);
+                assertEquals("stamp recorded", packId, new IdentifyCache(cacheFile).get(packageFile));
+            }
+        });
+    }
+
+    static abstract class IdentifyTestBody extends TestBody {
+        File root;
+        File cacheFile;
+
+        IdentifyTestBody() {
+            super();
+            try {
+                root = File.createTempFile("identify-cache", "");
+                root.delete();
+                root.mkdirs();
+                cacheFile = new File(root, "identify.properties");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        protected void cleanUp() {
+            FileUtils.deleteQuietly(root);
+        }
+    }
+}
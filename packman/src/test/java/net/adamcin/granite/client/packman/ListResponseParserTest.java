@@ -0,0 +1,119 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ListResponseParserTest {
+
+    final String LIST_RESPONSE = "{\"results\":[" +
+            "{\"pid\":\"my_packages:first:1.0\",\"path\":\"/etc/packages/my_packages/first-1.0.zip\"," +
+            "\"name\":\"first\",\"group\":\"my_packages\",\"version\":\"1.0\",\"size\":1234," +
+            "\"lastModified\":1375000000000," +
+            "\"description\":\"escaped \\\"quotes\\\" and \\\\ \\u00e9 [ { \",\"filter\":[{\"root\":\"/content\",\"rules\":[]}]," +
+            "\"hasSnapshot\":true,\"needsRewrap\":false}," +
+            "{\"name\":\"second\",\"group\":\"my\\u005fpackages\",\"hasSnapshot\":\"false\",\"needsRewrap\":\"true\"," +
+            "\"screenshots\":[],\"lastUnpacked\":null}" +
+            "],\"total\":2}";
+
+    @Test
+    public void testParse() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final List<ListResult> results = new ArrayList<ListResult>();
+                int total = ListResponseParser.parse(new StringReader(LIST_RESPONSE), new ListResultListener() {
+                    public void onResult(ListResult result) {
+                        results.add(result);
+                    }
+                });
+
+                assertEquals("total is correct", 2, total);
+                assertEquals("two results", 2, results.size());
+
+                assertEquals("first packId", PackId.createPackId("my_packages", "first", "1.0"), results.get(0).getPackId());
+                assertTrue("first hasSnapshot", results.get(0).isHasSnapshot());
+                assertFalse("first needsRewrap", results.get(0).isNeedsRewrap());
+                assertEquals("first size", 1234L, results.get(0).getSize());
+                assertEquals("first lastModified", 1375000000000L, results.get(0).getLastModified());
+
+                assertEquals("second packId", PackId.createPackId("my_packages", "second", ""), results.get(1).getPackId());
+                assertFalse("second hasSnapshot", results.get(1).isHasSnapshot());
+                assertTrue("second needsRewrap", results.get(1).isNeedsRewrap());
+                assertEquals("second size", -1L, results.get(1).getSize());
+                assertEquals("second lastModified", -1L, results.get(1).getLastModified());
+            }
+        });
+    }
+
+    @Test
+    public void testParseListResponse() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                ListResponse response = AbstractPackageManagerClient.parseListResponse(200, "OK",
+                        new ByteArrayInputStream(LIST_RESPONSE.getBytes("UTF-8")), "UTF-8");
+
+                assertEquals("total is correct", 2, response.getTotal());
+                assertEquals("two results", 2, response.getResults().size());
+            }
+        });
+    }
+
+    @Test
+    public void testMalformed() {
+        for (final String json : new String[]{
+                "{\"results\":[]}",
+                "{\"total\":0}",
+                "{\"results\":[{\"name\":\"first\"}],\"total\":1}",
+                "{\"results\":[{\"group\":\"my_packages\",\"name\":\"first\"}",
+                "[]"}) {
+
+            TestBody.test(new TestBody() {
+                @Override protected void execute() throws Exception {
+                    boolean ioExceptionThrown = false;
+                    try {
+                        ListResponseParser.parse(new StringReader(json), new ListResultListener() {
+                            public void onResult(ListResult result) { }
+                        });
+                    } catch (IOException e) {
+                        ioExceptionThrown = true;
+                    }
+                    assertTrue("IOException should be thrown for " + json, ioExceptionThrown);
+                }
+            });
+        }
+    }
+}
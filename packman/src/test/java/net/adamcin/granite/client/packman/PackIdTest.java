@@ -0,0 +1,317 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.vault.packaging.Version;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PackIdTest {
+
+    @Test
+    public void testIdentifyFixture() {
+        TestBody.test(new PackageTestBody() {
+            @Override protected void execute() throws Exception {
+                FileUtils.copyURLToFile(getClass().getResource("/test-packmgr-client-1.0.zip"), file);
+                assertEquals("same properties as JarFile", PackId.readJarProperties(file),
+                        PackId.readProperties(file));
+                assertEquals("identified", PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0"),
+                        PackId.identifyPackage(file));
+            }
+        });
+    }
+
+    @Test
+    public void testIdentifyLayouts() {
+        TestBody.test(new PackageTestBody() {
+            @Override protected void execute() throws Exception {
+                writePackage(file, 0, 5000, ZipEntry.DEFLATED, 0, null);
+                assertIdentified("deflated entry after 5000 entries");
+
+                writePackage(file, 10, 10, ZipEntry.STORED, 0, null);
+                assertIdentified("stored entry");
+
+                writePackage(file, 10, 10, ZipEntry.DEFLATED, 1000, "a comment");
+                assertIdentified("prefixed data and archive comment");
+
+                writePackage(file, 70000, 10, ZipEntry.DEFLATED, 0, null);
+                assertIdentified("ZIP64 archive");
+
+                writePackage(file, 10, 10, -1, 0, null);
+                assertNull("no properties", PackId.readProperties(file));
+                assertEquals("identified by file name", PackId.identifyPackage(file).getInstallationPath(),
+                        "/etc/packages/" + file.getName().substring(0, file.getName().length() - 4));
+
+                FileUtils.writeByteArrayToFile(file, RangeDownloadTest.content(100000));
+                try {
+                    PackId.identifyPackage(file);
+                    fail("not a zip");
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testCompareVersions() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                String[] versions = {"", ".", "1", "1.0", "1.0.0", "1..0", "1.0-SNAPSHOT", "1.0-SNAPSHOT-2", "1.0-beta",
+                        "1.0-beta-2", "1.0-beta-10", "1.0-alpha", "1.0--alpha", "01.0", "1.00", "1.10", "1.9", "2",
+                        "1.0.a", "1.0.b-3", "1.0.b-10", "a", "B", "1.0-RC1", "4294967296", "2147483647",
+                        "-2147483648", "-1", "1.-1", "1.0-1", "1.0-01"};
+                for (String version : versions) {
+                    for (String other : versions) {
+                        int expected = Integer.signum(Version.create(version).compareTo(Version.create(other)));
+                        assertEquals(version + " vs " + other, expected, Integer.signum(
+                                new PackId.VersionKey(version).compareTo(new PackId.VersionKey(other))));
+                    }
+                }
+
+                PackId snapshot = PackId.createPackId("test", "compare", "1.0-SNAPSHOT");
+                PackId release = PackId.createPackId("test", "compare", "1.0");
+                assertTrue("snapshot precedes release", snapshot.compareTo(release) < 0);
+                assertTrue("release follows snapshot", release.compareTo(snapshot) > 0);
+                assertEquals("same version", 0, release.compareTo(PackId.createPackId("test", "compare", "1.0")));
+            }
+        });
+    }
+
+    @Test
+    public void testInternPool() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                PackIdPool pool = new PackIdPool();
+                PackId first = pool.intern(PackId.createPackId("test", "intern", "1.0"));
+                PackId second = pool.intern(PackId.createPackId("test", "intern", "1.0"));
+                assertSame("equal identities collapse", first, second);
+                assertEquals("one canonical instance", 1, pool.size());
+                assertNull("null is not pooled", pool.intern(null));
+
+                PackId other = pool.intern(PackId.createPackId(new String("test"), "other", new String("1.0")));
+                assertSame("group is shared", first.getGroup(), other.getGroup());
+                assertSame("version is shared", first.getVersion(), other.getVersion());
+                assertEquals("cached hashCode", PackId.createPackId("test", "other", "1.0").hashCode(),
+                        other.hashCode());
+
+                first = null;
+                second = null;
+                for (int i = 0; i < 50 && pool.size() > 1; i++) {
+                    System.gc();
+                    Thread.sleep(10L);
+                }
+                assertEquals("unreferenced identities are dropped", 1, pool.size());
+                assertSame("retained identity survives", other,
+                        pool.intern(PackId.createPackId("test", "other", "1.0")));
+            }
+        });
+    }
+
+    @Test
+    public void testParsePid() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                String[] pids = {null, "", " ", ":", "::", ":::", "g", "gg:", ":nn", "gg:nn", " gg:nn ", "gg:nn:",
+                        "gg:nn:1.0", "gg:nn:1.0:", "gg::1.0", "gg:nn:1.0:x", "\tgg:nn:1.0\n", "my group:my name:1 0",
+                        "a:b", "aa:b:1", "gg:nn: 1.0", "gg/sub:nn:1.0-SNAPSHOT"};
+                for (String pid : pids) {
+                    PackId expected = null;
+                    if (pid != null) {
+                        Matcher matcher = PackId.PID_PATTERN.matcher(pid.trim());
+                        if (matcher.find()) {
+                            expected = PackId.createPackId(matcher.group(1), matcher.group(2), matcher.group(4));
+                        }
+                    }
+                    assertEquals("parsePid(" + pid + ")", expected, PackId.parsePid(pid));
+                }
+                assertNotNull("pid parsed", PackId.parsePid("gg:nn:1.0"));
+            }
+        });
+    }
+
+    @Test
+    public void testSerialization() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                Properties props = new Properties();
+                props.setProperty(PackId.PROP_PATH, "/etc/packages/test/serialized-path.zip");
+                List<PackId> packIds = Arrays.asList(PackId.createPackId("test", "serialize", "1.0"),
+                        PackId.createPackId("test", "serialize", ""),
+                        PackId.createPackId("other/sub", "serialize", "2.0-\u00e9t\u00e9"),
+                        PackId.identifyProperties(props));
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream out = new ObjectOutputStream(bytes);
+                out.writeObject(new ArrayList<PackId>(packIds));
+                out.close();
+                @SuppressWarnings("unchecked")
+                List<PackId> copy = (List<PackId>) new ObjectInputStream(
+                        new ByteArrayInputStream(bytes.toByteArray())).readObject();
+                assertEquals("serialized", packIds, copy);
+                assertEquals("installation path", packIds.get(3).getInstallationPath(),
+                        copy.get(3).getInstallationPath());
+
+                bytes.reset();
+                DataOutputStream data = new DataOutputStream(bytes);
+                PackIdCodec.writeAll(data, packIds);
+                data.close();
+                List<PackId> decoded = PackIdCodec.readAll(
+                        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+                assertEquals("encoded", packIds, decoded);
+                assertSame("shared group", decoded.get(0).getGroup(), decoded.get(1).getGroup());
+                assertSame("shared group", decoded.get(0).getGroup(), decoded.get(3).getGroup());
+                assertEquals("installation path", packIds.get(3).getInstallationPath(),
+                        decoded.get(3).getInstallationPath());
+            }
+        });
+    }
+
+    @Test
+    public void testEncodedLengths() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                StringBuilder name = new StringBuilder();
+                while (name.length() < 20000) {
+                    name.append("long-name-\u00e9-");
+                }
+                PackId packId = PackId.createPackId("test", name.toString(), "1.0");
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(bytes);
+                PackIdCodec.write(data, packId);
+                data.close();
+                assertEquals("long name", packId,
+                        PackIdCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+
+                bytes.reset();
+                data = new DataOutputStream(bytes);
+                PackIdCodec.writeVarInt(data, Integer.MAX_VALUE);
+                data.write(new byte[100]);
+                data.close();
+                try {
+                    PackIdCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+                    fail("corrupt length");
+                } catch (EOFException e) {
+                    // the input runs out before a buffer of the corrupt length is allocated
+                }
+            }
+        });
+    }
+
+    static abstract class PackageTestBody extends TestBody {
+        File file;
+
+        PackageTestBody() {
+            super();
+            try {
+                file = File.createTempFile("identify-package", ".zip");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void assertIdentified(String message) throws Exception {
+            assertEquals(message, PackId.readJarProperties(file), PackId.readProperties(file));
+            assertEquals(message, PackId.createPackId("test", "identify", "1.0"), PackId.identifyPackage(file));
+        }
+
+        @Override
+        protected void cleanUp() {
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes a zip with the properties entry between two runs of content entries
+     * @param method the compression method of the properties entry, or -1 to leave it out
+     * @param prefix the number of bytes to write before the zip
+     * @param comment the archive comment
+     */
+    static void writePackage(File file, int before, int after, int method, int prefix, String comment)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[prefix]);
+            ZipOutputStream zip = new ZipOutputStream(out);
+            byte[] data = "<jcr:root/>".getBytes("UTF-8");
+            for (int i = 0; i < before + after; i++) {
+                if (i == before && method >= 0) {
+                    Properties props = new Properties();
+                    props.setProperty(PackId.PROP_GROUP, "test");
+                    props.setProperty(PackId.PROP_NAME, "identify");
+                    props.setProperty(PackId.PROP_VERSION, "1.0");
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    props.storeToXML(bytes, null);
+                    ZipEntry entry = new ZipEntry(PackId.PROPERTIES_ENTRY);
+                    entry.setMethod(method);
+                    if (method == ZipEntry.STORED) {
+                        CRC32 crc = new CRC32();
+                        crc.update(bytes.toByteArray());
+                        entry.setSize(bytes.size());
+                        entry.setCompressedSize(bytes.size());
+                        entry.setCrc(crc.getValue());
+                    }
+                    zip.putNextEntry(entry);
+                    bytes.writeTo(zip);
+                    zip.closeEntry();
+                }
+                zip.putNextEntry(new ZipEntry("jcr_root/content/identify/node-" + i + "/.content.xml"));
+                zip.write(data);
+                zip.closeEntry();
+            }
+            if (comment != null) {
+                zip.setComment(comment);
+            }
+            zip.finish();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PackageCacheTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        TestBody.test(new CacheTestBody() {
+            @Override protected void execute() throws Exception {
+                RangeDownloadTest.RangeClient client = new RangeDownloadTest.RangeClient(
+                        RangeDownloadTest.content(100000), true);
+                PackageCache cache = new PackageCache(cacheDir, 1048576L);
+                client.setPackageCache(cache);
+
+                DownloadResponse response = client.downloadToDirectory(RangeDownloadTest.PACK_ID, firstDir);
+                assertFalse("first download is a miss", response.isNotModified());
+                assertEquals("misses", 1L, cache.getMissCount());
+                assertEquals("cache size", 100000L, cache.getSize());
+                assertTrue("content", Arrays.equals(client.content, FileUtils.readFileToByteArray(response.getContent())));
+
+                response = client.downloadToDirectory(RangeDownloadTest.PACK_ID, secondDir);
+                assertTrue("second download is a hit", response.isNotModified());
+                assertEquals("hits", 1L, cache.getHitCount());
+                assertEquals("revalidated", 2, client.requests);
+                assertEquals("sha256", RangeDownloadTest.sha256(client.content), response.getSha256());
+                assertTrue("content", Arrays.equals(client.content, FileUtils.readFileToByteArray(response.getContent())));
+
+                cache.setMaxAge(60000L);
+                response = client.downloadToDirectory(RangeDownloadTest.PACK_ID, secondDir);
+                assertTrue("fresh entry is a hit", response.isNotModified());
+                assertEquals("not revalidated", 2, client.requests);
+
+                cache.setMaxAge(0L);
+                client.content = RangeDownloadTest.content(200000);
+                client.etag = "\"2\"";
+                response = client.downloadToDirectory(RangeDownloadTest.PACK_ID, secondDir);
+                assertFalse("changed package is a miss", response.isNotModified());
+                assertEquals("misses", 2L, cache.getMissCount());
+                assertTrue("content", Arrays.equals(client.content, FileUtils.readFileToByteArray(response.getContent())));
+            }
+        });
+    }
+
+    @Test
+    public void testEviction() {
+        TestBody.test(new CacheTestBody() {
+            @Override protected void execute() throws Exception {
+                RangeDownloadTest.RangeClient client = new RangeDownloadTest.RangeClient(null, true);
+                PackageCache cache = new PackageCache(cacheDir, 250000L);
+                client.setPackageCache(cache);
+
+                for (int i = 0; i < 3; i++) {
+                    client.content = RangeDownloadTest.content(100000 + i);
+                    client.etag = "\"" + i + "\"";
+                    client.downloadToDirectory(PackId.createPackId("test", "cached-" + i, "1.0"), firstDir);
+                }
+                assertEquals("evictions", 1L, cache.getEvictionCount());
+                assertTrue("cache fits", cache.getSize() <= 250000L);
+                assertEquals("evicted bytes", 300003L - cache.getSize(), cache.getEvictedBytes());
+
+                long hits = cache.getHitCount();
+                for (int i = 2; i >= 0; i--) {
+                    client.content = RangeDownloadTest.content(100000 + i);
+                    client.etag = "\"" + i + "\"";
+                    DownloadResponse response = client.downloadToDirectory(
+                            PackId.createPackId("test", "cached-" + i, "1.0"), secondDir);
+                    assertTrue("content", Arrays.equals(client.content,
+                            FileUtils.readFileToByteArray(response.getContent())));
+                }
+                assertTrue("most recent package is a hit", cache.getHitCount() > hits);
+                assertEquals("every package is served", 6L, cache.getHitCount() + cache.getMissCount());
+            }
+        });
+    }
+
+    @Test
+    public void testServedFilesAreIsolated() {
+        TestBody.test(new CacheTestBody() {
+            @Override protected void execute() throws Exception {
+                RangeDownloadTest.RangeClient client = new RangeDownloadTest.RangeClient(
+                        RangeDownloadTest.content(100000), true);
+                PackageCache cache = new PackageCache(cacheDir, 1048576L);
+                cache.setMaxAge(60000L);
+                client.setPackageCache(cache);
+
+                File first = client.downloadToDirectory(RangeDownloadTest.PACK_ID, firstDir).getContent();
+                assertTrue("modification time", first.setLastModified(1000000000000L));
+                File second = client.downloadToDirectory(RangeDownloadTest.PACK_ID, secondDir).getContent();
+                assertEquals("hit", 1L, cache.getHitCount());
+                assertEquals("served file keeps its modification time", 1000000000000L, first.lastModified());
+
+                RangeDownloadTest.RangeClient other = new RangeDownloadTest.RangeClient(
+                        RangeDownloadTest.content(50000), true);
+                other.download(RangeDownloadTest.PACK_ID, first);
+                assertTrue("overwritten", Arrays.equals(other.content, FileUtils.readFileToByteArray(first)));
+                assertTrue("cached package is intact", Arrays.equals(client.content,
+                        FileUtils.readFileToByteArray(client.downloadToDirectory(RangeDownloadTest.PACK_ID,
+                                thirdDir).getContent())));
+                assertEquals("hit", 2L, cache.getHitCount());
+
+                RandomAccessFile raf = new RandomAccessFile(second, "rw");
+                try {
+                    raf.write(new byte[]{1, 2, 3, 4});
+                } finally {
+                    raf.close();
+                }
+                File third = client.downloadToDirectory(RangeDownloadTest.PACK_ID, thirdDir).getContent();
+                assertTrue("modified package is not served", Arrays.equals(client.content,
+                        FileUtils.readFileToByteArray(third)));
+                assertEquals("modified package is a miss", 2L, cache.getMissCount());
+            }
+        });
+    }
+
+    static abstract class CacheTestBody extends TestBody {
+        File cacheDir;
+        File firstDir;
+        File secondDir;
+        File thirdDir;
+
+        CacheTestBody() {
+            super();
+            try {
+                File root = File.createTempFile("package-cache", "");
+                root.delete();
+                cacheDir = new File(root, "cache");
+                firstDir = new File(root, "first");
+                secondDir = new File(root, "second");
+                thirdDir = new File(root, "third");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        protected void cleanUp() {
+            FileUtils.deleteQuietly(cacheDir.getParentFile());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PackageCatalogTest {
+
+    @Test
+    public void testQueries() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                PackageCatalog catalog = PackageCatalog.of(response(
+                        "adobe/cq:hotfix:1.0", "adobe/cq:hotfix:1.10", "adobe/cq:hotfix:1.9",
+                        "adobe/cq:hotfix:1.0-SNAPSHOT", "adobe/wcm:feature:2.0", "acme:site:1.0",
+                        "acme:content:3", "adobes:other:1.0", "acme:site:0.9"));
+
+                assertEquals("size", 9, catalog.size());
+                assertEquals("group", pids("acme:content:3", "acme:site:0.9", "acme:site:1.0"),
+                        pids(catalog.getGroup("acme")));
+                assertEquals("missing group", 0, catalog.getGroup("acm").size());
+                assertEquals("group prefix", pids("adobe/cq:hotfix:1.0-SNAPSHOT", "adobe/cq:hotfix:1.0",
+                        "adobe/cq:hotfix:1.9", "adobe/cq:hotfix:1.10", "adobe/wcm:feature:2.0"),
+                        pids(catalog.getGroupsStartingWith("adobe/")));
+                assertEquals("versions", pids("adobe/cq:hotfix:1.0-SNAPSHOT", "adobe/cq:hotfix:1.0",
+                        "adobe/cq:hotfix:1.9", "adobe/cq:hotfix:1.10"),
+                        pids(catalog.getVersions("adobe/cq", "hotfix")));
+                assertEquals("latest", PackId.parsePid("adobe/cq:hotfix:1.10"),
+                        catalog.getLatest("adobe/cq", "hotfix").getPackId());
+                assertNull("no latest", catalog.getLatest("adobe/cq", "missing"));
+                assertTrue("contains", catalog.contains(PackId.parsePid("acme:site:0.9")));
+                assertFalse("not contains", catalog.contains(PackId.parsePid("acme:site:0.8")));
+                assertEquals("filter", pids("acme:site:1.0"), pids(catalog.filter("acme", new PackIdFilter() {
+                    public boolean includes(PackId packId) {
+                        return packId.getVersion().startsWith("1.");
+                    }
+                })));
+            }
+        });
+    }
+
+    @Test
+    public void testCopyOnWrite() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                PackageCatalog catalog = PackageCatalog.of(response("acme:site:1.0", "acme:site:2.0"));
+                PackageCatalog updated = catalog.with(new AbstractPackageManagerClient.ListResponseImpl(
+                        Arrays.<ListResult>asList(result("acme:site:2.0", 42L), result("acme:site:3.0", 0L),
+                                result("acme:site:3.0", 7L)), 3));
+
+                assertEquals("original untouched", pids("acme:site:1.0", "acme:site:2.0"),
+                        pids(catalog.getResults()));
+                assertEquals("merged", pids("acme:site:1.0", "acme:site:2.0", "acme:site:3.0"),
+                        pids(updated.getResults()));
+                assertEquals("replaced", 42L, updated.get(PackId.parsePid("acme:site:2.0")).getSize());
+                assertEquals("last duplicate wins", 7L, updated.get(PackId.parsePid("acme:site:3.0")).getSize());
+
+                PackageCatalog removed = updated.without(PackId.parsePid("acme:site:2.0"));
+                assertEquals("removed", pids("acme:site:1.0", "acme:site:3.0"), pids(removed.getResults()));
+                assertSame("nothing to remove", removed, removed.without(PackId.parsePid("acme:site:2.0")));
+                assertEquals("updated untouched", 3, updated.size());
+            }
+        });
+    }
+
+    @Test
+    public void testMatchesSortedList() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                Random random = new Random(24L);
+                PackageCatalog catalog = PackageCatalog.EMPTY;
+                List<PackId> expected = new ArrayList<PackId>();
+                for (int batch = 0; batch < 20; batch++) {
+                    List<String> pids = new ArrayList<String>();
+                    for (int i = 0; i < 50; i++) {
+                        String pid = "group" + random.nextInt(5) + ":name" + random.nextInt(5) + ":"
+                                + random.nextInt(4) + "." + random.nextInt(12);
+                        pids.add(pid);
+                        PackId packId = PackId.parsePid(pid);
+                        if (!expected.contains(packId)) {
+                            expected.add(packId);
+                        }
+                    }
+                    catalog = catalog.with(response(pids.toArray(new String[pids.size()])));
+                }
+                Collections.sort(expected);
+                assertEquals("sorted", expected, pids(catalog.getResults()));
+                for (PackId packId : expected) {
+                    assertEquals("found", packId, catalog.get(packId).getPackId());
+                    List<ListResult> versions = catalog.getVersions(packId.getGroup(), packId.getName());
+                    assertEquals("latest", versions.get(versions.size() - 1),
+                            catalog.getLatest(packId.getGroup(), packId.getName()));
+                }
+            }
+        });
+    }
+
+    static ListResponse response(String... pids) {
+        List<ListResult> results = new ArrayList<ListResult>();
+        for (String pid : pids) {
+            results.add(result(pid, 0L));
+        }
+        return new AbstractPackageManagerClient.ListResponseImpl(results, results.size());
+    }
+
+    static ListResult result(String pid, long size) {
+        return new AbstractPackageManagerClient.ListResultImpl(PackId.parsePid(pid), false, false, size, 0L);
+    }
+
+    static List<PackId> pids(String... pids) {
+        List<PackId> packIds = new ArrayList<PackId>();
+        for (String pid : pids) {
+            packIds.add(PackId.parsePid(pid));
+        }
+        return packIds;
+    }
+
+    static List<PackId> pids(List<ListResult> results) {
+        List<PackId> packIds = new ArrayList<PackId>();
+        for (ListResult result : results) {
+            packIds.add(result.getPackId());
+        }
+        return packIds;
+    }
+}
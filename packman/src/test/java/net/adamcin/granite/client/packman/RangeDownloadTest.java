@@ -0,0 +1,450 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RangeDownloadTest {
+    static final PackId PACK_ID = PackId.createPackId("test", "range-download", "1.0");
+
+    @Test
+    public void testResume() {
+        TestBody.test(new DownloadTestBody() {
+            @Override protected void execute() throws Exception {
+                RangeClient client = new RangeClient(content(3000000), true);
+                client.setDownloadResume(true);
+                client.setDownloadConditional(true);
+                client.failAfter = 1000000;
+
+                try {
+                    client.download(PACK_ID, toFile);
+                    fail("download should fail");
+                } catch (IOException e) {
+                    // expected
+                }
+                File partFile = new File(toFile.getPath() + AbstractPackageManagerClient.PARTIAL_DOWNLOAD_SUFFIX);
+                assertEquals("partial file is kept", 1000000L, partFile.length());
+                assertFalse("target is not written", toFile.exists());
+
+                DownloadResponse response = client.download(PACK_ID, toFile);
+                assertEquals("resumed from", 1000000L, response.getResumedFrom());
+                assertEquals("transferred", 2000000L, response.getTransferred());
+                assertEquals("length", Long.valueOf(3000000L), response.getLength());
+                assertTrue("range supported", response.isRangeSupported());
+                assertEquals("sha256 includes the resumed bytes", sha256(client.content), response.getSha256());
+                assertTrue("content", Arrays.equals(client.content, FileUtils.readFileToByteArray(toFile)));
+                assertFalse("partial file is renamed", partFile.exists());
+            }
+        });
+    }
+
+    @Test
+    public void testResumeChangedPackage() {
+        TestBody.test(new DownloadTestBody() {
+            @Override protected void execute() throws Exception {
+                RangeClient client = new RangeClient(content(1000), true);
+                client.setDownloadResume(true);
+                File partFile = new File(toFile.getPath() + AbstractPackageManagerClient.PARTIAL_DOWNLOAD_SUFFIX);
+                FileUtils.writeByteArrayToFile(partFile, content(2000));
+
+                DownloadResponse response = client.download(PACK_ID, toFile);
+                assertEquals("not resumed", 0L, response.getResumedFrom());
+                assertTrue("content", Arrays.equals(client.content, FileUtils.readFileToByteArray(toFile)));
+            }
+        });
+    }
+
+    @Test
+    public void testSegments() {
+        TestBody.test(new DownloadTestBody() {
+            @Override protected void execute() throws Exception {
+                RangeClient client = new RangeClient(content(5 * 1048576 + 17), true);
+                client.setDownloadSegments(4);
+
+                DownloadResponse response = client.download(PACK_ID, toFile);
+                assertEquals("first range and four segments", 5, response.getSegments());
+                assertEquals("transferred", (long) client.content.length, response.getTransferred());
+                assertTrue("content", Arrays.equals(client.content, FileUtils.readFileToByteArray(toFile)));
+            }
+        });
+    }
+
+    @Test
+    public void testStalePartFile() {
+        TestBody.test(new DownloadTestBody() {
+            @Override protected void execute() throws Exception {
+                for (int length : new int[]{500000, 3 * 1048576}) {
+                    for (boolean unknownTotal : new boolean[]{false, true}) {
+                        RangeClient client = new RangeClient(content(length), true);
+                        client.unknownTotal = unknownTotal;
+                        client.setDownloadSegments(4);
+                        client.setDownloadConditional(true);
+                        File partFile = new File(toFile.getPath()
+                                + AbstractPackageManagerClient.PARTIAL_DOWNLOAD_SUFFIX);
+                        FileUtils.writeByteArrayToFile(partFile, content(4 * 1048576));
+
+                        DownloadResponse response = client.download(PACK_ID, toFile);
+                        String message = length + " bytes, unknown total " + unknownTotal;
+                        assertTrue(message, Arrays.equals(client.content, FileUtils.readFileToByteArray(toFile)));
+                        assertEquals(message, sha256(client.content), response.getSha256());
+                        toFile.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testRangesIgnored() {
+        TestBody.test(new DownloadTestBody() {
+            @Override protected void execute() throws Exception {
+                RangeClient client = new RangeClient(content(3 * 1048576), false);
+                client.setDownloadSegments(4);
+
+                DownloadResponse response = client.download(PACK_ID, toFile);
+                assertEquals("single request", 1, response.getSegments());
+                assertFalse("range not supported", response.isRangeSupported());
+                assertTrue("content", Arrays.equals(client.content, FileUtils.readFileToByteArray(toFile)));
+            }
+        });
+    }
+
+    @Test
+    public void testConditional() {
+        TestBody.test(new DownloadTestBody() {
+            @Override protected void execute() throws Exception {
+                RangeClient client = new RangeClient(content(3 * 1048576), true);
+                client.setDownloadConditional(true);
+                File metadataFile = new File(toFile.getPath() + AbstractPackageManagerClient.DOWNLOAD_METADATA_SUFFIX);
+
+                DownloadResponse response = client.download(PACK_ID, toFile);
+                assertFalse("first download is modified", response.isNotModified());
+                assertEquals("sha256", sha256(client.content), response.getSha256());
+                assertEquals("etag", client.etag, response.getETag());
+                assertTrue("metadata is written", metadataFile.isFile());
+
+                long lastModified = toFile.lastModified();
+                response = client.download(PACK_ID, toFile);
+                assertTrue("second download is not modified", response.isNotModified());
+                assertEquals("nothing transferred", 0L, response.getTransferred());
+                assertEquals("sha256 from metadata", sha256(client.content), response.getSha256());
+                assertEquals("length", Long.valueOf(client.content.length), response.getLength());
+                assertEquals("file is untouched", lastModified, toFile.lastModified());
+
+                client.content = content(5 * 1048576 + 3);
+                client.etag = "\"2\"";
+                client.setDownloadSegments(4);
+                response = client.download(PACK_ID, toFile);
+                assertFalse("changed package is downloaded", response.isNotModified());
+                assertEquals("segmented", 5, response.getSegments());
+                assertEquals("segmented sha256", sha256(client.content), response.getSha256());
+                assertTrue("content", Arrays.equals(client.content, FileUtils.readFileToByteArray(toFile)));
+
+                FileUtils.writeByteArrayToFile(toFile, content(10));
+                response = client.download(PACK_ID, toFile);
+                assertFalse("metadata of a replaced file is ignored", response.isNotModified());
+                assertTrue("content", Arrays.equals(client.content, FileUtils.readFileToByteArray(toFile)));
+            }
+        });
+    }
+
+    @Test
+    public void testTransferProgress() {
+        TestBody.test(new DownloadTestBody() {
+            @Override protected void execute() throws Exception {
+                RangeClient client = new RangeClient(content(5 * 1048576 + 17), true);
+                RecordingTransferListener listener = new RecordingTransferListener();
+                client.setTransferProgressListener(listener);
+                client.setTransferProgressInterval(0L);
+
+                client.download(PACK_ID, toFile);
+                listener.assertComplete(client.content.length);
+                assertEquals("one call per chunk when the interval is 0", client.content.length / 8192 + 1,
+                        listener.progress);
+
+                listener = new RecordingTransferListener();
+                client.setTransferProgressListener(listener);
+                client.setDownloadSegments(4);
+                client.download(PACK_ID, toFile);
+                listener.assertComplete(client.content.length);
+
+                listener = new RecordingTransferListener();
+                client.setTransferProgressListener(listener);
+                client.setTransferProgressInterval(60000L);
+                client.download(PACK_ID, toFile);
+                assertEquals("no progress within the interval", 0, listener.progress);
+                assertEquals("transferred", (long) client.content.length, listener.completed);
+            }
+        });
+    }
+
+    @Test
+    public void testParseContentRange() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                AbstractPackageManagerClient.DownloadRange range =
+                        AbstractPackageManagerClient.DownloadRange.parseContentRange("bytes 100-199/1000");
+                assertEquals("first", 100L, range.getFirst());
+                assertEquals("last", 199L, range.getLast());
+                assertEquals("total", 1000L, range.getTotal());
+                assertEquals("unknown total", -1L,
+                        AbstractPackageManagerClient.DownloadRange.parseContentRange("bytes 0-9/*").getTotal());
+                assertNull("unsatisfied", AbstractPackageManagerClient.DownloadRange.parseContentRange("bytes */1000"));
+                assertNull("last before first",
+                        AbstractPackageManagerClient.DownloadRange.parseContentRange("bytes 9-0/1000"));
+                assertEquals("open range header", "bytes=10-",
+                        new AbstractPackageManagerClient.DownloadRange(10L, -1L).getHeaderValue());
+            }
+        });
+    }
+
+    static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + (i >>> 8));
+        }
+        return content;
+    }
+
+    static String sha256(byte[] content) throws Exception {
+        return AbstractPackageManagerClient.toHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    /**
+     * Checks that the reported progress is monotonic and never exceeds the reported total.
+     */
+    static class RecordingTransferListener implements TransferProgressListener {
+        int progress = 0;
+        long transferred = 0L;
+        long total = -1L;
+        long completed = -1L;
+
+        public void onProgress(PackId packageId, long transferred, long total, double bytesPerSecond,
+                               double averageBytesPerSecond) {
+            assertTrue("transferred is monotonic", transferred >= this.transferred);
+            assertTrue("transferred is within total", total < 0L || transferred <= total);
+            assertTrue("rates are not negative", bytesPerSecond >= 0.0 && averageBytesPerSecond >= 0.0);
+            progress++;
+            this.transferred = transferred;
+            this.total = total;
+        }
+
+        public void onComplete(PackId packageId, long transferred, double averageBytesPerSecond) {
+            assertEquals("completed once", -1L, completed);
+            completed = transferred;
+        }
+
+        void assertComplete(long length) {
+            assertTrue("progress is reported", progress > 0);
+            assertEquals("total", length, total);
+            assertEquals("last progress", length, transferred);
+            assertEquals("transferred", length, completed);
+        }
+    }
+
+    static abstract class DownloadTestBody extends TestBody {
+        File toFile;
+
+        DownloadTestBody() {
+            super();
+            try {
+                toFile = File.createTempFile("range-download", ".zip");
+                toFile.delete();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        protected void cleanUp() {
+            toFile.delete();
+            new File(toFile.getPath() + AbstractPackageManagerClient.PARTIAL_DOWNLOAD_SUFFIX).delete();
+            new File(toFile.getPath() + AbstractPackageManagerClient.DOWNLOAD_METADATA_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Serves download requests from memory, optionally honoring the requested range, and optionally dropping the
+     * connection after a number of bytes.
+     */
+    static class RangeClient extends AbstractPackageManagerClient {
+        byte[] content;
+        String etag = "\"1\"";
+        final boolean honorRanges;
+        volatile long failAfter = -1L;
+        volatile int requests = 0;
+        boolean unknownTotal = false;
+
+        RangeClient(byte[] content, boolean honorRanges) {
+            this.content = content;
+            this.honorRanges = honorRanges;
+        }
+
+        @Override
+        protected boolean isConcurrentRequestSupported() {
+            return true;
+        }
+
+        @Override
+        public boolean login(String username, String password) throws IOException {
+            return true;
+        }
+
+        @Override
+        protected Either<? extends Exception, Boolean> checkServiceAvailability(boolean checkTimeout,
+                                                                                long timeoutRemaining) {
+            return right(Exception.class, true);
+        }
+
+        @Override
+        protected ResponseBuilder getResponseBuilder() {
+            return new ResponseBuilder() {
+                @Override protected ResponseBuilder forPackId(PackId packId) {
+                    return this;
+                }
+
+                @Override protected ResponseBuilder withParam(String name, String value) {
+                    return this;
+                }
+
+                @Override protected ResponseBuilder withParam(String name, boolean value) {
+                    return this;
+                }
+
+                @Override protected ResponseBuilder withParam(String name, int value) {
+                    return this;
+                }
+
+                @Override protected ResponseBuilder withParam(String name, File value, String mimeType) {
+                    return this;
+                }
+
+                @Override protected ResponseBuilder withParam(String name, String fileName, InputStream value,
+                                                              long length, String mimeType) {
+                    return this;
+                }
+
+                @Override protected SimpleResponse getSimpleResponse() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override protected ListResponse getListResponse() {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override protected int getListResponse(ListResultListener listener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override protected DetailedResponse getDetailedResponse(ResponseProgressListener listener,
+                                                                         OutputStream transcript) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override protected DownloadResponse getDownloadResponse(File outputFile, DownloadRequest request)
+                        throws Exception {
+                    requests++;
+                    Map<String, String> requestHeaders = request != null
+                            ? request.getHeaders() : Collections.<String, String>emptyMap();
+                    Map<String, String> headers = new HashMap<String, String>();
+                    headers.put(HEADER_ETAG, etag);
+                    if (honorRanges) {
+                        headers.put(HEADER_ACCEPT_RANGES, "bytes");
+                    }
+                    if (etag.equals(requestHeaders.get(HEADER_IF_NONE_MATCH))) {
+                        return parseDownloadResponse(304, "Not Modified", headers,
+                                new ByteArrayInputStream(new byte[0]), outputFile, request, 8192);
+                    }
+
+                    int status = 200;
+                    int first = 0;
+                    int last = content.length - 1;
+                    DownloadRange range = request != null ? request.getRange() : null;
+                    if (range != null && honorRanges) {
+                        first = (int) range.getFirst();
+                        if (range.getLast() >= 0L) {
+                            last = (int) Math.min(range.getLast(), last);
+                        }
+                        if (first > last) {
+                            return parseDownloadResponse(416, "Requested Range Not Satisfiable", headers,
+                                    new ByteArrayInputStream(new byte[0]), outputFile, request, 8192);
+                        }
+                        status = 206;
+                        headers.put(HEADER_CONTENT_RANGE, "bytes " + first + "-" + last + "/"
+                                + (unknownTotal ? "*" : Integer.toString(content.length)));
+                    }
+
+                    headers.put(HEADER_CONTENT_LENGTH, Integer.toString(last - first + 1));
+                    InputStream body = new ByteArrayInputStream(content, first, last - first + 1);
+                    if (failAfter >= 0L) {
+                        body = new DroppedInputStream(body, failAfter);
+                        failAfter = -1L;
+                    }
+                    return parseDownloadResponse(status, "OK", headers, body, outputFile, request, 8192);
+                }
+            };
+        }
+    }
+
+    static class DroppedInputStream extends FilterInputStream {
+        private long remaining;
+
+        DroppedInputStream(InputStream in, long remaining) {
+            super(in);
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0L) {
+                throw new IOException("Connection reset");
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+}
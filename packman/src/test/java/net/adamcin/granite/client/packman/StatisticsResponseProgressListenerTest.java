@@ -0,0 +1,155 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.Assert.*;
+
+public class StatisticsResponseProgressListenerTest {
+
+    @Test
+    public void testStatistics() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                ClockListener listener = new ClockListener();
+                assertEquals("not started", -1L, listener.getStatistics().getElapsedMillis());
+
+                listener.onStart("Installing content");
+                listener.now = 500000000L;
+                for (int i = 0; i < 100; i++) {
+                    listener.onProgress("A", "/content/added-" + i);
+                }
+                listener.now = 1500000000L;
+                for (int i = 0; i < 50; i++) {
+                    listener.onProgress("U", "/content/updated-" + i);
+                }
+                listener.onError("/content/denied-1", "(denied)");
+                listener.onError("/content/denied-2", "(denied)");
+                listener.onProgress("Dx", "/content/unknown");
+
+                listener.now = 2000000000L;
+                ProgressStatistics stats = listener.getStatistics();
+                assertEquals("elapsed", 2000L, stats.getElapsedMillis());
+                assertEquals("added", 100L, stats.getActionCount("A"));
+                assertEquals("updated", 50L, stats.getActionCount("U"));
+                assertEquals("errors by action", 2L, stats.getActionCount("E"));
+                assertEquals("unknown action", 1L, stats.getActionCount("Dx"));
+                assertEquals("deleted", 0L, stats.getActionCount("D"));
+                assertEquals("errors", 2L, stats.getErrorCount());
+                assertEquals("total", 153L, stats.getProgressCount());
+                assertEquals("one second rate", 53.0D, stats.getOneSecondRate(), 0.001D);
+                assertEquals("ten second rate", 76.5D, stats.getTenSecondRate(), 0.001D);
+                assertEquals("average rate", 76.5D, stats.getAverageRate(), 0.001D);
+
+                listener.now = 12000000000L;
+                stats = listener.getStatistics();
+                assertEquals("one second rate after idle", 0.0D, stats.getOneSecondRate(), 0.001D);
+                assertEquals("ten second rate after idle", 0.0D, stats.getTenSecondRate(), 0.001D);
+                assertEquals("one minute rate after idle", 153.0D / 12.0D, stats.getOneMinuteRate(), 0.001D);
+            }
+        });
+    }
+
+    @Test
+    public void testComposite() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                String body = DetailedResponseParserTest.readResource("/install_success_with_errors.html");
+
+                DetailedResponseParserTest.RecordingListener events = new DetailedResponseParserTest.RecordingListener();
+                StatisticsResponseProgressListener statistics = new StatisticsResponseProgressListener();
+                DetailedResponse response = DetailedResponseParser.parse(new StringReader(body),
+                        new CompositeResponseProgressListener(statistics, events));
+
+                long progress = 0L;
+                for (String event : events.events) {
+                    if (event.startsWith("progress:") || event.startsWith("error:")) {
+                        progress++;
+                    }
+                }
+
+                ProgressStatistics stats = statistics.getStatistics();
+                assertTrue("started", stats.getElapsedMillis() >= 0L);
+                assertEquals("both listeners see every event", progress, stats.getProgressCount());
+                assertEquals("errors are counted", response.getProgressErrorCount(), stats.getErrorCount());
+            }
+        });
+    }
+
+    @Test
+    public void testConcurrentBucketReset() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final ClockListener listener = new ClockListener();
+                listener.onStart("Installing content");
+                final int threads = 4;
+                final int perThread = 5000;
+                for (int round = 1; round <= 20; round++) {
+                    // every round lands in the same bucket as the last, so the first event of each round resets it
+                    listener.now = round * 61000000000L + 500000000L;
+                    final CyclicBarrier barrier = new CyclicBarrier(threads);
+                    Thread[] workers = new Thread[threads];
+                    for (int t = 0; t < threads; t++) {
+                        workers[t] = new Thread() {
+                            @Override public void run() {
+                                try {
+                                    barrier.await();
+                                } catch (Exception e) {
+                                    return;
+                                }
+                                for (int i = 0; i < perThread; i++) {
+                                    listener.onProgress("A", "/content/added");
+                                }
+                            }
+                        };
+                        workers[t].start();
+                    }
+                    for (Thread worker : workers) {
+                        worker.join();
+                    }
+                    // the one second window covers the current half second and the empty second before it
+                    assertEquals("no events lost to the bucket reset in round " + round,
+                            threads * perThread / 1.5D, listener.getStatistics().getOneSecondRate(), 0.001D);
+                }
+            }
+        });
+    }
+
+    static class ClockListener extends StatisticsResponseProgressListener {
+        volatile long now;
+
+        @Override long nanoTime() {
+            return now;
+        }
+    }
+}
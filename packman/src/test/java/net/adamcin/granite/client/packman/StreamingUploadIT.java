@@ -0,0 +1,254 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.adamcin.commons.testing.junit.TestBody;
+import net.adamcin.granite.client.packman.async.AsyncPackageManagerClient;
+import net.adamcin.granite.client.packman.http3.Http3PackageManagerClient;
+import net.adamcin.granite.client.packman.http4.Http4PackageManagerClient;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Uploads a synthetic package, 2 GB unless the {@code packman.it.uploadSize} system property says otherwise, to a stub
+ * server with each transport, and checks that the live heap does not grow with the size of the package. The
+ * {@code itests} profile runs it with {@code -Xmx64m}, so a transport that buffers the body fails with an
+ * {@link OutOfMemoryError} before the assertion is reached.
+ */
+public class StreamingUploadIT {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingUploadIT.class);
+
+    static final long UPLOAD_SIZE = Long.getLong("packman.it.uploadSize", 2L * 1024L * 1024L * 1024L);
+    static final long MAX_HEAP_GROWTH = 16L * 1024L * 1024L;
+    static final PackId PACK_ID = PackId.createPackId("test-packmgr", "streaming-upload", "1.0");
+
+    @Test
+    public void testHttp3() {
+        TestBody.test(new UploadTestBody(new Http3PackageManagerClient()));
+    }
+
+    @Test
+    public void testHttp4() {
+        TestBody.test(new UploadTestBody(new Http4PackageManagerClient()));
+    }
+
+    @Test
+    public void testAsync() {
+        TestBody.test(new UploadTestBody(new AsyncPackageManagerClient()));
+    }
+
+    class UploadTestBody extends TestBody {
+        final AbstractPackageManagerClient client;
+        final CountingHandler handler = new CountingHandler();
+        HttpServer server;
+        File packageFile;
+
+        UploadTestBody(AbstractPackageManagerClient client) {
+            this.client = client;
+        }
+
+        @Override
+        protected void execute() throws Exception {
+            start();
+
+            LOGGER.info("[{}] uploading {} bytes from a file", client.getClass().getSimpleName(), UPLOAD_SIZE);
+            long growth = measureHeapGrowth(new Upload() {
+                public SimpleResponse upload() throws Exception {
+                    return client.upload(packageFile, true, PACK_ID);
+                }
+            });
+            assertTrue("file upload heap growth of " + growth + " bytes", growth < MAX_HEAP_GROWTH);
+
+            LOGGER.info("[{}] uploading {} bytes of unknown length", client.getClass().getSimpleName(), UPLOAD_SIZE);
+            growth = measureHeapGrowth(new Upload() {
+                public SimpleResponse upload() throws Exception {
+                    return client.upload(new SyntheticInputStream(UPLOAD_SIZE), -1L, true, PACK_ID);
+                }
+            });
+            assertTrue("chunked upload heap growth of " + growth + " bytes", growth < MAX_HEAP_GROWTH);
+        }
+
+        long measureHeapGrowth(Upload upload) throws Exception {
+            HeapSampler sampler = new HeapSampler();
+            sampler.start();
+            try {
+                SimpleResponse response = upload.upload();
+                assertTrue("upload should succeed: " + response.getMessage(), response.isSuccess());
+            } finally {
+                sampler.interrupt();
+                sampler.join();
+            }
+            long received = handler.lastReceived.get();
+            assertTrue("server should receive the package, but received " + received + " bytes",
+                    received > UPLOAD_SIZE && received < UPLOAD_SIZE + 4096L);
+            return sampler.peak - sampler.baseline;
+        }
+
+        void start() throws IOException {
+            packageFile = new File("target/streaming-upload-1.0.zip");
+            RandomAccessFile raf = new RandomAccessFile(packageFile, "rw");
+            try {
+                // sparse, so that the file does not cost 2 GB of disk
+                raf.setLength(UPLOAD_SIZE);
+            } finally {
+                raf.close();
+            }
+
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", handler);
+            server.start();
+            client.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+        }
+
+        @Override
+        protected void cleanUp() {
+            if (server != null) {
+                server.stop(0);
+            }
+            if (packageFile != null) {
+                packageFile.delete();
+            }
+        }
+    }
+
+    interface Upload {
+        SimpleResponse upload() throws Exception;
+    }
+
+    /**
+     * Counts and discards the request body, and answers like the package manager service.
+     */
+    static class CountingHandler implements HttpHandler {
+        final AtomicLong lastReceived = new AtomicLong();
+
+        public void handle(HttpExchange exchange) throws IOException {
+            InputStream body = exchange.getRequestBody();
+            byte[] buffer = new byte[65536];
+            long received = 0L;
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                received += read;
+            }
+            lastReceived.set(received);
+
+            byte[] response = "{\"success\":true,\"msg\":\"Package uploaded\"}".getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type", "application/json;charset=utf-8");
+            exchange.sendResponseHeaders(200, response.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(response);
+            out.close();
+        }
+    }
+
+    /**
+     * Generates bytes without holding them.
+     */
+    static class SyntheticInputStream extends InputStream {
+        private long remaining;
+
+        SyntheticInputStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            return remaining-- > 0L ? (int) (remaining & 0x7F) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0L) {
+                return -1;
+            }
+            int count = (int) Math.min(len, remaining);
+            for (int i = 0; i < count; i++) {
+                b[off + i] = (byte) ((remaining - i) & 0x7F);
+            }
+            remaining -= count;
+            return count;
+        }
+    }
+
+    /**
+     * Samples the heap that survived the most recent collection, which unlike the current usage does not include
+     * garbage waiting to be collected.
+     */
+    static class HeapSampler extends Thread {
+        final long baseline;
+        volatile long peak;
+
+        HeapSampler() {
+            setDaemon(true);
+            System.gc();
+            baseline = liveHeap();
+            peak = baseline;
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak = Math.max(peak, liveHeap());
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            peak = Math.max(peak, liveHeap());
+        }
+
+        static long liveHeap() {
+            long used = 0L;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    MemoryUsage usage = pool.getCollectionUsage();
+                    used += usage != null ? usage.getUsed() : pool.getUsage().getUsed();
+                }
+            }
+            return used;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class UploadManifestTest {
+    static final PackId PACK_ID = PackId.createPackId("test-packmgr", "upload-manifest", "1.0");
+
+    @Test
+    public void testUploadIfChanged() {
+        TestBody.test(new ManifestTestBody() {
+            @Override protected void execute() throws Exception {
+                UploadClient client = new UploadClient();
+                UploadManifest manifest = new UploadManifest(manifestFile);
+                client.setUploadManifest(manifest);
+
+                FileUtils.writeByteArrayToFile(packageFile, RangeDownloadTest.content(10000));
+                SimpleResponse response = client.upload(packageFile, false, PACK_ID);
+                assertTrue("first upload succeeds", response.isSuccess());
+                assertFalse("first upload is sent", response.isSkipped());
+                assertEquals("uploads", 1, client.uploads);
+
+                response = client.upload(packageFile, false, PACK_ID);
+                assertTrue("unchanged upload succeeds", response.isSuccess());
+                assertTrue("unchanged upload is skipped", response.isSkipped());
+                assertEquals("uploads", 1, client.uploads);
+                assertEquals("skipped bytes", 10000L, manifest.getSkippedBytes());
+
+                response = client.upload(packageFile, true, PACK_ID);
+                assertTrue("forced upload succeeds", response.isSuccess());
+                assertFalse("forced upload is sent", response.isSkipped());
+                assertEquals("uploads", 2, client.uploads);
+                assertTrue("unchanged upload is skipped after a forced upload",
+                        client.upload(packageFile, false, PACK_ID).isSkipped());
+
+                client.lastModified.put(PACK_ID, 100L);
+                response = client.upload(packageFile, false, PACK_ID);
+                assertFalse("upload is sent when the server package was replaced", response.isSkipped());
+                assertEquals("uploads", 3, client.uploads);
+
+                client.lastModified.remove(PACK_ID);
+                response = client.upload(packageFile, false, PACK_ID);
+                assertFalse("upload is sent when the server package was deleted", response.isSkipped());
+                assertEquals("uploads", 4, client.uploads);
+
+                manifest.setConfirmWithServer(false);
+                int lists = client.lists;
+                response = client.upload(packageFile, false, PACK_ID);
+                assertTrue("unconfirmed upload is skipped", response.isSkipped());
+                assertEquals("unconfirmed skip does not list the package", lists, client.lists);
+
+                byte[] changed = RangeDownloadTest.content(10000);
+                changed[5000]++;
+                FileUtils.writeByteArrayToFile(packageFile, changed);
+                response = client.upload(packageFile, false, PACK_ID);
+                assertFalse("changed upload is sent", response.isSkipped());
+                assertEquals("uploads", 5, client.uploads);
+
+                client.setUploadManifest(new UploadManifest(manifestFile));
+                response = client.upload(packageFile, false, PACK_ID);
+                assertTrue("manifest is shared through its file", response.isSkipped());
+
+                client.setBaseUrl("http://otherhost:4502");
+                response = client.upload(packageFile, false, PACK_ID);
+                assertFalse("manifest is keyed by server", response.isSkipped());
+                assertEquals("uploads", 6, client.uploads);
+            }
+        });
+    }
+
+    @Test
+    public void testUploadProgress() {
+        TestBody.test(new ManifestTestBody() {
+            @Override protected void execute() throws Exception {
+                UploadClient client = new UploadClient();
+                RangeDownloadTest.RecordingTransferListener listener =
+                        new RangeDownloadTest.RecordingTransferListener();
+                client.setTransferProgressListener(listener);
+                client.setTransferProgressInterval(0L);
+
+                FileUtils.writeByteArrayToFile(packageFile, RangeDownloadTest.content(100000));
+                assertTrue("file upload succeeds", client.upload(packageFile, true, PACK_ID).isSuccess());
+                listener.assertComplete(100000L);
+                assertEquals("uploaded", Long.valueOf(100000L), client.sizes.get(PACK_ID));
+
+                listener = new RangeDownloadTest.RecordingTransferListener();
+                client.setTransferProgressListener(listener);
+                assertTrue("chunked upload succeeds", client.upload(
+                        new ByteArrayInputStream(RangeDownloadTest.content(50000)), -1L, true, PACK_ID).isSuccess());
+                assertEquals("unknown total", -1L, listener.total);
+                assertEquals("transferred", 50000L, listener.completed);
+            }
+        });
+    }
+
+    static abstract class ManifestTestBody extends TestBody {
+        File root;
+        File manifestFile;
+        File packageFile;
+
+        ManifestTestBody() {
+            super();
+            try {
+                root = File.createTempFile("upload-manifest", "");
+                root.delete();
+                manifestFile = new File(root, "uploads.properties");
+                packageFile = new File(root, "upload-manifest-1.0.zip");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        protected void cleanUp() {
+            FileUtils.deleteQuietly(root);
+        }
+    }
+
+    /**
+     * Keeps uploaded packages in memory, and lists them with their size and an upload counter as their last
+     * modification time.
+     */
+    static class UploadClient extends AbstractPackageManagerClient {
+        final Map<PackId, Long> sizes = new HashMap<PackId, Long>();
+        final Map<PackId, Long> lastModified = new HashMap<PackId, Long>();
+        int uploads = 0;
+        int lists = 0;
+
+        @Override
+        public boolean login(String username, String password) throws IOException {
+            return true;
+        }
+
+        @Override
+        protected Either<? extends Exception, Boolean> checkServiceAvailability(boolean checkTimeout,
+                                                                                long timeoutRemaining) {
+            return right(Exception.class, true);
+        }
+
+        @Override
+        protected ResponseBuilder getResponseBuilder() {
+            return new ResponseBuilder() {
+                PackId packId;
+                File file;
+                InputStream stream;
+
+                @Override protected ResponseBuilder forPackId(PackId packId) {
+                    this.packId = packId;
+                    return this;
+                }
+
+                @Override protected ResponseBuilder withParam(String name, String value) {
+                    return this;
+                }
+
+                @Override protected ResponseBuilder withParam(String name, boolean value) {
+                    return this;
+                }
+
+                @Override protected ResponseBuilder withParam(String name, int value) {
+                    return this;
+                }
+
+                @Override protected ResponseBuilder withParam(String name, File value, String mimeType) {
+                    this.file = value;
+                    return this;
+                }
+
+                @Override protected ResponseBuilder withParam(String name, String fileName, InputStream value,
+                                                              long length, String mimeType) {
+                    this.stream = value;
+                    return this;
+                }
+
+                @Override protected SimpleResponse getSimpleResponse() throws IOException {
+                    uploads++;
+                    sizes.put(packId, stream != null ? IOUtils.copyLarge(stream, new NullOutputStream())
+                            : file.length());
+                    lastModified.put(packId, (long) uploads);
+                    return new SimpleResponseImpl(true, "Package uploaded", packId.getInstallationPath() + ".zip");
+                }
+
+                @Override protected ListResponse getListResponse() {
+                    lists++;
+                    List<ListResult> results = new ArrayList<ListResult>();
+                    if (lastModified.containsKey(packId)) {
+                        results.add(new ListResultImpl(packId, false, false, sizes.get(packId),
+                                lastModified.get(packId)));
+                    }
+                    return new ListResponseImpl(results, results.size());
+                }
+
+                @Override protected int getListResponse(ListResultListener listener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override protected DetailedResponse getDetailedResponse(ResponseProgressListener listener,
+                                                                         OutputStream transcript) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override protected DownloadResponse getDownloadResponse(File outputFile, DownloadRequest request) {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
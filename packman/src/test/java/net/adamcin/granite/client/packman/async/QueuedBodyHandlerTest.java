@@ -0,0 +1,184 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman.async;
+
+import com.ning.http.client.FluentCaseInsensitiveStringsMap;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class QueuedBodyHandlerTest {
+    static final int PART = 16384;
+
+    @Test
+    public void testBoundedQueue() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final byte[] content = new byte[40 * PART];
+                new Random(1L).nextBytes(content);
+                final AsyncPackageManagerClient.QueuedBodyHandler handler =
+                        new AsyncPackageManagerClient.QueuedBodyHandler();
+                final AtomicInteger delivered = new AtomicInteger();
+                Thread producer = new Thread() {
+                    @Override public void run() {
+                        try {
+                            handler.onStatusReceived(new Status());
+                            handler.onHeadersReceived(new Headers());
+                            for (int i = 0; i < content.length; i += PART) {
+                                byte[] part = new byte[PART];
+                                System.arraycopy(content, i, part, 0, PART);
+                                handler.onBodyPartReceived(new Part(part));
+                                delivered.incrementAndGet();
+                            }
+                            handler.onCompleted();
+                        } catch (Exception e) {
+                            handler.onThrowable(e);
+                        }
+                    }
+                };
+                producer.start();
+
+                handler.awaitHeaders();
+                assertEquals("status", 200, handler.getStatusCode());
+                Thread.sleep(200L);
+                assertTrue("queue is bounded: " + delivered.get() + " parts",
+                        delivered.get() * PART <= AsyncPackageManagerClient.QueuedBodyHandler.HIGH_WATER + PART);
+
+                InputStream body = handler.getBody();
+                assertTrue("body", Arrays.equals(content, IOUtils.toByteArray(body)));
+                producer.join();
+                assertEquals("end of body", -1, body.read());
+            }
+        });
+    }
+
+    @Test
+    public void testFailure() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                AsyncPackageManagerClient.QueuedBodyHandler handler = new AsyncPackageManagerClient.QueuedBodyHandler();
+                handler.onStatusReceived(new Status());
+                handler.onHeadersReceived(new Headers());
+                handler.onBodyPartReceived(new Part(new byte[]{1, 2}));
+                handler.onThrowable(new IOException("Connection reset"));
+                try {
+                    IOUtils.toByteArray(handler.getBody());
+                    fail("failure is rethrown to the reader");
+                } catch (IOException e) {
+                    assertEquals("Connection reset", e.getMessage());
+                }
+            }
+        });
+    }
+
+    static class Status extends HttpResponseStatus {
+        Status() {
+            super(null, null);
+        }
+
+        @Override public int getStatusCode() {
+            return 200;
+        }
+
+        @Override public String getStatusText() {
+            return "OK";
+        }
+
+        @Override public String getProtocolName() {
+            return "HTTP";
+        }
+
+        @Override public int getProtocolMajorVersion() {
+            return 1;
+        }
+
+        @Override public int getProtocolMinorVersion() {
+            return 1;
+        }
+
+        @Override public String getProtocolText() {
+            return "HTTP/1.1";
+        }
+    }
+
+    static class Headers extends HttpResponseHeaders {
+        Headers() {
+            super(null, null);
+        }
+
+        @Override public FluentCaseInsensitiveStringsMap getHeaders() {
+            return new FluentCaseInsensitiveStringsMap();
+        }
+    }
+
+    static class Part extends HttpResponseBodyPart {
+        private final byte[] bytes;
+
+        Part(byte[] bytes) {
+            super(null, null);
+            this.bytes = bytes;
+        }
+
+        @Override public byte[] getBodyPartBytes() {
+            return bytes.clone();
+        }
+
+        @Override public int writeTo(OutputStream out) throws IOException {
+            out.write(bytes);
+            return bytes.length;
+        }
+
+        @Override public ByteBuffer getBodyByteBuffer() {
+            return ByteBuffer.wrap(bytes);
+        }
+
+        @Override public boolean isLast() {
+            return false;
+        }
+
+        @Override public void markUnderlyingConnectionAsClosed() {
+        }
+
+        @Override public boolean closeUnderlyingConnection() {
+            return false;
+        }
+    }
+}
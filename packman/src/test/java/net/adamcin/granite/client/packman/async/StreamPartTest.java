@@ -0,0 +1,63 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman.async;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.*;
+
+public class StreamPartTest {
+
+    @Test
+    public void testRandomBoundary() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                byte[] content = "package bytes".getBytes("UTF-8");
+                AsyncPackageManagerClient.StreamPart part = newPart(content);
+                String contentType = part.getMultipartContentType();
+                String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+                assertTrue("boundary length " + boundary.length(), boundary.length() >= 30 && boundary.length() <= 40);
+                assertFalse("boundary is random", contentType.equals(newPart(content).getMultipartContentType()));
+
+                String body = new String(IOUtils.toByteArray(part.createBodyStream()), "UTF-8");
+                assertTrue("body starts with the boundary", body.startsWith("--" + boundary + "\r\n"));
+                assertTrue("body ends with the boundary", body.endsWith("\r\n--" + boundary + "--\r\n"));
+                assertTrue("body contains the package", body.contains("package bytes"));
+            }
+        });
+    }
+
+    static AsyncPackageManagerClient.StreamPart newPart(byte[] content) {
+        return new AsyncPackageManagerClient.StreamPart("package", new AsyncPackageManagerClient.StreamPartSource(
+                "test.zip", new ByteArrayInputStream(content), content.length), "application/octet-stream");
+    }
+}
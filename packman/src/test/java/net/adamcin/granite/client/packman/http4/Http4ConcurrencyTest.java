@@ -0,0 +1,184 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+
+package net.adamcin.granite.client.packman.http4;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.adamcin.commons.testing.junit.TestBody;
+import net.adamcin.granite.client.packman.AbstractPackageManagerClient;
+import net.adamcin.granite.client.packman.ListResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class Http4ConcurrencyTest {
+    static final int THREADS = 64;
+    static final int REQUESTS_PER_THREAD = 20;
+    static final int MAX_CONNECTIONS = 16;
+    static final String LOGIN_COOKIE = "login-token=concurrency-test";
+
+    static final String LIST_RESPONSE = "{\"results\":[{\"pid\":\"test:concurrency:1.0\",\"name\":\"concurrency\","
+            + "\"group\":\"test\",\"version\":\"1.0\",\"hasSnapshot\":false,\"needsRewrap\":false}],\"total\":1}";
+
+    @Test
+    public void testSharedClient() {
+        TestBody.test(new ServerTestBody() {
+            @Override protected void execute() throws Exception {
+                start();
+                client = Http4PackageManagerClient.createConcurrentClient(MAX_CONNECTIONS, MAX_CONNECTIONS, 1000L);
+                client.setBaseUrl("http://127.0.0.1:" + server.getAddress().getPort());
+                assertTrue("login", client.login("admin", "admin"));
+
+                final CountDownLatch ready = new CountDownLatch(1);
+                final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+                List<Thread> threads = new ArrayList<Thread>();
+                for (int i = 0; i < THREADS; i++) {
+                    threads.add(new Thread() {
+                        @Override public void run() {
+                            try {
+                                ready.await();
+                                for (int r = 0; r < REQUESTS_PER_THREAD; r++) {
+                                    ListResponse response = client.list();
+                                    assertEquals("results", 1, response.getResults().size());
+                                }
+                            } catch (Throwable t) {
+                                failures.add(t);
+                            }
+                        }
+                    });
+                }
+                for (Thread thread : threads) {
+                    thread.start();
+                }
+                ready.countDown();
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+
+                assertEquals("failures: " + failures, 0, failures.size());
+                assertEquals("one login", 1, logins.get());
+                assertEquals("requests", THREADS * REQUESTS_PER_THREAD, requests.get());
+                assertEquals("requests without the login cookie", 0, unauthorized.get());
+                assertTrue("concurrent requests " + maxActive.get(),
+                        maxActive.get() > 1 && maxActive.get() <= MAX_CONNECTIONS);
+                assertTrue("connections " + connections.size(), connections.size() <= MAX_CONNECTIONS);
+            }
+        });
+    }
+
+    static abstract class ServerTestBody extends TestBody {
+        final AtomicInteger logins = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger unauthorized = new AtomicInteger();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final ConcurrentMap<Integer, Boolean> connections = new ConcurrentHashMap<Integer, Boolean>();
+        ExecutorService executor;
+        HttpServer server;
+        Http4PackageManagerClient client;
+
+        void start() throws IOException {
+            executor = Executors.newCachedThreadPool();
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(executor);
+            server.createContext(AbstractPackageManagerClient.LOGIN_PATH, new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    logins.incrementAndGet();
+                    exchange.getResponseHeaders().add("Set-Cookie", LOGIN_COOKIE + "; Path=/");
+                    respond(exchange, 200, "");
+                }
+            });
+            server.createContext(AbstractPackageManagerClient.CONSOLE_UI_LIST_PATH, new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    connections.put(exchange.getRemoteAddress().getPort(), Boolean.TRUE);
+                    int current = active.incrementAndGet();
+                    try {
+                        for (int max = maxActive.get(); current > max; max = maxActive.get()) {
+                            maxActive.compareAndSet(max, current);
+                        }
+                        requests.incrementAndGet();
+                        String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+                        if (cookie == null || !cookie.contains(LOGIN_COOKIE)) {
+                            unauthorized.incrementAndGet();
+                            respond(exchange, 401, "");
+                            return;
+                        }
+                        Thread.sleep(2L);
+                        respond(exchange, 200, LIST_RESPONSE);
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted");
+                    } finally {
+                        active.decrementAndGet();
+                    }
+                }
+            });
+            server.start();
+        }
+
+        static void respond(HttpExchange exchange, int status, String body) throws IOException {
+            InputStream request = exchange.getRequestBody();
+            while (request.read() != -1) {
+                // discard the request body
+            }
+            byte[] bytes = body.getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type", "application/json;charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length > 0 ? bytes.length : -1);
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+
+        @Override
+        protected void cleanUp() {
+            if (client != null) {
+                client.shutdown();
+            }
+            if (server != null) {
+                server.stop(0);
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+}